@@ -3,65 +3,93 @@ package com.byt.s30062.model;
 import com.byt.s30062.model.enums.AccessoryType;
 
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 public class Accessory extends Product {
 
     private AccessoryType type;
 
     // Qualified association: <DeviceName, Device>
-    private final Map<String, Device> designedFor = new HashMap<>();
+    final Map<String, Device> designedFor = new HashMap<>();
 
     public Accessory(String name, String color, double initialPrice, AccessoryType type) {
         super(name, color, initialPrice);
         if (type == null) throw new IllegalArgumentException("type cannot be null");
         
         this.type = type;
+        registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Accessory(Restoration restoration, String name, String color, AccessoryType type) {
+        super(restoration, name, color);
+        this.type = type;
     }
 
     public AccessoryType getType() { return type; }
 
     public void setType(AccessoryType type) {
         if (type == null) throw new IllegalArgumentException("type cannot be null");
-        this.type = type;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.type = type;
+            MutationJournal.record(MutationJournal.Op.SET_ACCESSORY_TYPE, this, type);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Qualified association: add device with device name as qualifier
     public void addDesignedFor(Device device){
         if (device == null) throw new IllegalArgumentException("device cannot be null");
-        if (designedFor.containsKey(device.getName()))
-            throw new IllegalArgumentException("The accessory is already designed for specified Device!");
-        designedFor.put(device.getName(), device);
-        device.linkAccessory(this); // maintain reverse link without search on Device side
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (designedFor.containsKey(device.getName()))
+                throw new IllegalArgumentException("The accessory is already designed for specified Device!");
+            designedFor.put(device.getName(), device);
+            device.linkAccessory(this); // maintain reverse link without search on Device side
+            MutationJournal.record(MutationJournal.Op.ADD_DESIGNED_FOR, this, device);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Remove association by qualifier (device name), keeping reverse link in sync
     public void removeDesignedFor(String deviceName){
-        Device device = designedFor.remove(deviceName);
-        if (device != null) {
-            device.unlinkAccessory(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            Device device = designedFor.remove(deviceName);
+            if (device != null) {
+                device.unlinkAccessory(this);
+                MutationJournal.record(MutationJournal.Op.REMOVE_DESIGNED_FOR, this, deviceName);
+            }
+        } finally {
+            step.unlock();
         }
     }
 
     // Retrieve device by qualifier (device name)
     public Device getDesignedForByName(String deviceName){
+        resolveLinks();
         return designedFor.getOrDefault(deviceName, null);
     }
 
     // Return a copy to preserve encapsulation
     public Map<String, Device> getAllDesignedFor(){
+        resolveLinks();
         return new HashMap<>(designedFor);
     }
 
     @Override
-    public boolean equals(Object o) {
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Accessory)) return false;
         Accessory a = (Accessory) o;
-        return super.equals(o) && type == a.type;
+        return super.deepEquals(o) && type == a.type;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), type);
+    public int deepHashCode() {
+        return Objects.hash(super.deepHashCode(), type);
     }
 }
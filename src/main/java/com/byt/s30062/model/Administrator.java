@@ -7,6 +7,7 @@ import com.byt.s30062.model.complex.WorkingHours;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Administrator extends Staff {
 
@@ -17,6 +18,7 @@ public class Administrator extends Staff {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, weekends);
         if (levelOfPermission == null) throw new IllegalArgumentException("levelOfPermission cannot be null");
         this.levelOfPermission = levelOfPermission;
+        registerNew();
     }
 
     public Administrator(String firstName, String lastName, LocalDate dateOfBirth, double baseSalary, 
@@ -25,6 +27,7 @@ public class Administrator extends Staff {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, workingDays, workingHours);
         if (levelOfPermission == null) throw new IllegalArgumentException("levelOfPermission cannot be null");
         this.levelOfPermission = levelOfPermission;
+        registerNew();
     }
 
     public Administrator(Person person, double baseSalary, boolean isIntern, LevelOfPermission levelOfPermission, 
@@ -32,6 +35,7 @@ public class Administrator extends Staff {
         super(person, baseSalary, isIntern, staffType, weekends);
         if (levelOfPermission == null) throw new IllegalArgumentException("levelOfPermission cannot be null");
         this.levelOfPermission = levelOfPermission;
+        registerNew();
     }
 
     public Administrator(Person person, double baseSalary, boolean isIntern, LevelOfPermission levelOfPermission, 
@@ -39,25 +43,40 @@ public class Administrator extends Staff {
         super(person, baseSalary, isIntern, staffType, workingDays, workingHours);
         if (levelOfPermission == null) throw new IllegalArgumentException("levelOfPermission cannot be null");
         this.levelOfPermission = levelOfPermission;
+        registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Administrator(Restoration restoration, double baseSalary, boolean isIntern, StaffType staffType,
+                  List<DayOfWeek> weekends, List<DayOfWeek> workingDays, WorkingHours workingHours,
+                  LevelOfPermission levelOfPermission) {
+        super(restoration, baseSalary, isIntern, staffType, weekends, workingDays, workingHours);
+        this.levelOfPermission = levelOfPermission;
     }
 
     public LevelOfPermission getLevelOfPermission() { return levelOfPermission; }
 
     public void setLevelOfPermission(LevelOfPermission levelOfPermission) {
         if (levelOfPermission == null) throw new IllegalArgumentException("levelOfPermission cannot be null");
-        this.levelOfPermission = levelOfPermission;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.levelOfPermission = levelOfPermission;
+            MutationJournal.record(MutationJournal.Op.SET_LEVEL_OF_PERMISSION, this, levelOfPermission);
+        } finally {
+            step.unlock();
+        }
     }
 
     @Override
-    public boolean equals(Object o) {
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Administrator)) return false;
         Administrator a = (Administrator) o;
-        return super.equals(o) && levelOfPermission == a.levelOfPermission;
+        return super.deepEquals(o) && levelOfPermission == a.levelOfPermission;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), levelOfPermission);
+    public int deepHashCode() {
+        return Objects.hash(super.deepHashCode(), levelOfPermission);
     }
 }
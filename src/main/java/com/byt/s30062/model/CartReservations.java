@@ -0,0 +1,164 @@
+package com.byt.s30062.model;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+// Time limit on cart items. reserve() adds a unit to a cart like Product.addToCart and gives the
+// dummy warranty an expiry; sweep() deletes the dummy warranties whose time is up, which frees
+// their units for other shoppers. Items of a purchase finalized in time keep their warranties.
+//
+// Expiries sit in a hashed timer wheel: one slot per tick, a deadline goes to the slot of its
+// tick modulo the wheel size. A sweep only visits the slots of the ticks passed since the last
+// one, so its work is the expired reservations plus those of later rounds sharing the slots,
+// never a scan of all reservations or of Warranty.getExtent(). Renewing a reservation leaves
+// the old entry behind, it is dropped when its slot comes up.
+public final class CartReservations implements Closeable {
+    private static final long TICK_MILLIS = 1000;
+    private static final int SLOTS = 512;  // power of two
+
+    private final long ttlMillis;
+    private final Clock clock;
+
+    // Guarded by this
+    private final ArrayDeque<Entry>[] wheel;
+    private final IdentityHashMap<Warranty, Entry> entries = new IdentityHashMap<>();
+    private long lastTick;  // ticks up to and including this one have been swept
+    private ScheduledExecutorService sweeper;
+
+    public CartReservations(Duration ttl) {
+        this(ttl, Clock.systemDefaultZone());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CartReservations(Duration ttl, Clock clock) {
+        if (ttl == null) throw new IllegalArgumentException("ttl cannot be null");
+        if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive");
+        if (clock == null) throw new IllegalArgumentException("clock cannot be null");
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.wheel = new ArrayDeque[SLOTS];
+        for (int i = 0; i < SLOTS; i++) wheel[i] = new ArrayDeque<>();
+        this.lastTick = clock.millis() / TICK_MILLIS;
+    }
+
+    private static final class Entry {
+        final Warranty warranty;
+        final long deadline;  // millis
+        final long tick;      // first tick at or after the deadline
+
+        Entry(Warranty warranty, long deadline) {
+            this.warranty = warranty;
+            this.deadline = deadline;
+            this.tick = (deadline + TICK_MILLIS - 1) / TICK_MILLIS;
+        }
+    }
+
+    // Adds the unit to the cart until the ttl has passed; a unit already in the cart gets a new
+    // expiry. Returns the dummy warranty.
+    public Warranty reserve(Purchase purchase, Unit unit) {
+        if (purchase == null) throw new IllegalArgumentException("purchase cannot be null");
+        if (unit == null) throw new IllegalArgumentException("unit cannot be null");
+        if (unit.getPurchase() != purchase) unit.getProduct().addToCart(purchase, unit);
+        Warranty warranty = purchase.warrantyFor(unit);
+        if (warranty == null) throw new IllegalStateException("unit was removed from the cart while reserving");
+        if (warranty.getEndDate() != null) throw new IllegalArgumentException("unit is already purchased");
+        schedule(warranty, clock.millis() + ttlMillis);
+        return warranty;
+    }
+
+    // Restarts the time limit of every reserved item of the purchase, e.g. while the shopper is active
+    public void renew(Purchase purchase) {
+        if (purchase == null) throw new IllegalArgumentException("purchase cannot be null");
+        long deadline = clock.millis() + ttlMillis;
+        for (Warranty w : purchase.getWarranties()) {
+            synchronized (this) {
+                if (entries.containsKey(w)) schedule(w, deadline);
+            }
+        }
+    }
+
+    // Milliseconds since the epoch at which the item expires, -1 if it is not reserved here
+    public synchronized long getExpiry(Warranty warranty) {
+        Entry entry = entries.get(warranty);
+        return entry == null ? -1 : entry.deadline;
+    }
+
+    // Reservations not yet swept, including those whose purchase has been finalized since
+    public synchronized int size() { return entries.size(); }
+
+    private synchronized void schedule(Warranty warranty, long deadline) {
+        Entry entry = new Entry(warranty, deadline);
+        entries.put(warranty, entry);
+        // A deadline in a tick already swept is picked up by the next sweep
+        long tick = Math.max(entry.tick, lastTick + 1);
+        wheel[(int) (tick & (SLOTS - 1))].add(entry);
+    }
+
+    // Deletes the dummy warranties that have expired; returns how many were released
+    public int sweep() {
+        List<Warranty> expired = collectExpired(clock.millis());
+        int released = 0;
+        for (Warranty w : expired) {
+            Purchase purchase = w.getPurchase();
+            // finalizePurchase holds the same locks while it sets the end dates; the mutation
+            // lock comes first, see SystemSnapshot.mutations
+            Lock step = SystemSnapshot.mutation();
+            try {
+                synchronized (purchase) {
+                    if (w.getEndDate() == null && purchase.warrantyFor(w.getUnit()) == w) {
+                        w.delete();
+                        released++;
+                    }
+                }
+            } finally {
+                step.unlock();
+            }
+        }
+        return released;
+    }
+
+    private synchronized List<Warranty> collectExpired(long now) {
+        long tick = now / TICK_MILLIS;
+        List<Warranty> expired = new ArrayList<>();
+        if (tick <= lastTick) return expired;
+        // After a long pause every slot is due once
+        long from = Math.max(lastTick + 1, tick - SLOTS + 1);
+        for (long t = from; t <= tick; t++) {
+            ArrayDeque<Entry> slot = wheel[(int) (t & (SLOTS - 1))];
+            for (Iterator<Entry> it = slot.iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entries.get(entry.warranty) != entry) {
+                    it.remove();  // renewed or already released
+                } else if (entry.deadline <= now) {
+                    it.remove();
+                    entries.remove(entry.warranty);
+                    expired.add(entry.warranty);
+                }
+            }
+        }
+        lastTick = tick;
+        return expired;
+    }
+
+    // Sweeps every tick on a background thread until closed
+    public synchronized void start() {
+        if (sweeper != null) throw new IllegalStateException("sweeper already started");
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cart-reservations");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,408 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+import com.byt.s30062.util.ExtentManager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+// Bulk import of Products and Units, e.g. a received shipment. Creating a million units through
+// the public constructors is quadratic (Product.linkUnit checks contains), so the import builds
+// the units itself:
+//   1. the input is read as a stream and cut into chunks, which are parsed and validated on a
+//      pool of threads with the same rules as the constructors;
+//   2. serial numbers are checked for uniqueness, against Unit.findBySerial and within the
+//      input;
+//   3. units are linked in one pass: appended to their product and inserted into the serial
+//      number index of their store.
+// Nothing is changed unless the whole input is valid; the first invalid row is reported with
+// its line (CSV) or record number (binary).
+//
+// CSV rows, ISO dates, fields may be quoted with "":
+//   product,<name>,<color>,<initial price>
+//   unit,<serial number>,<manufacturing date>,<product name>,<store number>
+// The binary format is a snapshot header (see ExtentManager, compressed files work too)
+// followed by the same rows as tagged records, written by CatalogImport.Writer.
+//
+// A product row creates the product unless one with that name exists (the import identifies
+// products by name, the first of that name in Product.getExtent() wins). Units name their
+// product, which has to exist or appear earlier in the input, and optionally a store by its
+// position in Store.getExtent().
+public final class CatalogImport {
+    private static final int CHUNK_SIZE = 8192;
+    private static final int TAG_END = 0;
+    private static final int TAG_PRODUCT = 1;
+    private static final int TAG_UNIT = 2;
+    private static final int NO_STORE = -1;
+
+    private CatalogImport() {}
+
+    // Returns the created units in input order
+    public static List<Unit> importCsv(String filePath) throws IOException {
+        try (Reader in = new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)) {
+            return importCsv(in, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    public static List<Unit> importCsv(Reader in, int parallelism) throws IOException {
+        BufferedReader lines = new BufferedReader(in, 1 << 16);
+        return run(parallelism, chunk -> {
+            String line;
+            while (chunk.size() < CHUNK_SIZE && (line = lines.readLine()) != null) {
+                chunk.add(new RawRow(chunk.nextNumber(), line));
+            }
+        });
+    }
+
+    public static List<Unit> importBinary(String filePath) throws IOException {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return importBinary(in, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    public static List<Unit> importBinary(InputStream stream, int parallelism) throws IOException {
+        BinaryReader in = ExtentManager.openBinaryInput(stream);
+        boolean[] ended = new boolean[1];
+        return run(parallelism, chunk -> {
+            while (chunk.size() < CHUNK_SIZE && !ended[0]) {
+                int tag = in.readByte();
+                if (tag == TAG_END) {
+                    ended[0] = true;
+                } else if (tag == TAG_PRODUCT) {
+                    chunk.add(new RawRow(chunk.nextNumber(), new String[] {"product", in.readString(), in.readString(), null}, in.readDouble()));
+                } else if (tag == TAG_UNIT) {
+                    int number = chunk.nextNumber();
+                    String serial = in.readString();
+                    LocalDate date = in.readDate();
+                    String product = in.readString();
+                    chunk.add(new RawRow(number, serial, date, product, in.readInt()));
+                } else {
+                    throw new IOException("record " + chunk.nextNumber() + ": unknown record tag " + tag);
+                }
+            }
+        });
+    }
+
+    // Writes rows in the binary format read by importBinary
+    public static final class Writer implements Closeable {
+        private final BinaryWriter out;
+
+        public Writer(OutputStream stream) throws IOException {
+            this.out = ExtentManager.openBinaryOutput(stream);
+        }
+
+        public void product(String name, String color, double initialPrice) throws IOException {
+            out.writeByte(TAG_PRODUCT);
+            out.writeString(name);
+            out.writeString(color);
+            out.writeDouble(initialPrice);
+        }
+
+        // store is a position in Store.getExtent(), or -1 for none
+        public void unit(String serialNumber, LocalDate manufacturingDate, String productName, int store) throws IOException {
+            out.writeByte(TAG_UNIT);
+            out.writeString(serialNumber);
+            out.writeDate(manufacturingDate);
+            out.writeString(productName);
+            out.writeInt(store);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(TAG_END);
+            out.close();
+        }
+    }
+
+    // ---- pipeline ----
+
+    private interface ChunkSource {
+        // Fills the chunk up to CHUNK_SIZE rows; leaves it empty at the end of the input
+        void fill(Chunk chunk) throws IOException;
+    }
+
+    private static final class Chunk extends ArrayList<RawRow> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] counter;
+
+        Chunk(int[] counter) {
+            super(CHUNK_SIZE);
+            this.counter = counter;
+        }
+
+        int nextNumber() { return ++counter[0]; }
+    }
+
+    // A row as read; CSV rows are split by the workers
+    private static final class RawRow {
+        final int number;
+        final String line;
+        final String[] fields;
+        final double price;
+        final LocalDate date;
+        final int store;
+
+        RawRow(int number, String line) {
+            this(number, line, null, 0, null, NO_STORE);
+        }
+
+        RawRow(int number, String[] productFields, double price) {
+            this(number, null, productFields, price, null, NO_STORE);
+        }
+
+        RawRow(int number, String serial, LocalDate date, String product, int store) {
+            this(number, null, new String[] {"unit", serial, null, product}, 0, date, store);
+        }
+
+        private RawRow(int number, String line, String[] fields, double price, LocalDate date, int store) {
+            this.number = number;
+            this.line = line;
+            this.fields = fields;
+            this.price = price;
+            this.date = date;
+            this.store = store;
+        }
+    }
+
+    // A validated row; product rows have a null serial number
+    private static final class Row {
+        final int number;
+        final String serialNumber;
+        final LocalDate manufacturingDate;
+        final String productName;
+        final String color;
+        final double price;
+        final int store;
+
+        Row(int number, String serialNumber, LocalDate manufacturingDate, String productName, String color, double price, int store) {
+            this.number = number;
+            this.serialNumber = serialNumber;
+            this.manufacturingDate = manufacturingDate;
+            this.productName = productName;
+            this.color = color;
+            this.price = price;
+            this.store = store;
+        }
+
+        boolean isUnit() { return serialNumber != null; }
+    }
+
+    // Thrown by workers, reported as IllegalArgumentException with the row number
+    private static final class InvalidRow extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int number;
+
+        InvalidRow(int number, String message) {
+            super(message);
+            this.number = number;
+        }
+    }
+
+    private static List<Unit> run(int parallelism, ChunkSource source) throws IOException {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        LocalDate today = LocalDate.now();
+        int storeCount = Store.getExtent().size();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "catalog-import");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<List<Row>>> chunks = new ArrayList<>();
+        List<Row> rows = new ArrayList<>();
+        try {
+            // Reading stays on this thread so that the input is consumed as a stream
+            int[] counter = new int[1];
+            while (true) {
+                Chunk chunk = new Chunk(counter);
+                source.fill(chunk);
+                if (chunk.isEmpty()) break;
+                chunks.add(executor.submit(() -> validate(chunk, today, storeCount)));
+            }
+            for (Future<List<Row>> chunk : chunks) rows.addAll(chunk.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while importing catalog");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidRow) {
+                throw new IllegalArgumentException("row " + ((InvalidRow) cause).number + ": " + cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("cannot import catalog", cause);
+        } finally {
+            for (Future<?> chunk : chunks) chunk.cancel(true);
+            executor.shutdownNow();
+        }
+        return link(rows);
+    }
+
+    // Same checks as the Product and Unit constructors, plus the store number
+    private static List<Row> validate(List<RawRow> chunk, LocalDate today, int storeCount) throws InvalidRow {
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (RawRow raw : chunk) {
+            String[] fields = raw.fields;
+            double price = raw.price;
+            LocalDate date = raw.date;
+            int store = raw.store;
+            if (raw.line != null) {
+                if (raw.line.isBlank()) continue;
+                fields = splitCsv(raw.line, raw.number);
+                if (fields[0].equals("product")) {
+                    if (fields.length != 4) throw new InvalidRow(raw.number, "product rows have 4 fields");
+                    try {
+                        price = Double.parseDouble(fields[3]);
+                    } catch (NumberFormatException e) {
+                        throw new InvalidRow(raw.number, "invalid price: " + fields[3]);
+                    }
+                } else if (fields[0].equals("unit")) {
+                    if (fields.length != 5) throw new InvalidRow(raw.number, "unit rows have 5 fields");
+                    try {
+                        date = LocalDate.parse(fields[2]);
+                    } catch (DateTimeParseException e) {
+                        throw new InvalidRow(raw.number, "invalid manufacturing date: " + fields[2]);
+                    }
+                    try {
+                        store = fields[4].isEmpty() ? NO_STORE : Integer.parseInt(fields[4]);
+                    } catch (NumberFormatException e) {
+                        throw new InvalidRow(raw.number, "invalid store number: " + fields[4]);
+                    }
+                    fields = new String[] {"unit", fields[1], null, fields[3]};
+                } else {
+                    throw new InvalidRow(raw.number, "unknown row type: " + fields[0]);
+                }
+            }
+
+            if (fields[0].equals("product")) {
+                String name = fields[1], color = fields[2];
+                if (name == null) throw new InvalidRow(raw.number, "name cannot be null");
+                if (name.isBlank()) throw new InvalidRow(raw.number, "name cannot be empty or blank");
+                if (name.length() > 100) throw new InvalidRow(raw.number, "name cannot exceed 100 characters");
+                if (Double.isNaN(price)) throw new InvalidRow(raw.number, "initial price cannot be NaN");
+                if (Double.isInfinite(price)) throw new InvalidRow(raw.number, "initial price cannot be infinite");
+                if (price <= 0) throw new InvalidRow(raw.number, "initial price must be positive");
+                try {
+                    PriceTable.toCents(price);  // what the Product constructor stores
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidRow(raw.number, "initial " + e.getMessage());
+                }
+                rows.add(new Row(raw.number, null, null, name.trim(), color == null || color.isBlank() ? null : color.trim(), price, NO_STORE));
+            } else {
+                String serial = fields[1], product = fields[3];
+                if (date == null) throw new InvalidRow(raw.number, "manufacturingDate cannot be null");
+                if (date.isAfter(today)) throw new InvalidRow(raw.number, "manufacturingDate cannot be in the future");
+                if (date.isBefore(LocalDate.of(1900, 1, 1))) throw new InvalidRow(raw.number, "manufacturingDate cannot be before 1900");
+                if (serial == null) throw new InvalidRow(raw.number, "serialNumber cannot be null");
+                if (serial.isBlank()) throw new InvalidRow(raw.number, "serialNumber cannot be empty or blank");
+                if (serial.length() > 100) throw new InvalidRow(raw.number, "serialNumber cannot exceed 100 characters");
+                if (product == null || product.isBlank()) throw new InvalidRow(raw.number, "product cannot be null");
+                if (store != NO_STORE && (store < 0 || store >= storeCount)) throw new InvalidRow(raw.number, "no store number " + store);
+                rows.add(new Row(raw.number, serial.trim(), date, product.trim(), null, 0, store));
+            }
+        }
+        return rows;
+    }
+
+    // Comma separated, a field in double quotes may contain commas and "" for a quote
+    private static String[] splitCsv(String line, int number) throws InvalidRow {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new InvalidRow(number, "unterminated quote");
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    // Checks references and uniqueness, then creates and links everything
+    private static List<Unit> link(List<Row> rows) {
+        Map<String, Product> products = new HashMap<>();
+        for (Product p : Product.getExtent()) products.putIfAbsent(p.getName(), p);
+        Set<String> serials = new HashSet<>();
+
+        Set<String> newProducts = new HashSet<>();
+        int unitCount = 0;
+        for (Row row : rows) {
+            if (!row.isUnit()) {
+                if (!products.containsKey(row.productName)) newProducts.add(row.productName);
+                continue;
+            }
+            if (!products.containsKey(row.productName) && !newProducts.contains(row.productName)) {
+                throw new IllegalArgumentException("row " + row.number + ": unknown product " + row.productName);
+            }
+            if (Unit.findBySerial(row.serialNumber) != null || !serials.add(row.serialNumber)) {
+                throw new IllegalArgumentException("row " + row.number + ": duplicate serial number " + row.serialNumber);
+            }
+            unitCount++;
+        }
+
+        // Valid from here on
+        List<Store> stores = Store.getExtent();
+        List<Unit> units = new ArrayList<>(unitCount);
+        Map<Product, List<Unit>> byProduct = new LinkedHashMap<>();
+        Map<Store, List<Unit>> byStore = new LinkedHashMap<>();
+        // The whole import is one mutation, see SystemSnapshot.mutations
+        Lock step = SystemSnapshot.mutation();
+        try {
+            for (Row row : rows) {
+                if (!row.isUnit()) {
+                    if (!products.containsKey(row.productName)) {
+                        products.put(row.productName, new Product(row.productName, row.color, row.price));
+                    }
+                    continue;
+                }
+                Unit u = new Unit(Restoration.TOKEN, row.manufacturingDate, row.serialNumber);
+                u.product = products.get(row.productName);
+                byProduct.computeIfAbsent(u.product, p -> new ArrayList<>()).add(u);
+                if (row.store != NO_STORE) {
+                    u.store = stores.get(row.store);
+                    byStore.computeIfAbsent(u.store, s -> new ArrayList<>()).add(u);
+                }
+                units.add(u);
+            }
+
+            for (Map.Entry<Product, List<Unit>> entry : byProduct.entrySet()) {
+                entry.getKey().units.addAll(entry.getValue());
+            }
+            for (Map.Entry<Store, List<Unit>> entry : byStore.entrySet()) {
+                NavigableMap<String, Unit> storeUnits = entry.getKey().units;
+                for (Unit u : entry.getValue()) storeUnits.put(u.getSerialNumber(), u);
+            }
+            Unit.registerImported(units);
+
+            for (Unit u : units) {
+                MutationJournal.recordCreated(u);
+                if (u.store != null) MutationJournal.record(MutationJournal.Op.STORE_LINK_UNIT, u.store, u);
+            }
+        } finally {
+            step.unlock();
+        }
+        return units;
+    }
+}
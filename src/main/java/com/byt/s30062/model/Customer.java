@@ -1,5 +1,7 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
@@ -8,15 +10,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Customer implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Customer> extent = new ArrayList<>();
+    private static final Extent<Customer> extent = new Extent<>(Customer::getId);
     private static final String EXTENT_FILE = "customer_extent.ser";
 
-    private final Person person; // Composed Person (required)
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
+    Person person; // Composed Person (required)
     private final LocalDate registrationDate; // basic attribute
-    private List<Purchase> purchases = new ArrayList<>(); // 0..many purchases for this customer
+    List<Purchase> purchases = new ArrayList<>(); // 0..many purchases for this customer
 
     // Constructor 1: Create Customer with new Person
     public Customer(String firstName, String lastName, LocalDate dateOfBirth, LocalDate registrationDate) {
@@ -34,8 +42,14 @@ public class Customer implements Serializable {
         this.registrationDate = registrationDate;
         
         // Bidirectional link
-        newPerson.linkCustomer(this);
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            newPerson.linkCustomer(this);
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Constructor 2: Create Customer with existing Person
@@ -52,20 +66,31 @@ public class Customer implements Serializable {
         this.registrationDate = registrationDate;
         
         // Bidirectional link
-        person.linkCustomer(this);
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            person.linkCustomer(this);
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Customer(Restoration restoration, LocalDate registrationDate) {
+        this.registrationDate = registrationDate;
     }
 
     // Person delegation methods
-    public Person getPerson() { return person; }
+    public Person getPerson() { resolveLinks(); return person; }
 
-    public String getFirstName() { return person.getFirstName(); }
+    public String getFirstName() { return getPerson().getFirstName(); }
 
-    public String getLastName() { return person.getLastName(); }
+    public String getLastName() { return getPerson().getLastName(); }
 
-    public LocalDate getDateOfBirth() { return person.getDateOfBirth(); }
+    public LocalDate getDateOfBirth() { return getPerson().getDateOfBirth(); }
 
-    public int getAge() { return person.getAge(); }
+    public int getAge() { return getPerson().getAge(); }
 
     public void setFirstName(String firstName) { person.setFirstName(firstName); }
 
@@ -74,11 +99,15 @@ public class Customer implements Serializable {
     public LocalDate getRegistrationDate() { return registrationDate; }
 
     public List<Purchase> getPurchases() {
-        return new ArrayList<>(purchases);
+        resolveLinks();
+        synchronized (this) {
+            return new ArrayList<>(purchases);
+        }
     }
 
-    // Called by Purchase constructor to link itself to this customer
-    void linkPurchase(Purchase purchase) {
+    // Called by Purchase constructor to link itself to this customer; carts of one customer may
+    // be opened from several threads
+    synchronized void linkPurchase(Purchase purchase) {
         if (purchase != null && !purchases.contains(purchase)) {
             purchases.add(purchase);
         }
@@ -88,8 +117,16 @@ public class Customer implements Serializable {
     // Removes purchase from customer's list AND deletes it from system (mandatory relationship)
     void unlinkPurchase(Purchase purchase) {
         if (purchase != null) {
-            purchases.remove(purchase);
-            purchase.removeFromExtent(); // Purchase cannot exist without a customer
+            Lock step = SystemSnapshot.mutation();
+            try {
+                synchronized (this) {
+                    purchases.remove(purchase);
+                }
+                purchase.removeFromExtent(); // Purchase cannot exist without a customer
+                MutationJournal.record(MutationJournal.Op.CUSTOMER_UNLINK_PURCHASE, this, purchase);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
@@ -100,14 +137,37 @@ public class Customer implements Serializable {
         }
     }
 
-    public static List<Customer> getExtent() { return new ArrayList<>(extent); }
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Customer findById(long id) { return extent.byId(id); }
+
+    public static List<Customer> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Customer> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Customer>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        person.linkCustomer(this);
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Customer> restored) {
+        extent.replaceWith(restored);
     }
 
     // For testing purposes only - clears extent
@@ -115,14 +175,21 @@ public class Customer implements Serializable {
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Customer && id == ((Customer) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Customer)) return false;
         Customer c = (Customer) o;
-        return person.equals(c.person) && registrationDate.isEqual(c.registrationDate);
+        return getPerson().deepEquals(c.getPerson()) && registrationDate.isEqual(c.registrationDate);
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(person, registrationDate);
+    public int deepHashCode() {
+        return Objects.hash(getPerson().deepHashCode(), registrationDate);
     }
 }
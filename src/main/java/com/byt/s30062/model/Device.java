@@ -14,7 +14,7 @@ public class Device extends Product {
     private Line line;
     private List<PortType> ports;
     private LocalDate releaseDate;
-    private Set<Accessory> accessories = new HashSet<>();
+    Set<Accessory> accessories = new HashSet<>();
 
 
     public Device(Line line, List<PortType> ports, LocalDate releaseDate, String name, String color, double initialPrice) {
@@ -30,6 +30,15 @@ public class Device extends Product {
         this.line = line;
         this.ports = new ArrayList<>(ports); // defensive copy
         this.releaseDate = releaseDate;
+        registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Device(Restoration restoration, String name, String color, Line line, List<PortType> ports, LocalDate releaseDate) {
+        super(restoration, name, color);
+        this.line = line;
+        this.ports = ports;
+        this.releaseDate = releaseDate;
     }
 
     public Line getLine() {
@@ -47,6 +56,7 @@ public class Device extends Product {
     }
 
     public Set<Accessory> getAccessories(){
+        resolveLinks();
         return new HashSet<>(accessories);
     }
 
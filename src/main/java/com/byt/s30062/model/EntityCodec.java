@@ -0,0 +1,50 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+// Binary encoding of one extent for SystemSnapshot.
+// A record is split in two parts: the entity's own attributes, written and read by the codec,
+// and its references to other entities, which the snapshot replaces with integer ids.
+// The attributes start with the entity's surrogate id, so restored objects keep theirs.
+// Every entity writes the references it holds itself (both sides of an association are stored),
+// so link() only ever assigns fields of the entity it is given.
+interface EntityCodec<T> {
+    Class<T> type();
+
+    // Read-only view of the live extent
+    List<T> extent();
+
+    void replaceExtent(List<T> restored);
+
+    // Adds a single recreated entity to its extent and to the associations it joined on creation
+    void register(T entity);
+
+    void writeAttributes(T entity, BinaryWriter out) throws IOException;
+
+    // Must visit references in the same order in which link() reads them
+    void writeReferences(T entity, ReferenceSink refs) throws IOException;
+
+    T readAttributes(BinaryReader in) throws IOException;
+
+    void link(T entity, ReferenceSource refs) throws IOException;
+
+    // Marks an entity read by MappedSnapshot as not linked yet, or as linked when links is null
+    void deferLinks(T entity, MappedSnapshot.PendingLinks links);
+
+    interface ReferenceSink {
+        void ref(Object target) throws IOException;
+
+        void refs(Collection<?> targets) throws IOException;
+    }
+
+    interface ReferenceSource {
+        <R> R ref(Class<R> type) throws IOException;
+
+        <R> List<R> refs(Class<R> type) throws IOException;
+    }
+}
@@ -0,0 +1,520 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.*;
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+// Per-class codecs used by SystemSnapshot, in the order their sections appear in a snapshot file.
+final class EntityCodecs {
+    // Subtype tags for the Staff and Product hierarchies
+    private static final int ADMINISTRATOR = 0, MANAGER = 1, SALES_STAFF = 2;
+    private static final int PLAIN_PRODUCT = 0, DEVICE = 1, ACCESSORY = 2;
+
+    static final EntityCodec<Person> PERSON = new PersonCodec();
+    static final EntityCodec<Customer> CUSTOMER = new CustomerCodec();
+    static final EntityCodec<Staff> STAFF = new StaffCodec();
+    static final EntityCodec<Store> STORE = new StoreCodec();
+    static final EntityCodec<HistoryOfEmployment> EMPLOYMENT = new HistoryOfEmploymentCodec();
+    static final EntityCodec<Product> PRODUCT = new ProductCodec();
+    static final EntityCodec<Unit> UNIT = new UnitCodec();
+    static final EntityCodec<Purchase> PURCHASE = new PurchaseCodec();
+    static final EntityCodec<Warranty> WARRANTY = new WarrantyCodec();
+    static final EntityCodec<Report> REPORT = new ReportCodec();
+
+    static final List<EntityCodec<?>> ALL = List.of(
+            PERSON, CUSTOMER, STAFF, STORE, EMPLOYMENT, PRODUCT, UNIT, PURCHASE, WARRANTY, REPORT);
+
+    private EntityCodecs() {}
+
+    // Codec that accepts the given object, or null if it is not a snapshot entity
+    static EntityCodec<?> codecFor(Object entity) {
+        for (EntityCodec<?> codec : ALL) {
+            if (codec.type().isInstance(entity)) return codec;
+        }
+        return null;
+    }
+
+    private static void writeDays(List<DayOfWeek> days, BinaryWriter out) throws IOException {
+        if (days == null) {
+            out.writeByte(-1);
+            return;
+        }
+        out.writeByte(days.size());
+        for (DayOfWeek day : days) out.writeEnum(day);
+    }
+
+    private static List<DayOfWeek> readDays(BinaryReader in) throws IOException {
+        int count = in.readByte();
+        if (count < 0) return null;
+        List<DayOfWeek> days = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) days.add(in.readEnum(DayOfWeek.class));
+        return days;
+    }
+
+    // PriceHistory is composed into Product, so its entries are written inside the product record
+    static final class PriceHistoryCodec {
+        private PriceHistoryCodec() {}
+
+        static void write(PriceTable prices, int i, BinaryWriter out) throws IOException {
+            out.writeDouble(prices.price(i));
+            out.writeDate(prices.dateFrom(i));
+            out.writeDate(prices.dateTo(i));
+        }
+
+        static void read(BinaryReader in, PriceTable prices) throws IOException {
+            double price = in.readDouble();
+            LocalDate dateFrom = in.readDate();
+            LocalDate dateTo = in.readDate();
+            prices.add(Math.round(price * 100), dateFrom, dateTo);
+        }
+    }
+
+    static final class PersonCodec implements EntityCodec<Person> {
+        public Class<Person> type() { return Person.class; }
+        public List<Person> extent() { return Person.getExtentView(); }
+        public void replaceExtent(List<Person> restored) { Person.replaceExtent(restored); }
+        public void register(Person entity) { entity.registerRestored(); }
+        public void deferLinks(Person entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Person p, BinaryWriter out) throws IOException {
+            out.writeLong(p.id);
+            out.writeString(p.getFirstName());
+            out.writeString(p.getLastName());
+            out.writeDate(p.getDateOfBirth());
+        }
+
+        public void writeReferences(Person p, ReferenceSink refs) throws IOException {
+            refs.ref(p.customer);
+            refs.ref(p.staff);
+        }
+
+        public Person readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Person p = new Person(Restoration.TOKEN, in.readString(), in.readString(), in.readDate());
+            p.id = id;
+            return p;
+        }
+
+        public void link(Person p, ReferenceSource refs) throws IOException {
+            p.customer = refs.ref(Customer.class);
+            p.staff = refs.ref(Staff.class);
+        }
+    }
+
+    static final class CustomerCodec implements EntityCodec<Customer> {
+        public Class<Customer> type() { return Customer.class; }
+        public List<Customer> extent() { return Customer.getExtentView(); }
+        public void replaceExtent(List<Customer> restored) { Customer.replaceExtent(restored); }
+        public void register(Customer entity) { entity.registerRestored(); }
+        public void deferLinks(Customer entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Customer c, BinaryWriter out) throws IOException {
+            out.writeLong(c.id);
+            out.writeDate(c.getRegistrationDate());
+        }
+
+        public void writeReferences(Customer c, ReferenceSink refs) throws IOException {
+            refs.ref(c.person);
+            refs.refs(c.purchases);
+        }
+
+        public Customer readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Customer c = new Customer(Restoration.TOKEN, in.readDate());
+            c.id = id;
+            return c;
+        }
+
+        public void link(Customer c, ReferenceSource refs) throws IOException {
+            c.person = refs.ref(Person.class);
+            c.purchases = refs.refs(Purchase.class);
+        }
+    }
+
+    static final class StaffCodec implements EntityCodec<Staff> {
+        public Class<Staff> type() { return Staff.class; }
+        public List<Staff> extent() { return Staff.getExtentView(); }
+        public void replaceExtent(List<Staff> restored) { Staff.replaceExtent(restored); }
+        public void register(Staff entity) { entity.registerRestored(); }
+        public void deferLinks(Staff entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Staff s, BinaryWriter out) throws IOException {
+            out.writeLong(s.id);
+            int tag;
+            if (s instanceof Administrator) tag = ADMINISTRATOR;
+            else if (s instanceof Manager) tag = MANAGER;
+            else if (s instanceof SalesStaff) tag = SALES_STAFF;
+            else throw new IOException("unsupported staff type: " + s.getClass().getName());
+
+            boolean fullTime = s.getStaffType() == StaffType.FULL_TIME;
+            out.writeByte(tag);
+            out.writeDouble(s.getBaseSalary());
+            out.writeBoolean(s.isIntern());
+            out.writeEnum(s.getStaffType());
+            writeDays(fullTime ? s.getWeekends() : null, out);
+            writeDays(fullTime ? null : s.getWorkingDays(), out);
+            WorkingHours hours = fullTime ? null : s.getWorkingHours();
+            out.writeBoolean(hours != null);
+            if (hours != null) {
+                out.writeDouble(hours.getStartHour());
+                out.writeDouble(hours.getFinishHour());
+            }
+            if (tag == ADMINISTRATOR) out.writeEnum(((Administrator) s).getLevelOfPermission());
+            if (tag == SALES_STAFF) out.writeDouble(((SalesStaff) s).getSalesBonus());
+        }
+
+        public void writeReferences(Staff s, ReferenceSink refs) throws IOException {
+            refs.ref(s.person);
+            refs.ref(s.supervisedBy);
+            refs.refs(s.supervises);
+            refs.refs(s.employmentHistory);
+            if (s instanceof Manager) refs.refs(((Manager) s).reports);
+        }
+
+        public Staff readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            int tag = in.readByte();
+            double baseSalary = in.readDouble();
+            boolean isIntern = in.readBoolean();
+            StaffType staffType = in.readEnum(StaffType.class);
+            List<DayOfWeek> weekends = readDays(in);
+            List<DayOfWeek> workingDays = readDays(in);
+            WorkingHours hours = in.readBoolean() ? new WorkingHours(in.readDouble(), in.readDouble()) : null;
+            Staff s;
+            switch (tag) {
+                case ADMINISTRATOR:
+                    s = new Administrator(Restoration.TOKEN, baseSalary, isIntern, staffType, weekends, workingDays, hours,
+                            in.readEnum(LevelOfPermission.class));
+                    break;
+                case MANAGER:
+                    s = new Manager(Restoration.TOKEN, baseSalary, isIntern, staffType, weekends, workingDays, hours);
+                    break;
+                case SALES_STAFF:
+                    s = new SalesStaff(Restoration.TOKEN, baseSalary, isIntern, staffType, weekends, workingDays, hours,
+                            in.readDouble());
+                    break;
+                default:
+                    throw new IOException("invalid staff type tag: " + tag);
+            }
+            s.id = id;
+            return s;
+        }
+
+        public void link(Staff s, ReferenceSource refs) throws IOException {
+            s.person = refs.ref(Person.class);
+            s.supervisedBy = refs.ref(Staff.class);
+            s.supervises = refs.refs(Staff.class);
+            s.employmentHistory = refs.refs(HistoryOfEmployment.class);
+            if (s instanceof Manager) ((Manager) s).reports = refs.refs(Report.class);
+        }
+    }
+
+    static final class StoreCodec implements EntityCodec<Store> {
+        public Class<Store> type() { return Store.class; }
+        public List<Store> extent() { return Store.getExtentView(); }
+        public void replaceExtent(List<Store> restored) { Store.replaceExtent(restored); }
+        public void register(Store entity) { entity.registerRestored(); }
+        public void deferLinks(Store entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Store s, BinaryWriter out) throws IOException {
+            out.writeLong(s.id);
+            Address a = s.getAddress();
+            out.writeString(a.getStreet());
+            out.writeString(a.getCity());
+            out.writeString(a.getPostalCode());
+            out.writeString(a.getCountry());
+            out.writeDate(s.getDateOfOpening());
+        }
+
+        public void writeReferences(Store s, ReferenceSink refs) throws IOException {
+            refs.refs(s.units.values());
+            refs.refs(s.employmentHistory);
+        }
+
+        public Store readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Address address = new Address(in.readString(), in.readString(), in.readString(), in.readString());
+            Store s = new Store(Restoration.TOKEN, address, in.readDate());
+            s.id = id;
+            return s;
+        }
+
+        public void link(Store s, ReferenceSource refs) throws IOException {
+            for (Unit u : refs.refs(Unit.class)) s.units.put(u.getSerialNumber(), u);
+            s.employmentHistory = refs.refs(HistoryOfEmployment.class);
+            s.rosterChanged();
+        }
+    }
+
+    static final class HistoryOfEmploymentCodec implements EntityCodec<HistoryOfEmployment> {
+        public Class<HistoryOfEmployment> type() { return HistoryOfEmployment.class; }
+        public List<HistoryOfEmployment> extent() { return HistoryOfEmployment.getExtentView(); }
+        public void replaceExtent(List<HistoryOfEmployment> restored) { HistoryOfEmployment.replaceExtent(restored); }
+        public void register(HistoryOfEmployment entity) { entity.registerRestored(); }
+        public void deferLinks(HistoryOfEmployment entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(HistoryOfEmployment h, BinaryWriter out) throws IOException {
+            out.writeLong(h.id);
+            out.writeDate(h.getDateOfStart());
+            out.writeDate(h.getDateOfFinish());
+        }
+
+        public void writeReferences(HistoryOfEmployment h, ReferenceSink refs) throws IOException {
+            refs.ref(h.staff);
+            refs.ref(h.store);
+        }
+
+        public HistoryOfEmployment readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            HistoryOfEmployment h = new HistoryOfEmployment(Restoration.TOKEN, in.readDate(), in.readDate());
+            h.id = id;
+            return h;
+        }
+
+        public void link(HistoryOfEmployment h, ReferenceSource refs) throws IOException {
+            h.staff = refs.ref(Staff.class);
+            h.store = refs.ref(Store.class);
+        }
+    }
+
+    static final class ProductCodec implements EntityCodec<Product> {
+        public Class<Product> type() { return Product.class; }
+        public List<Product> extent() { return Product.getExtentView(); }
+        public void replaceExtent(List<Product> restored) { Product.replaceExtent(restored); }
+        public void register(Product entity) { entity.registerRestored(); }
+        public void deferLinks(Product entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Product p, BinaryWriter out) throws IOException {
+            out.writeLong(p.id);
+            if (p instanceof Device) {
+                Device d = (Device) p;
+                out.writeByte(DEVICE);
+                out.writeString(p.getName());
+                out.writeString(p.getColor());
+                out.writeEnum(d.getLine());
+                List<PortType> ports = d.getPorts();
+                out.writeByte(ports.size());
+                for (PortType port : ports) out.writeEnum(port);
+                out.writeDate(d.getReleaseDate());
+            } else if (p instanceof Accessory) {
+                out.writeByte(ACCESSORY);
+                out.writeString(p.getName());
+                out.writeString(p.getColor());
+                out.writeEnum(((Accessory) p).getType());
+            } else if (p.getClass() == Product.class) {
+                out.writeByte(PLAIN_PRODUCT);
+                out.writeString(p.getName());
+                out.writeString(p.getColor());
+            } else {
+                throw new IOException("unsupported product type: " + p.getClass().getName());
+            }
+            PriceTable prices = p.prices;
+            out.writeInt(prices.size());
+            for (int i = 0; i < prices.size(); i++) PriceHistoryCodec.write(prices, i, out);
+        }
+
+        public void writeReferences(Product p, ReferenceSink refs) throws IOException {
+            refs.refs(p.units);
+            if (p instanceof Device) refs.refs(((Device) p).accessories);
+            if (p instanceof Accessory) refs.refs(((Accessory) p).designedFor.values());
+        }
+
+        public Product readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            int tag = in.readByte();
+            String name = in.readString();
+            String color = in.readString();
+            Product p;
+            switch (tag) {
+                case PLAIN_PRODUCT:
+                    p = new Product(Restoration.TOKEN, name, color);
+                    break;
+                case DEVICE:
+                    Line line = in.readEnum(Line.class);
+                    int portCount = in.readByte();
+                    List<PortType> ports = new ArrayList<>(portCount);
+                    for (int i = 0; i < portCount; i++) ports.add(in.readEnum(PortType.class));
+                    p = new Device(Restoration.TOKEN, name, color, line, ports, in.readDate());
+                    break;
+                case ACCESSORY:
+                    p = new Accessory(Restoration.TOKEN, name, color, in.readEnum(AccessoryType.class));
+                    break;
+                default:
+                    throw new IOException("invalid product type tag: " + tag);
+            }
+            p.id = id;
+            int historySize = in.readInt();
+            p.prices = new PriceTable(Math.min(historySize, 1024));
+            for (int i = 0; i < historySize; i++) PriceHistoryCodec.read(in, p.prices);
+            return p;
+        }
+
+        public void link(Product p, ReferenceSource refs) throws IOException {
+            p.units = refs.refs(Unit.class);
+            if (p instanceof Device) ((Device) p).accessories = new HashSet<>(refs.refs(Accessory.class));
+            if (p instanceof Accessory) {
+                for (Device d : refs.refs(Device.class)) ((Accessory) p).designedFor.put(d.getName(), d);
+            }
+        }
+    }
+
+    static final class UnitCodec implements EntityCodec<Unit> {
+        public Class<Unit> type() { return Unit.class; }
+        public List<Unit> extent() { return Unit.getExtentView(); }
+        public void replaceExtent(List<Unit> restored) { Unit.replaceExtent(restored); }
+        public void register(Unit entity) { entity.registerRestored(); }
+        public void deferLinks(Unit entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Unit u, BinaryWriter out) throws IOException {
+            out.writeLong(u.id);
+            out.writeDate(u.getManufacturingDate());
+            out.writeString(u.getSerialNumber());
+        }
+
+        public void writeReferences(Unit u, ReferenceSink refs) throws IOException {
+            refs.ref(u.product);
+            refs.ref(u.store);
+            refs.refs(u.warranties);
+        }
+
+        public Unit readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Unit u = new Unit(Restoration.TOKEN, in.readDate(), in.readString());
+            u.id = id;
+            return u;
+        }
+
+        public void link(Unit u, ReferenceSource refs) throws IOException {
+            u.product = refs.ref(Product.class);
+            u.store = refs.ref(Store.class);
+            u.warranties = refs.refs(Warranty.class);
+            // A unit read on its own by MappedSnapshot takes its purchase from its warranty; in a
+            // full load the warranty is not linked yet and sets it when it is
+            if (!u.warranties.isEmpty()) {
+                Purchase purchase = u.warranties.get(0).getPurchase();
+                if (purchase != null) u.restoreReservation(purchase);
+            }
+        }
+    }
+
+    static final class PurchaseCodec implements EntityCodec<Purchase> {
+        public Class<Purchase> type() { return Purchase.class; }
+        public List<Purchase> extent() { return Purchase.getExtentView(); }
+        public void replaceExtent(List<Purchase> restored) { Purchase.replaceExtent(restored); }
+        public void register(Purchase entity) { entity.registerRestored(); }
+        public void deferLinks(Purchase entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Purchase p, BinaryWriter out) throws IOException {
+            out.writeLong(p.id);
+            out.writeDateTime(p.getPurchaseDate());
+            out.writeString(p.getDeliveryAddress());
+            out.writeEnum(p.getStatus());
+            // Line prices, -1 while the purchase is not finalized; the units are references
+            long[] cents = p.lineCents;
+            out.writeInt(cents == null ? -1 : cents.length);
+            if (cents != null) for (long c : cents) out.writeLong(c);
+        }
+
+        public void writeReferences(Purchase p, ReferenceSink refs) throws IOException {
+            refs.ref(p.customer);
+            refs.refs(p.reports);
+            refs.refs(p.warranties);
+            refs.refs(p.lineUnits == null ? List.of() : Arrays.asList(p.lineUnits));
+        }
+
+        public Purchase readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Purchase p = new Purchase(Restoration.TOKEN, in.readDateTime(), in.readString(), in.readEnum(PurchaseStatus.class));
+            p.id = id;
+            int lines = in.readInt();
+            if (lines >= 0) {
+                p.lineCents = new long[lines];
+                for (int i = 0; i < lines; i++) p.lineCents[i] = in.readLong();
+            }
+            return p;
+        }
+
+        public void link(Purchase p, ReferenceSource refs) throws IOException {
+            p.customer = refs.ref(Customer.class);
+            p.reports = refs.refs(Report.class);
+            p.warranties = refs.refs(Warranty.class);
+            List<Unit> lineUnits = refs.refs(Unit.class);
+            if (p.lineCents != null) {
+                if (lineUnits.size() != p.lineCents.length) throw new IOException("purchase line table does not match its units");
+                p.lineUnits = lineUnits.toArray(new Unit[0]);
+            }
+            p.itemsChanged();
+        }
+    }
+
+    static final class WarrantyCodec implements EntityCodec<Warranty> {
+        public Class<Warranty> type() { return Warranty.class; }
+        public List<Warranty> extent() { return Warranty.getExtentView(); }
+        public void replaceExtent(List<Warranty> restored) { Warranty.replaceExtent(restored); }
+        public void register(Warranty entity) { entity.registerRestored(); }
+        public void deferLinks(Warranty entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Warranty w, BinaryWriter out) throws IOException {
+            out.writeLong(w.id);
+            out.writeDate(w.getEndDate());
+        }
+
+        public void writeReferences(Warranty w, ReferenceSink refs) throws IOException {
+            refs.ref(w.purchase);
+            refs.ref(w.unit);
+        }
+
+        public Warranty readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Warranty w = new Warranty(Restoration.TOKEN, in.readDate());
+            w.id = id;
+            return w;
+        }
+
+        public void link(Warranty w, ReferenceSource refs) throws IOException {
+            w.purchase = refs.ref(Purchase.class);
+            w.unit = refs.ref(Unit.class);
+            if (w.unit != null) w.unit.restoreReservation(w.purchase);
+        }
+    }
+
+    static final class ReportCodec implements EntityCodec<Report> {
+        public Class<Report> type() { return Report.class; }
+        public List<Report> extent() { return Report.getExtentView(); }
+        public void replaceExtent(List<Report> restored) { Report.replaceExtent(restored); }
+        public void register(Report entity) { entity.registerRestored(); }
+        public void deferLinks(Report entity, MappedSnapshot.PendingLinks links) { entity.pendingLinks = links; }
+
+        public void writeAttributes(Report r, BinaryWriter out) throws IOException {
+            out.writeLong(r.id);
+            out.writeDateTime(r.getDateGenerated());
+            out.writeString(r.getContent());
+        }
+
+        public void writeReferences(Report r, ReferenceSink refs) throws IOException {
+            refs.ref(r.manager);
+            refs.refs(r.purchases);
+        }
+
+        public Report readAttributes(BinaryReader in) throws IOException {
+            long id = in.readLong();
+            Report r = new Report(Restoration.TOKEN, in.readDateTime(), in.readString());
+            r.id = id;
+            return r;
+        }
+
+        public void link(Report r, ReferenceSource refs) throws IOException {
+            r.manager = refs.ref(Manager.class);
+            r.purchases = refs.refs(Purchase.class);
+        }
+    }
+}
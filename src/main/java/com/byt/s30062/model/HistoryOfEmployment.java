@@ -1,5 +1,7 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
@@ -7,16 +9,22 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class HistoryOfEmployment implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<HistoryOfEmployment> extent = new ArrayList<>();
+    private static final Extent<HistoryOfEmployment> extent = new Extent<>(HistoryOfEmployment::getId);
     private static final String EXTENT_FILE = "history_of_employment_extent.ser";
 
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
     private final LocalDate dateOfStart;
     private LocalDate dateOfFinish; // optional
-    private final Staff staff;
-    private final Store store;
+    Staff staff;
+    Store store;
 
     public HistoryOfEmployment(LocalDate dateOfStart, Staff staff, Store store) {
         this(dateOfStart, null, staff, store);
@@ -46,41 +54,86 @@ public class HistoryOfEmployment implements Serializable {
         this.dateOfFinish = dateOfFinish;
         this.staff = staff;
         this.store = store;
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            extent.add(this);
         
-        // Link to store and staff (bag association)
-        staff.employmentHistory.add(this);
-        store.employmentHistory.add(this);
+            // Link to store and staff (bag association)
+            staff.employmentHistory.add(this);
+            store.employmentHistory.add(this);
+            store.rosterChanged();
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    HistoryOfEmployment(Restoration restoration, LocalDate dateOfStart, LocalDate dateOfFinish) {
+        this.dateOfStart = dateOfStart;
+        this.dateOfFinish = dateOfFinish;
     }
 
     public LocalDate getDateOfStart() { return dateOfStart; }
 
     public LocalDate getDateOfFinish() { return dateOfFinish; }
 
-    public Staff getStaff() { return staff; }
+    public Staff getStaff() { resolveLinks(); return staff; }
 
-    public Store getStore() { return store; }
+    public Store getStore() { resolveLinks(); return store; }
 
     public void setDateOfFinish(LocalDate dateOfFinish) {
         if (dateOfFinish != null) {
             if (dateOfFinish.isBefore(dateOfStart)) throw new IllegalArgumentException("dateOfFinish cannot be before dateOfStart");
             if (dateOfFinish.isAfter(LocalDate.now())) throw new IllegalArgumentException("dateOfFinish cannot be in the future");
         }
-        this.dateOfFinish = dateOfFinish;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.dateOfFinish = dateOfFinish;
+            store.rosterChanged();
+            MutationJournal.record(MutationJournal.Op.SET_DATE_OF_FINISH, this, dateOfFinish);
+        } finally {
+            step.unlock();
+        }
     }
 
     public boolean isActive() {
         return dateOfFinish == null;
     }
 
-    public static List<HistoryOfEmployment> getExtent() { return new ArrayList<>(extent); }
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static HistoryOfEmployment findById(long id) { return extent.byId(id); }
+
+    public static List<HistoryOfEmployment> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<HistoryOfEmployment> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<HistoryOfEmployment>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        staff.employmentHistory.add(this);
+        store.employmentHistory.add(this);
+        store.rosterChanged();
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<HistoryOfEmployment> restored) {
+        extent.replaceWith(restored);
     }
 
     // For testing purposes only - clears extent
@@ -88,25 +141,32 @@ public class HistoryOfEmployment implements Serializable {
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof HistoryOfEmployment && id == ((HistoryOfEmployment) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof HistoryOfEmployment)) return false;
         HistoryOfEmployment hoe = (HistoryOfEmployment) o;
         return dateOfStart.isEqual(hoe.dateOfStart) && 
                Objects.equals(dateOfFinish, hoe.dateOfFinish) &&
-               staff.equals(hoe.staff) && 
-               store.equals(hoe.store);
+               getStaff().deepEquals(hoe.getStaff()) && 
+               getStore().deepEquals(hoe.getStore());
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(dateOfStart, dateOfFinish, staff, store);
+    public int deepHashCode() {
+        return Objects.hash(dateOfStart, dateOfFinish, getStaff().deepHashCode(), getStore().deepHashCode());
     }
 
     @Override
     public String toString() {
         return String.format("HistoryOfEmployment(Staff:%s, Store:%s, Start:%s, Finish:%s, Active:%s)", 
-            staff.getFirstName() + " " + staff.getLastName(), 
-            store.getAddress().getCity(), 
+            getStaff().getFirstName() + " " + getStaff().getLastName(), 
+            getStore().getAddress().getCity(), 
             dateOfStart, 
             dateOfFinish, 
             isActive());
@@ -7,29 +7,41 @@ import com.byt.s30062.model.complex.WorkingHours;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 public class Manager extends Staff {
-    private List<Report> reports = new ArrayList<>(); // 0..many reports for this manager
+    List<Report> reports = new ArrayList<>(); // 0..many reports for this manager
 
     public Manager(String firstName, String lastName, LocalDate dateOfBirth, double baseSalary,
                    boolean isIntern, StaffType staffType, List<DayOfWeek> weekends) {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, weekends);
+        registerNew();
     }
 
     public Manager(String firstName, String lastName, LocalDate dateOfBirth, double baseSalary,
                    boolean isIntern, StaffType staffType, List<DayOfWeek> workingDays, WorkingHours workingHours) {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, workingDays, workingHours);
+        registerNew();
     }
 
     public Manager(Person person, double baseSalary, boolean isIntern, StaffType staffType, List<DayOfWeek> weekends) {
         super(person, baseSalary, isIntern, staffType, weekends);
+        registerNew();
     }
 
     public Manager(Person person, double baseSalary, boolean isIntern, StaffType staffType, List<DayOfWeek> workingDays, WorkingHours workingHours) {
         super(person, baseSalary, isIntern, staffType, workingDays, workingHours);
+        registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Manager(Restoration restoration, double baseSalary, boolean isIntern, StaffType staffType,
+            List<DayOfWeek> weekends, List<DayOfWeek> workingDays, WorkingHours workingHours) {
+        super(restoration, baseSalary, isIntern, staffType, weekends, workingDays, workingHours);
     }
 
     public List<Report> getReports() {
+        resolveLinks();
         return new ArrayList<>(reports);
     }
 
@@ -44,8 +56,14 @@ public class Manager extends Staff {
     // Removes report from manager's list AND deletes it from system (mandatory relationship)
     void unlinkReport(Report report) {
         if (report != null) {
-            reports.remove(report);
-            report.removeFromExtent(); // Report cannot exist without a manager
+            Lock step = SystemSnapshot.mutation();
+            try {
+                reports.remove(report);
+                report.removeFromExtent(); // Report cannot exist without a manager
+                MutationJournal.record(MutationJournal.Op.MANAGER_UNLINK_REPORT, this, report);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
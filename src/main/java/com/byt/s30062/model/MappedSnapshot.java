@@ -0,0 +1,312 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.ExtentManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Read-only, lazily decoded view of a file written by SystemSnapshot.save. The file is mapped
+// with FileChannel.map and opening it only reads the header and the section headers of the
+// offset table, so it costs the same for ten units as for ten million.
+//
+// get() decodes the attributes of the requested record only. Its references are linked the
+// first time one of the object's accessors needs them (see PendingLinks): a referenced object
+// is decoded through the offset table, again without its own references, and lists of
+// references decode an element when it is read. So the records decoded follow the
+// associations the caller actually navigates. Links that key by an attribute, such as the
+// serial numbers of Store.units, decode the attributes of all their elements.
+// Decoded objects are cached, so asking twice returns the same instance. They are read-only
+// and not added to the model's extents; use SystemSnapshot.load for that.
+public final class MappedSnapshot {
+    private static final int LOAD_CHUNK = 1 << 14;
+
+    private final ByteBuffer file;
+    private final int minimumPeriod;
+    private final int[] sectionStarts;  // id of the first record of each section, then the total
+    private final int[] extentCounts;
+    private final int[] tablePositions; // position of each section's record positions
+
+    // Guarded by this
+    private final Map<Integer, Object> decoded = new HashMap<>();
+    private final Map<Integer, int[]> unlinked = new HashMap<>();  // references of decoded records
+
+    private MappedSnapshot(ByteBuffer file) throws IOException {
+        this.file = file;
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        try {
+            if (file.getInt(0) == ExtentManager.COMPRESSED_MAGIC) throw new IOException("compressed snapshots cannot be mapped");
+            if (file.getInt(0) != ExtentManager.BINARY_MAGIC) throw new IOException("not a binary snapshot");
+            int version = file.getInt(4);
+            if (version != ExtentManager.BINARY_VERSION) throw new IOException("unsupported snapshot version: " + version);
+            int header = ExtentManager.BINARY_HEADER_SIZE;
+            minimumPeriod = file.getInt(header);
+            if (file.getInt(header + 4) != codecs.size()) throw new IOException("unexpected number of sections");
+
+            sectionStarts = new int[codecs.size() + 1];
+            extentCounts = new int[codecs.size()];
+            tablePositions = new int[codecs.size()];
+            long position = file.getLong(file.limit() - 8);
+            for (int k = 0; k < codecs.size(); k++) {
+                if (position < header || position > file.limit() - 16) throw new IOException("corrupt offset table");
+                int size = file.getInt((int) position);
+                extentCounts[k] = file.getInt((int) position + 4);
+                if (size < 0 || extentCounts[k] < 0 || extentCounts[k] > size) throw new IOException("corrupt offset table");
+                tablePositions[k] = (int) position + 8;
+                sectionStarts[k + 1] = sectionStarts[k] + size;
+                position += 8 + 8L * size;
+            }
+            if (position != file.limit() - 8) throw new IOException("corrupt offset table");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated snapshot", e);
+        }
+    }
+
+    public static MappedSnapshot open(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("snapshot too large to map: " + size + " bytes");
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedSnapshot(buffer);
+        }
+    }
+
+    public int getMinimumWarrantyPeriod() { return minimumPeriod; }
+
+    // Number of objects in the saved extent of the given class, without decoding any of them
+    public int size(Class<?> type) {
+        return extentCounts[sectionOf(type)];
+    }
+
+    // The index-th object of the saved extent, in the order of getExtent() at save time
+    public synchronized <T> T get(Class<T> type, int index) throws IOException {
+        int k = sectionOf(type);
+        if (index < 0 || index >= extentCounts[k]) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for " + type.getSimpleName() + " extent of " + extentCounts[k]);
+        }
+        return type.cast(decode(sectionStarts[k] + index));
+    }
+
+    // Read-only list over the saved extent; elements are decoded when the list is read
+    public <T> List<T> getExtent(Class<T> type) {
+        int size = size(type);
+        return new AbstractList<T>() {
+            public T get(int index) {
+                try {
+                    return MappedSnapshot.this.get(type, index);
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot decode " + type.getSimpleName() + " #" + index, e);
+                }
+            }
+
+            public int size() { return size; }
+        };
+    }
+
+    // Decodes every record and installs the extents, as SystemSnapshot.load would. Sections are
+    // split into chunks that are decoded on the executor (readAttributes only creates the object,
+    // so chunks are independent); the links are then set in one pass on the calling thread.
+    void loadAll(ExecutorService executor) throws IOException {
+        int total = sectionStarts[sectionStarts.length - 1];
+        Object[] objects = new Object[total];
+        int[][] references = new int[total][];
+        List<Future<?>> chunks = new ArrayList<>();
+        for (int k = 0; k < extentCounts.length; k++) {
+            int section = k;
+            for (int from = sectionStarts[k]; from < sectionStarts[k + 1]; from += LOAD_CHUNK) {
+                int start = from, end = Math.min(from + LOAD_CHUNK, sectionStarts[k + 1]);
+                chunks.add(executor.submit(() -> {
+                    decodeRange(section, start, end, objects, references);
+                    return null;
+                }));
+            }
+        }
+        try {
+            for (Future<?> chunk : chunks) chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading snapshot");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("cannot decode snapshot", cause);
+        } finally {
+            for (Future<?> chunk : chunks) chunk.cancel(true);
+        }
+
+        List<Object> all = Arrays.asList(objects);
+        for (int k = 0; k < extentCounts.length; k++) {
+            EntityCodec<?> codec = EntityCodecs.ALL.get(k);
+            for (int id = sectionStarts[k]; id < sectionStarts[k + 1]; id++) {
+                SystemSnapshot.link(codec, objects[id], new SystemSnapshot.RefReader(all, references[id]));
+            }
+        }
+        SystemSnapshot.install(all, sectionStarts, extentCounts, minimumPeriod);
+    }
+
+    private void decodeRange(int section, int from, int to, Object[] objects, int[][] references) throws IOException {
+        EntityCodec<?> codec = EntityCodecs.ALL.get(section);
+        ByteBuffer record = file.duplicate();
+        BinaryReader in = new BinaryReader(record);
+        for (int id = from; id < to; id++) {
+            record.position(recordPosition(section, id));
+            objects[id] = codec.readAttributes(in);
+            int[] refs = new int[in.readInt()];
+            for (int i = 0; i < refs.length; i++) refs[i] = in.readInt();
+            references[id] = refs;
+        }
+    }
+
+    // Number of records decoded so far
+    public synchronized int getDecodedCount() { return decoded.size(); }
+
+    // Set by the codecs on a decoded object until its references are linked. The model's
+    // accessors call MappedSnapshot.resolve(pendingLinks) before they read a reference field.
+    final class PendingLinks {
+        private final int id;
+
+        private PendingLinks(int id) {
+            this.id = id;
+        }
+
+        private MappedSnapshot snapshot() { return MappedSnapshot.this; }
+    }
+
+    static void resolve(PendingLinks links) {
+        if (links != null) links.snapshot().link(links.id);
+    }
+
+    private int sectionOf(Class<?> type) {
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        for (int k = 0; k < codecs.size(); k++) {
+            if (codecs.get(k).type() == type) return k;
+        }
+        throw new IllegalArgumentException(type.getSimpleName() + " is not an extent stored in the snapshot");
+    }
+
+    // Decodes the attributes of one record; its references wait in unlinked until first use
+    private Object decode(int id) throws IOException {
+        Object o = decoded.get(id);
+        if (o != null) return o;
+
+        int k = sectionOfId(id);
+        EntityCodec<?> codec = EntityCodecs.ALL.get(k);
+        ByteBuffer record = file.duplicate();
+        record.position(recordPosition(k, id));
+        BinaryReader in = new BinaryReader(record);
+        o = codec.readAttributes(in);
+        int[] refs = new int[in.readInt()];
+        for (int i = 0; i < refs.length; i++) refs[i] = in.readInt();
+
+        deferLinks(codec, o, new PendingLinks(id));
+        decoded.put(id, o);
+        unlinked.put(id, refs);
+        return o;
+    }
+
+    // Links one decoded record. A failed link leaves the record pending, so that every later
+    // access reports the corrupt record instead of seeing a half-linked object.
+    private synchronized void link(int id) {
+        int[] refs = unlinked.remove(id);
+        if (refs == null) return;  // linked already, or being linked further up this thread
+        Object o = decoded.get(id);
+        EntityCodec<?> codec;
+        try {
+            codec = EntityCodecs.ALL.get(sectionOfId(id));
+            SystemSnapshot.link(codec, o, new LazyRefReader(refs));
+        } catch (IOException e) {
+            unlinked.put(id, refs);
+            throw new IllegalStateException("cannot link record " + id + " of the snapshot", e);
+        }
+        deferLinks(codec, o, null);
+    }
+
+    private static <T> void deferLinks(EntityCodec<T> codec, Object o, PendingLinks links) {
+        codec.deferLinks(codec.type().cast(o), links);
+    }
+
+    private int recordPosition(int section, int id) throws IOException {
+        long position = file.getLong(tablePositions[section] + 8 * (id - sectionStarts[section]));
+        if (position < ExtentManager.BINARY_HEADER_SIZE || position >= file.limit()) throw new IOException("invalid record position: " + position);
+        return (int) position;
+    }
+
+    private int sectionOfId(int id) throws IOException {
+        if (id < 0 || id >= sectionStarts[sectionStarts.length - 1]) throw new IOException("invalid reference id: " + id);
+        int k = 0;
+        while (id >= sectionStarts[k + 1]) k++;
+        return k;
+    }
+
+    private <R> R resolveRef(int id, Class<R> type) throws IOException {
+        Object target = decode(id);
+        if (!type.isInstance(target)) {
+            throw new IOException("reference " + id + " is a " + target.getClass().getSimpleName() + ", expected " + type.getSimpleName());
+        }
+        return type.cast(target);
+    }
+
+    // Resolves the ids of one record: single references are decoded right away, lists when
+    // their elements are read
+    private final class LazyRefReader implements EntityCodec.ReferenceSource {
+        private final int[] refs;
+        private int position;
+
+        LazyRefReader(int[] refs) {
+            this.refs = refs;
+        }
+
+        public <R> R ref(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int id = refs[position++];
+            return id == -1 ? null : resolveRef(id, type);
+        }
+
+        public <R> List<R> refs(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int count = refs[position++];
+            if (count < 0 || count > refs.length - position) throw new IOException("record has fewer references than expected");
+            int[] ids = Arrays.copyOfRange(refs, position, position + count);
+            position += count;
+            for (int id : ids) {
+                if (id != -1) sectionOfId(id);
+            }
+            return new LazyList<>(type, ids);
+        }
+    }
+
+    // Read-only list of referenced records, decoded as they are read
+    private final class LazyList<R> extends AbstractList<R> implements RandomAccess {
+        private final Class<R> type;
+        private final int[] ids;
+
+        LazyList(Class<R> type, int[] ids) {
+            this.type = type;
+            this.ids = ids;
+        }
+
+        public R get(int index) {
+            int id = ids[index];
+            if (id == -1) return null;
+            synchronized (MappedSnapshot.this) {
+                try {
+                    return resolveRef(id, type);
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot decode record " + id + " of the snapshot", e);
+                }
+            }
+        }
+
+        public int size() { return ids.length; }
+    }
+}
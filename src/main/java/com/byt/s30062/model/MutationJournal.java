@@ -0,0 +1,675 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.AccessoryType;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.LevelOfPermission;
+import com.byt.s30062.model.enums.PurchaseStatus;
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+import com.byt.s30062.util.ExtentManager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of model mutations. While a journal is open every constructor and mutating
+// method appends a small record describing its own direct effect, so persisting a change costs a
+// few bytes instead of a rewrite of a whole extent. Calls made from inside another mutation log
+// their own records (e.g. Unit.setStore logs the store unlink/link and the field change
+// separately), which keeps every record replayable on its own.
+//
+// Directory layout:
+//   snapshot-<g>.bin  SystemSnapshot of the model, followed by the journal id of every object
+//   journal-<g>.log   records appended after snapshot-<g> was captured
+// Recovery loads the newest snapshot and replays its journal segment and any later ones.
+//
+// Records are buffered in memory and written by commit(); concurrent commits are grouped so that
+// one fsync covers every record appended before it. When the current segment grows past the
+// checkpoint threshold, commit() captures the model (see SystemSnapshot.discover), starts a new
+// segment and hands the capture to a SnapshotService, which encodes and writes it; the files it
+// supersedes are removed once it is on disk.
+// Every recorded mutation, object creation included, applies and logs its change under the read
+// side of SystemSnapshot.mutations and the capture holds the write side, so a change is either in
+// the snapshot or in the new segment, never half in one and half in the other.
+public final class MutationJournal implements Closeable {
+    public static final long DEFAULT_CHECKPOINT_THRESHOLD = 4L << 20;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static volatile MutationJournal active;
+
+    // Kind of the single argument of each operation
+    private enum Arg { NONE, ENTITY, STRING, DOUBLE, INT, BOOLEAN, DATE, DAYS, HOURS, PRICE, ENUM, CENTS }
+
+    enum Op {
+        CREATE(Arg.NONE),
+        DELETE(Arg.NONE),
+        SET_FIRST_NAME(Arg.STRING),
+        SET_LAST_NAME(Arg.STRING),
+        CUSTOMER_UNLINK_PURCHASE(Arg.ENTITY),
+        SET_BASE_SALARY(Arg.DOUBLE),
+        SET_WEEKENDS(Arg.DAYS),
+        SET_WORKING_DAYS(Arg.DAYS),
+        SET_WORKING_HOURS(Arg.HOURS),
+        SET_INTERN(Arg.BOOLEAN),
+        SUPERVISE(Arg.ENTITY),
+        STOP_SUPERVISING(Arg.ENTITY),
+        SET_SUPERVISOR(Arg.ENTITY),
+        CLEAR_SUPERVISOR(Arg.NONE),
+        SET_LEVEL_OF_PERMISSION(Arg.ENUM),
+        SET_SALES_BONUS(Arg.DOUBLE),
+        MANAGER_UNLINK_REPORT(Arg.ENTITY),
+        STORE_LINK_UNIT(Arg.ENTITY),
+        STORE_UNLINK_UNIT(Arg.ENTITY),
+        UNIT_SET_STORE(Arg.ENTITY),
+        SET_DATE_OF_FINISH(Arg.DATE),
+        UPDATE_PRICE(Arg.PRICE),
+        PRODUCT_REMOVE_UNIT(Arg.ENTITY),
+        SET_ACCESSORY_TYPE(Arg.ENUM),
+        ADD_DESIGNED_FOR(Arg.ENTITY),
+        REMOVE_DESIGNED_FOR(Arg.STRING),
+        SET_DELIVERY_ADDRESS(Arg.STRING),
+        SET_STATUS(Arg.ENUM),
+        PURCHASE_ADD_REPORT(Arg.ENTITY),
+        PURCHASE_REMOVE_REPORT(Arg.ENTITY),
+        REPORT_ADD_PURCHASE(Arg.ENTITY),
+        REPORT_REMOVE_PURCHASE(Arg.ENTITY),
+        SET_END_DATE(Arg.DATE),
+        SET_MINIMUM_PERIOD(Arg.INT),
+        LOCK_LINE_PRICES(Arg.CENTS);
+
+        private final Arg arg;
+
+        Op(Arg arg) { this.arg = arg; }
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    private final File directory;
+    private final long checkpointThreshold;
+    private final SnapshotService checkpointWriter = new SnapshotService();
+    private final Object syncLock = new Object();
+
+    // Guarded by this
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+    private int nextId;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final BinaryWriter recordOut = new BinaryWriter(recordBytes);
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private long appendedRecords;
+    private long segmentBytes;
+
+    // Guarded by syncLock
+    private int generation;
+    private FileChannel segment;
+    private long durableRecords;
+    private Future<?> lastCheckpoint;
+    private boolean closed;
+
+    private MutationJournal(File directory, long checkpointThreshold) {
+        this.directory = directory;
+        this.checkpointThreshold = checkpointThreshold;
+    }
+
+    public static MutationJournal open(String directory) throws IOException {
+        return open(directory, DEFAULT_CHECKPOINT_THRESHOLD);
+    }
+
+    // Restores the model from the directory (or starts a new journal from the current model if the
+    // directory holds none) and starts recording mutations. Only one journal can be open at a time.
+    public static synchronized MutationJournal open(String directory, long checkpointThreshold) throws IOException {
+        if (active != null) throw new IllegalStateException("a journal is already open");
+        if (checkpointThreshold <= 0) throw new IllegalArgumentException("checkpoint threshold must be positive");
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create journal directory: " + directory);
+
+        MutationJournal journal = new MutationJournal(dir, checkpointThreshold);
+        try {
+            journal.recover();
+        } catch (IOException | RuntimeException e) {
+            journal.checkpointWriter.close();
+            journal.closeSegment();
+            throw e;
+        }
+        active = journal;
+        return journal;
+    }
+
+    // Journal that mutations are currently recorded to, or null
+    public static MutationJournal current() { return active; }
+
+    // Blocks until every record appended so far is on disk. Concurrent callers share one fsync.
+    public void commit() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appendedRecords;
+        }
+        synchronized (syncLock) {
+            if (closed) throw new IllegalStateException("journal is closed");
+            if (durableRecords < target) {
+                flushPending();
+            }
+            if (segmentBytes() >= checkpointThreshold) {
+                startCheckpoint();
+            }
+        }
+    }
+
+    // Captures a snapshot now and waits until it has been written
+    public void checkpoint() throws IOException {
+        Future<?> written;
+        synchronized (syncLock) {
+            if (closed) throw new IllegalStateException("journal is closed");
+            written = startCheckpoint();
+        }
+        await(written);
+    }
+
+    // Commits outstanding records, waits for a running checkpoint and stops recording
+    @Override
+    public void close() throws IOException {
+        Future<?> running;
+        synchronized (syncLock) {
+            if (closed) return;
+            flushPending();
+            closed = true;
+            running = lastCheckpoint;
+            synchronized (MutationJournal.class) {
+                if (active == this) active = null;
+            }
+        }
+        try {
+            if (running != null) await(running);
+        } finally {
+            checkpointWriter.close();
+            closeSegment();
+        }
+    }
+
+    public int getGeneration() {
+        synchronized (syncLock) {
+            return generation;
+        }
+    }
+
+    // Bytes appended to the current segment, including records not yet committed
+    public synchronized long segmentBytes() { return segmentBytes; }
+
+    // ---- recording, called by the model ----
+
+    static void recordCreated(Object entity) {
+        MutationJournal journal = active;
+        if (journal != null) journal.appendCreate(entity);
+    }
+
+    static void record(Op op, Object target) {
+        MutationJournal journal = active;
+        if (journal != null) journal.append(op, target, null, 0, null);
+    }
+
+    static void record(Op op, Object target, Object arg) {
+        MutationJournal journal = active;
+        if (journal != null) journal.append(op, target, arg, 0, null);
+    }
+
+    static void record(Op op, Object target, double arg) {
+        MutationJournal journal = active;
+        if (journal != null) journal.append(op, target, null, arg, null);
+    }
+
+    static void recordPrice(Product product, double price, LocalDate dateFrom) {
+        MutationJournal journal = active;
+        if (journal != null) journal.append(Op.UPDATE_PRICE, product, null, price, dateFrom);
+    }
+
+    private synchronized void appendCreate(Object entity) {
+        EntityCodec<?> codec = EntityCodecs.codecFor(entity);
+        if (codec == null) throw new IllegalArgumentException("not a journaled entity: " + entity.getClass().getName());
+        if (ids.containsKey(entity)) throw new IllegalStateException("object is already tracked by the journal: " + entity);
+        int id = nextId++;
+        ids.put(entity, id);
+        try {
+            recordBytes.reset();
+            recordOut.writeByte(Op.CREATE.ordinal());
+            recordOut.writeInt(id);
+            recordOut.writeByte(EntityCodecs.ALL.indexOf(codec));
+            writeEntity(codec, entity);
+            recordOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot encode journal record", e);
+        }
+        frame();
+    }
+
+    private synchronized void append(Op op, Object target, Object arg, double number, LocalDate date) {
+        // Objects are tracked from their creation until a checkpoint finds them unreachable; a
+        // change to one that is not tracked would be lost on recovery, so it fails here
+        if (target != null) idOf(target);
+        try {
+            recordBytes.reset();
+            recordOut.writeByte(op.ordinal());
+            recordOut.writeInt(target == null ? -1 : idOf(target));
+            switch (op.arg) {
+                case NONE: break;
+                case ENTITY: recordOut.writeInt(arg == null ? -1 : idOf(arg)); break;
+                case STRING: recordOut.writeString((String) arg); break;
+                case DOUBLE: recordOut.writeDouble(number); break;
+                case INT: recordOut.writeInt((int) number); break;
+                case BOOLEAN: recordOut.writeBoolean((Boolean) arg); break;
+                case DATE: recordOut.writeDate((LocalDate) arg); break;
+                case ENUM: recordOut.writeEnum((Enum<?>) arg); break;
+                case DAYS: {
+                    List<?> days = (List<?>) arg;
+                    recordOut.writeByte(days.size());
+                    for (Object day : days) recordOut.writeEnum((Enum<?>) day);
+                    break;
+                }
+                case HOURS: {
+                    WorkingHours hours = (WorkingHours) arg;
+                    recordOut.writeDouble(hours.getStartHour());
+                    recordOut.writeDouble(hours.getFinishHour());
+                    break;
+                }
+                case PRICE:
+                    recordOut.writeDouble(number);
+                    recordOut.writeDate(date);
+                    break;
+                case CENTS: {
+                    long[] cents = (long[]) arg;
+                    recordOut.writeInt(cents.length);
+                    for (long c : cents) recordOut.writeLong(c);
+                    break;
+                }
+            }
+            recordOut.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot encode journal record", e);
+        }
+        frame();
+    }
+
+    // Frame: int payload length, int CRC32 of the payload, payload
+    private void frame() {
+        byte[] payload = recordBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        writeIntTo(pending, payload.length);
+        writeIntTo(pending, (int) crc.getValue());
+        pending.write(payload, 0, payload.length);
+        appendedRecords++;
+        segmentBytes += payload.length + 8;
+    }
+
+    private <T> void writeEntity(EntityCodec<T> codec, Object entity) throws IOException {
+        T typed = codec.type().cast(entity);
+        codec.writeAttributes(typed, recordOut);
+        List<Integer> refs = new ArrayList<>();
+        codec.writeReferences(typed, new EntityCodec.ReferenceSink() {
+            public void ref(Object target) {
+                refs.add(target == null ? -1 : idOf(target));
+            }
+
+            public void refs(Collection<?> targets) {
+                refs.add(targets.size());
+                for (Object target : targets) ref(target);
+            }
+        });
+        recordOut.writeInt(refs.size());
+        for (int ref : refs) recordOut.writeInt(ref);
+    }
+
+    private int idOf(Object entity) {
+        Integer id = ids.get(entity);
+        if (id == null) throw new IllegalStateException("object is not tracked by the journal: " + entity);
+        return id;
+    }
+
+    private static void writeIntTo(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // ---- segments and checkpoints ----
+
+    // Caller holds syncLock
+    private void flushPending() throws IOException {
+        byte[] bytes;
+        long upTo;
+        synchronized (this) {
+            bytes = pending.toByteArray();
+            pending.reset();
+            upTo = appendedRecords;
+        }
+        writeToSegment(bytes);
+        durableRecords = upTo;
+    }
+
+    // Caller holds syncLock
+    private void writeToSegment(byte[] bytes) throws IOException {
+        if (bytes.length == 0 || segment == null) return;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) segment.write(buffer);
+        segment.force(false);
+    }
+
+    // Caller holds syncLock. Captures the model and rotates to a new segment; the snapshot is
+    // encoded and written by the background thread.
+    private Future<?> startCheckpoint() throws IOException {
+        SystemSnapshot.Graph graph;
+        int[] objectIds;
+        int idsUpTo;
+        byte[] tail;
+        long upTo;
+        int newGeneration = generation + 1;
+        // Taken before this journal's lock, which mutations take while they log
+        Lock capture = SystemSnapshot.captureLock();
+        capture.lock();
+        try {
+            synchronized (this) {
+                graph = SystemSnapshot.discover(Collections.emptyList());
+                // Objects dropped from the graph are forgotten, everything else keeps its id.
+                // The snapshot writes the sections in order, so these are its objects in id order.
+                int count = 0;
+                for (List<Object> section : graph.sections) count += section.size();
+                IdentityHashMap<Object, Integer> retained = new IdentityHashMap<>(count);
+                objectIds = new int[count];
+                int next = 0;
+                for (List<Object> section : graph.sections) {
+                    for (Object o : section) {
+                        Integer id = ids.get(o);
+                        if (id == null) id = nextId++;
+                        retained.put(o, id);
+                        objectIds[next++] = id;
+                    }
+                }
+                idsUpTo = nextId;
+                ids.clear();
+                ids.putAll(retained);
+                // Records still buffered are already reflected in the snapshot; they close the old segment
+                tail = pending.toByteArray();
+                pending.reset();
+                upTo = appendedRecords;
+                segmentBytes = 0;
+            }
+        } finally {
+            capture.unlock();
+        }
+        writeToSegment(tail);
+        durableRecords = upTo;
+        closeSegment();
+        generation = newGeneration;
+        segment = openSegment(newGeneration);
+
+        Path target = new File(directory, SNAPSHOT_PREFIX + newGeneration + SNAPSHOT_SUFFIX).toPath();
+        lastCheckpoint = checkpointWriter.write(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (BinaryWriter out = ExtentManager.openBinaryOutput(bytes)) {
+                SystemSnapshot.write(out, graph);
+                out.writeInt(objectIds.length);
+                for (int id : objectIds) out.writeInt(id);
+                out.writeInt(idsUpTo);
+            }
+            return bytes.toByteArray();
+        }, target).toCompletableFuture().thenRun(() -> deleteGenerationsBefore(newGeneration));
+        return lastCheckpoint;
+    }
+
+    private void deleteGenerationsBefore(int gen) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            int fileGen = generationOf(f.getName());
+            if (fileGen >= 0 && fileGen < gen) f.delete();
+        }
+    }
+
+    private FileChannel openSegment(int gen) throws IOException {
+        Path path = new File(directory, SEGMENT_PREFIX + gen + SEGMENT_SUFFIX).toPath();
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private static int generationOf(String fileName) {
+        String digits;
+        if (fileName.startsWith(SNAPSHOT_PREFIX) && fileName.endsWith(SNAPSHOT_SUFFIX)) {
+            digits = fileName.substring(SNAPSHOT_PREFIX.length(), fileName.length() - SNAPSHOT_SUFFIX.length());
+        } else if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+            digits = fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length());
+        } else {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for checkpoint");
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("checkpoint failed", cause);
+        }
+    }
+
+    // ---- recovery ----
+
+    private void recover() throws IOException {
+        int snapshotGen = -1;
+        TreeSet<Integer> segments = new TreeSet<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                int gen = generationOf(f.getName());
+                if (gen < 0) continue;
+                if (f.getName().startsWith(SNAPSHOT_PREFIX)) snapshotGen = Math.max(snapshotGen, gen);
+                else segments.add(gen);
+            }
+        }
+
+        if (snapshotGen < 0) {
+            // Fresh directory: the current model becomes generation 0
+            Future<?> written;
+            synchronized (syncLock) {
+                generation = -1;
+                written = startCheckpoint();
+            }
+            await(written);
+            return;
+        }
+
+        Map<Integer, Object> byId = new HashMap<>();
+        try (BinaryReader in = ExtentManager.openBinaryInput(
+                new FileInputStream(new File(directory, SNAPSHOT_PREFIX + snapshotGen + SNAPSHOT_SUFFIX)))) {
+            List<Object> objects = SystemSnapshot.read(in);
+            if (in.readInt() != objects.size()) throw new IOException("snapshot id table does not match its objects");
+            for (Object o : objects) {
+                int id = in.readInt();
+                ids.put(o, id);
+                byId.put(id, o);
+            }
+            nextId = in.readInt();
+        }
+
+        int lastGen = snapshotGen;
+        for (int gen : segments.tailSet(snapshotGen)) {
+            replaySegment(new File(directory, SEGMENT_PREFIX + gen + SEGMENT_SUFFIX), byId);
+            lastGen = gen;
+        }
+        synchronized (syncLock) {
+            generation = lastGen;
+            segment = openSegment(lastGen);
+            segmentBytes = segment.size();
+        }
+    }
+
+    private void replaySegment(File file, Map<Integer, Object> byId) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload;
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                    if (length < 0) break;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break; // torn write at the end of the segment
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) break;
+                apply(new BinaryReader(new ByteArrayInputStream(payload)), byId);
+                validLength += 8 + length;
+            }
+        }
+        if (validLength < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void apply(BinaryReader in, Map<Integer, Object> byId) throws IOException {
+        int opIndex = in.readByte();
+        if (opIndex < 0 || opIndex >= OPS.length) throw new IOException("invalid journal operation: " + opIndex);
+        Op op = OPS[opIndex];
+
+        if (op == Op.CREATE) {
+            int id = in.readInt();
+            int kind = in.readByte();
+            if (kind < 0 || kind >= EntityCodecs.ALL.size()) throw new IOException("invalid entity kind: " + kind);
+            Object entity = readEntity(EntityCodecs.ALL.get(kind), in, byId);
+            ids.put(entity, id);
+            byId.put(id, entity);
+            nextId = Math.max(nextId, id + 1);
+            return;
+        }
+
+        Object target = resolve(in.readInt(), byId);
+        switch (op) {
+            case DELETE:
+                if (target instanceof Unit) ((Unit) target).delete();
+                else if (target instanceof Product) ((Product) target).delete();
+                else if (target instanceof Purchase) ((Purchase) target).delete();
+                else if (target instanceof Warranty) ((Warranty) target).delete();
+                else if (target instanceof Report) ((Report) target).delete();
+                else throw new IOException("cannot delete " + target);
+                break;
+            case SET_FIRST_NAME: ((Person) target).setFirstName(in.readString()); break;
+            case SET_LAST_NAME: ((Person) target).setLastName(in.readString()); break;
+            case CUSTOMER_UNLINK_PURCHASE: ((Customer) target).unlinkPurchase((Purchase) resolve(in.readInt(), byId)); break;
+            case SET_BASE_SALARY: ((Staff) target).setBaseSalary(in.readDouble()); break;
+            case SET_WEEKENDS: ((Staff) target).setWeekends(readDays(in)); break;
+            case SET_WORKING_DAYS: ((Staff) target).setWorkingDays(readDays(in)); break;
+            case SET_WORKING_HOURS: ((Staff) target).setWorkingHours(new WorkingHours(in.readDouble(), in.readDouble())); break;
+            case SET_INTERN: ((Staff) target).setIntern(in.readBoolean()); break;
+            case SUPERVISE: ((Staff) target).supervise((Staff) resolve(in.readInt(), byId)); break;
+            case STOP_SUPERVISING: ((Staff) target).stopSupervising((Staff) resolve(in.readInt(), byId)); break;
+            case SET_SUPERVISOR: ((Staff) target).setSupervisor((Staff) resolve(in.readInt(), byId)); break;
+            case CLEAR_SUPERVISOR: ((Staff) target).clearSupervisor(); break;
+            case SET_LEVEL_OF_PERMISSION: ((Administrator) target).setLevelOfPermission(in.readEnum(LevelOfPermission.class)); break;
+            case SET_SALES_BONUS: ((SalesStaff) target).setSalesBonus(in.readDouble()); break;
+            case MANAGER_UNLINK_REPORT: ((Manager) target).unlinkReport((Report) resolve(in.readInt(), byId)); break;
+            case STORE_LINK_UNIT: ((Store) target).linkUnit((Unit) resolve(in.readInt(), byId)); break;
+            case STORE_UNLINK_UNIT: ((Store) target).unlinkUnit((Unit) resolve(in.readInt(), byId)); break;
+            case UNIT_SET_STORE:
+                ((Unit) target).store = (Store) resolve(in.readInt(), byId);
+                ((Unit) target).updateStock();
+                break;
+            case SET_DATE_OF_FINISH: ((HistoryOfEmployment) target).setDateOfFinish(in.readDate()); break;
+            case UPDATE_PRICE: ((Product) target).applyPriceUpdate(in.readDouble(), in.readDate()); break;
+            case PRODUCT_REMOVE_UNIT: ((Product) target).units.remove((Unit) resolve(in.readInt(), byId)); break;
+            case SET_ACCESSORY_TYPE: ((Accessory) target).setType(in.readEnum(AccessoryType.class)); break;
+            case ADD_DESIGNED_FOR: ((Accessory) target).addDesignedFor((Device) resolve(in.readInt(), byId)); break;
+            case REMOVE_DESIGNED_FOR: ((Accessory) target).removeDesignedFor(in.readString()); break;
+            case SET_DELIVERY_ADDRESS: ((Purchase) target).setDeliveryAddress(in.readString()); break;
+            case SET_STATUS: ((Purchase) target).setStatus(in.readEnum(PurchaseStatus.class)); break;
+            case PURCHASE_ADD_REPORT: ((Purchase) target).addReport((Report) resolve(in.readInt(), byId)); break;
+            case PURCHASE_REMOVE_REPORT: ((Purchase) target).removeReport((Report) resolve(in.readInt(), byId)); break;
+            case REPORT_ADD_PURCHASE: ((Report) target).addPurchase((Purchase) resolve(in.readInt(), byId)); break;
+            case REPORT_REMOVE_PURCHASE: ((Report) target).removePurchase((Purchase) resolve(in.readInt(), byId)); break;
+            case SET_END_DATE: ((Warranty) target).setEndDate(in.readDate()); break;
+            case SET_MINIMUM_PERIOD: Warranty.setMinimumPeriod(in.readInt()); break;
+            case LOCK_LINE_PRICES: ((Purchase) target).lockLinePrices(readCents(in)); break;
+            default: throw new IOException("unexpected journal operation: " + op);
+        }
+    }
+
+    private static <T> T readEntity(EntityCodec<T> codec, BinaryReader in, Map<Integer, Object> byId) throws IOException {
+        T entity = codec.readAttributes(in);
+        int[] refs = new int[in.readInt()];
+        for (int i = 0; i < refs.length; i++) refs[i] = in.readInt();
+        codec.link(entity, new EntityCodec.ReferenceSource() {
+            private int position;
+
+            public <R> R ref(Class<R> type) throws IOException {
+                if (position >= refs.length) throw new IOException("record has fewer references than expected");
+                Object target = resolve(refs[position++], byId);
+                if (target != null && !type.isInstance(target)) throw new IOException("unexpected reference type: " + target);
+                return type.cast(target);
+            }
+
+            public <R> List<R> refs(Class<R> type) throws IOException {
+                if (position >= refs.length) throw new IOException("record has fewer references than expected");
+                int count = refs[position++];
+                List<R> result = new ArrayList<>(Math.max(count, 0));
+                for (int i = 0; i < count; i++) result.add(ref(type));
+                return result;
+            }
+        });
+        codec.register(entity);
+        return entity;
+    }
+
+    private static Object resolve(int id, Map<Integer, Object> byId) throws IOException {
+        if (id == -1) return null;
+        Object o = byId.get(id);
+        if (o == null) throw new IOException("journal references unknown object id: " + id);
+        return o;
+    }
+
+    private static long[] readCents(BinaryReader in) throws IOException {
+        long[] cents = new long[in.readInt()];
+        for (int i = 0; i < cents.length; i++) cents[i] = in.readLong();
+        return cents;
+    }
+
+    private static List<DayOfWeek> readDays(BinaryReader in) throws IOException {
+        int count = in.readByte();
+        List<DayOfWeek> days = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) days.add(in.readEnum(DayOfWeek.class));
+        return days;
+    }
+}
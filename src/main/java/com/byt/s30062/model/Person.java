@@ -1,24 +1,32 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 import java.io.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Person implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Person> extent = new ArrayList<>();
+    private static final Extent<Person> extent = new Extent<>(Person::getId);
     private static final String EXTENT_FILE = "person_extent.ser";
 
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
     private String firstName;
     private String lastName;
     private final LocalDate dateOfBirth;
     
     // Bidirectional links to roles (0..1 each)
-    private Customer customer;
-    private Staff staff;
+    Customer customer;
+    Staff staff;
 
     public Person(String firstName, String lastName, LocalDate dateOfBirth) {
         if (firstName == null) throw new IllegalArgumentException("firstName cannot be null");
@@ -36,7 +44,20 @@ public class Person implements Serializable {
         this.dateOfBirth = dateOfBirth;
         this.customer = null;
         this.staff = null;
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Person(Restoration restoration, String firstName, String lastName, LocalDate dateOfBirth) {
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.dateOfBirth = dateOfBirth;
     }
 
     public int getAge() {
@@ -53,20 +74,32 @@ public class Person implements Serializable {
         if (firstName == null) throw new IllegalArgumentException("firstName cannot be null");
         if (firstName.isBlank()) throw new IllegalArgumentException("firstName cannot be empty or blank");
         if (firstName.length() > 50) throw new IllegalArgumentException("firstName cannot exceed 50 characters");
-        this.firstName = firstName.trim();
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.firstName = firstName.trim();
+            MutationJournal.record(MutationJournal.Op.SET_FIRST_NAME, this, this.firstName);
+        } finally {
+            step.unlock();
+        }
     }
 
     public void setLastName(String lastName) {
         if (lastName == null) throw new IllegalArgumentException("lastName cannot be null");
         if (lastName.isBlank()) throw new IllegalArgumentException("lastName cannot be empty or blank");
         if (lastName.length() > 50) throw new IllegalArgumentException("lastName cannot exceed 50 characters");
-        this.lastName = lastName.trim();
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.lastName = lastName.trim();
+            MutationJournal.record(MutationJournal.Op.SET_LAST_NAME, this, this.lastName);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Bidirectional linking methods
-    public Customer getCustomer() { return customer; }
+    public Customer getCustomer() { resolveLinks(); return customer; }
 
-    public Staff getStaff() { return staff; }
+    public Staff getStaff() { resolveLinks(); return staff; }
 
     // Link this person to a customer (bidirectional)
     void linkCustomer(Customer customer) {
@@ -92,29 +125,58 @@ public class Person implements Serializable {
         this.staff = null;
     }
 
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Person findById(long id) { return extent.byId(id); }
+
     // Extent management
-    public static List<Person> getExtent() { return new ArrayList<>(extent); }
+    public static List<Person> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Person> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Person>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Person> restored) {
+        extent.replaceWith(restored);
     }
 
     public static void clearExtent() { extent.clear(); }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Person && id == ((Person) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Person)) return false;
         Person p = (Person) o;
         return firstName.equals(p.firstName) && lastName.equals(p.lastName) && dateOfBirth.isEqual(p.dateOfBirth);
     }
 
-    @Override
-    public int hashCode() {
+    public int deepHashCode() {
         return Objects.hash(firstName, lastName, dateOfBirth);
     }
 }
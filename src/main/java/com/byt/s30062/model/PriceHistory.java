@@ -7,9 +7,10 @@ import java.util.Objects;
 public class PriceHistory implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final double price;
-    private final LocalDate dateFrom;
-    private LocalDate dateTo;
+    // View of one entry of a PriceTable; the product's own entries are created on demand by
+    // Product.getPriceHistoryObjects, a PriceHistory built by the constructor has a table of its own
+    private final PriceTable table;
+    private final int index;
     private final Product product; // Composition: owned by exactly one Product
 
     public PriceHistory(double price, LocalDate dateFrom, Product product) {
@@ -21,30 +22,36 @@ public class PriceHistory implements Serializable {
         if (dateFrom.isBefore(LocalDate.of(1900, 1, 1))) throw new IllegalArgumentException("dateFrom cannot be before 1900");
         if (product == null) throw new IllegalArgumentException("product cannot be null");
 
-        this.price = price;
-        this.dateFrom = dateFrom;
-        this.dateTo = null; // optional
+        this.table = new PriceTable(1);
+        this.index = table.add(PriceTable.toCents(price), dateFrom, null); // dateTo optional
         this.product = product; // Immutable reference to owning product
     }
 
-    public double getPrice() { return price; }
+    PriceHistory(PriceTable table, int index, Product product) {
+        this.table = table;
+        this.index = index;
+        this.product = product;
+    }
+
+    public double getPrice() { return table.price(index); }
 
     public Product getProduct() { return product; }
 
-    public LocalDate getDateFrom() { return dateFrom; }
+    public LocalDate getDateFrom() { return table.dateFrom(index); }
 
-    public LocalDate getDateTo() { return dateTo; }
+    public LocalDate getDateTo() { return table.dateTo(index); }
 
     public void setDateTo(LocalDate dateTo) {
         if (dateTo != null) {
+            LocalDate dateFrom = getDateFrom();
             if (dateTo.isBefore(dateFrom)) throw new IllegalArgumentException("dateTo cannot be before dateFrom");
             if (dateTo.isEqual(dateFrom)) throw new IllegalArgumentException("dateTo cannot be the same as dateFrom");
         }
-        this.dateTo = dateTo;
+        table.setDateTo(index, dateTo);
     }
 
     public boolean isActive() {
-        return dateTo == null || LocalDate.now().isBefore(dateTo) || LocalDate.now().isEqual(dateTo);
+        return table.dayTo(index) >= LocalDate.now().toEpochDay();
     }
 
     @Override
@@ -52,18 +59,21 @@ public class PriceHistory implements Serializable {
         if (this == o) return true;
         if (!(o instanceof PriceHistory)) return false;
         PriceHistory ph = (PriceHistory) o;
-        return Double.compare(ph.price, price) == 0 &&
-               dateFrom.isEqual(ph.dateFrom) &&
-               Objects.equals(dateTo, ph.dateTo);
+        return ph.table.cents(ph.index) == table.cents(index) &&
+               ph.table.dayFrom(ph.index) == table.dayFrom(index) &&
+               ph.table.dayTo(ph.index) == table.dayTo(index);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(price, dateFrom, dateTo);
+        return Objects.hash(getPrice(), getDateFrom(), getDateTo());
     }
 
     @Override
     public String toString() {
+        double price = getPrice();
+        LocalDate dateFrom = getDateFrom();
+        LocalDate dateTo = getDateTo();
         if (dateTo == null) {
             return String.format("%.2f (from %s)", price, dateFrom);
         } else {
@@ -0,0 +1,107 @@
+package com.byt.s30062.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Columnar storage of a product's price history: entry i runs from dayFrom[i] to dayTo[i]
+// (epoch days, dayTo inclusive and OPEN while the entry has no end) at priceCents[i].
+// PriceHistory objects are views of one entry, so a long history costs three primitive arrays
+// instead of an object, two LocalDates and a back-reference per entry.
+final class PriceTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final int OPEN = Integer.MAX_VALUE;
+
+    private int[] dayFrom;
+    private int[] dayTo;
+    private long[] priceCents;
+    private int size;
+    private boolean sorted = true;  // dayFrom ascending, true as entries are appended with the current day
+    private transient int version;  // bumped on every change, used to validate cached prices
+
+    PriceTable() {
+        this(4);
+    }
+
+    PriceTable(int capacity) {
+        dayFrom = new int[Math.max(capacity, 1)];
+        dayTo = new int[dayFrom.length];
+        priceCents = new long[dayFrom.length];
+    }
+
+    int size() { return size; }
+
+    int version() { return version; }
+
+    int add(long cents, LocalDate from, LocalDate to) {
+        if (size == dayFrom.length) {
+            int capacity = size * 2;
+            dayFrom = Arrays.copyOf(dayFrom, capacity);
+            dayTo = Arrays.copyOf(dayTo, capacity);
+            priceCents = Arrays.copyOf(priceCents, capacity);
+        }
+        dayFrom[size] = toDay(from);
+        dayTo[size] = to == null ? OPEN : toDay(to);
+        priceCents[size] = cents;
+        if (size > 0 && dayFrom[size] < dayFrom[size - 1]) sorted = false;
+        version++;
+        return size++;
+    }
+
+    long cents(int i) { return priceCents[i]; }
+
+    double price(int i) { return priceCents[i] / 100.0; }
+
+    int dayFrom(int i) { return dayFrom[i]; }
+
+    int dayTo(int i) { return dayTo[i]; }
+
+    LocalDate dateFrom(int i) { return LocalDate.ofEpochDay(dayFrom[i]); }
+
+    LocalDate dateTo(int i) { return dayTo[i] == OPEN ? null : LocalDate.ofEpochDay(dayTo[i]); }
+
+    void setDateTo(int i, LocalDate to) {
+        dayTo[i] = to == null ? OPEN : toDay(to);
+        version++;
+    }
+
+    // Price in cents active on the given epoch day, 0 if there was none. The entry for a day is
+    // the last one starting on or before it, unless that one had already ended; then earlier
+    // entries are checked, so on the day of a change the newer entry wins.
+    long centsAt(long day) {
+        int i = sorted ? lastStartingBy(day) : size - 1;
+        for (; i >= 0; i--) {
+            if (dayFrom[i] <= day && dayTo[i] >= day) return priceCents[i];
+        }
+        return 0;
+    }
+
+    // Index of the last entry with dayFrom <= day, -1 if none
+    private int lastStartingBy(long day) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (dayFrom[mid] <= day) low = mid + 1;
+            else high = mid - 1;
+        }
+        return high;
+    }
+
+    // Prices are kept in whole cents
+    static long toCents(double price) {
+        if (Double.isNaN(price)) throw new IllegalArgumentException("price cannot be NaN");
+        if (Double.isInfinite(price)) throw new IllegalArgumentException("price cannot be infinite");
+        if (price <= 0) throw new IllegalArgumentException("price must be positive");
+        if (price >= Long.MAX_VALUE / 100.0) throw new IllegalArgumentException("price is too large");
+        long cents = Math.round(price * 100);
+        if (cents == 0) throw new IllegalArgumentException("price must be at least 0.01");
+        return cents;
+    }
+
+    private static int toDay(LocalDate date) {
+        long day = date.toEpochDay();
+        if (day < Integer.MIN_VALUE || day >= OPEN) throw new IllegalArgumentException("date out of range: " + date);
+        return (int) day;
+    }
+}
@@ -1,24 +1,43 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.DoubleConsumer;
 
 public class Product implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Product> extent = new ArrayList<>();
+    private static final Extent<Product> extent = new Extent<>(Product::getId);
     private static final String EXTENT_FILE = "product_extent.ser";
 
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
     private final String name;
     private String color;
 
-    // Composition: Product owns PriceHistory objects. If Product is deleted, all its PriceHistory is deleted.
-    private List<PriceHistory> priceHistory = new ArrayList<>();
+    // Composition: Product owns its price history. If Product is deleted, all its PriceHistory is deleted.
+    // Stored as columns, PriceHistory objects are views created on demand.
+    PriceTable prices = new PriceTable();
 
     // Association: Product may have 0 to many Units (each Unit references exactly one Product)
-    private List<Unit> units = new ArrayList<>();
+    List<Unit> units = new ArrayList<>();
+
+    // Derived from prices and checked against its version
+    private transient volatile CurrentPrice currentPrice;
+
+    // Units available in each store, maintained by Unit.updateStock. Created on first use.
+    private transient volatile ConcurrentHashMap<Store, LongAdder> stock;
 
     public Product(String name, String color, double initialPrice) {
         if (name == null) throw new IllegalArgumentException("name cannot be null");
@@ -27,50 +46,142 @@ public class Product implements Serializable {
         if (Double.isNaN(initialPrice)) throw new IllegalArgumentException("initial price cannot be NaN");
         if (Double.isInfinite(initialPrice)) throw new IllegalArgumentException("initial price cannot be infinite");
         if (initialPrice <= 0) throw new IllegalArgumentException("initial price must be positive");
-        
+        long initialCents = PriceTable.toCents(initialPrice);
+
         this.name = name.trim();
         if (color != null && !color.isBlank()) this.color = color.trim();
         // Create initial price history entry (composition: PriceHistory belongs to this Product)
-        this.priceHistory.add(new PriceHistory(initialPrice, LocalDate.now(), this));
-        extent.add(this);
+        prices.add(initialCents, LocalDate.now(), null);
+        // Subclasses register themselves once their own attributes are set
+        if (getClass() == Product.class) registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Product(Restoration restoration, String name, String color) {
+        this.name = name;
+        this.color = color;
     }
 
     public String getName() { return name; }
 
     public String getColor() { return color; }
 
-    // Derived attribute: get the current (active) price today
+    // Derived attribute: get the current (active) price today. The answer is cached until the
+    // next local midnight or the next change to the price history.
     public double getCurrentPrice() {
+        PriceTable table = prices;
+        CurrentPrice cached = currentPrice;
+        long now = System.currentTimeMillis();
+        if (cached != null && cached.table == table && cached.version == table.version()
+                && now >= cached.validFrom && now < cached.validUntil) {
+            return cached.price;
+        }
+        int version = table.version();
         LocalDate today = LocalDate.now();
-        // Iterate in reverse to find the most recent active price
-        for (int i = priceHistory.size() - 1; i >= 0; i--) {
-            PriceHistory ph = priceHistory.get(i);
-            // Check if this price is active today: started today or before, and not yet ended (or ends today or after)
-            if ((ph.getDateFrom().isBefore(today) || ph.getDateFrom().isEqual(today))
-                    &&
-                    (ph.getDateTo() == null || ph.getDateTo().isAfter(today) || ph.getDateTo().isEqual(today))){
-                return ph.getPrice();
-            }
+        double price = table.centsAt(today.toEpochDay()) / 100.0;
+        ZoneId zone = ZoneId.systemDefault();
+        currentPrice = new CurrentPrice(table, version, price,
+                today.atStartOfDay(zone).toInstant().toEpochMilli(),
+                today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+        return price;
+    }
+
+    // Price that was active on the given day, 0 if there was none. On the day of a change both
+    // entries are active and the newer one wins, as for getCurrentPrice.
+    public double getPriceAt(LocalDate date) {
+        if (date == null) throw new IllegalArgumentException("date cannot be null");
+        return prices.centsAt(date.toEpochDay()) / 100.0;
+    }
+
+    private static final class CurrentPrice {
+        final PriceTable table;
+        final int version;
+        final double price;
+        final long validFrom;
+        final long validUntil;
+
+        CurrentPrice(PriceTable table, int version, double price, long validFrom, long validUntil) {
+            this.table = table;
+            this.version = version;
+            this.price = price;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
         }
-        return 0.;
     }
 
     // Get all price values as doubles (for backward compatibility with tests)
     public List<Double> getPriceHistory() {
-        List<Double> prices = new ArrayList<>();
-        for (PriceHistory ph : priceHistory) {
-            prices.add(ph.getPrice());
+        PriceTable table = prices;
+        List<Double> result = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            result.add(table.price(i));
+        }
+        return result;
+    }
+
+    // Get all price history entries as views of the stored columns
+    public List<PriceHistory> getPriceHistoryObjects() {
+        PriceTable table = prices;
+        List<PriceHistory> result = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            result.add(new PriceHistory(table, i, this));
+        }
+        return result;
+    }
+
+    // Number of price history entries; with getPriceCents iterates prices without allocating
+    public int getPriceHistorySize() { return prices.size(); }
+
+    // Price of the entry at the given position in whole cents
+    public long getPriceCents(int index) {
+        PriceTable table = prices;
+        if (index < 0 || index >= table.size()) throw new IndexOutOfBoundsException("index " + index + " out of bounds for price history of " + table.size());
+        return table.cents(index);
+    }
+
+    // Passes every price in history order without boxing or creating PriceHistory objects
+    public void forEachPrice(DoubleConsumer action) {
+        if (action == null) throw new IllegalArgumentException("action cannot be null");
+        PriceTable table = prices;
+        for (int i = 0; i < table.size(); i++) action.accept(table.price(i));
+    }
+
+    // Units of this product in the store that are not in a purchase; O(1) and safe to call
+    // while other threads check out
+    public long getAvailableCount(Store store) {
+        if (store == null) throw new IllegalArgumentException("store cannot be null");
+        ConcurrentHashMap<Store, LongAdder> counters = stock;
+        LongAdder counter = counters == null ? null : counters.get(store);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    // Same, summed over all stores
+    public long getAvailableCount() {
+        ConcurrentHashMap<Store, LongAdder> counters = stock;
+        if (counters == null) return 0;
+        long sum = 0;
+        for (LongAdder counter : counters.values()) sum += counter.sum();
+        return sum;
+    }
+
+    LongAdder stockCounter(Store store) {
+        ConcurrentHashMap<Store, LongAdder> counters = stock;
+        if (counters == null) {
+            synchronized (this) {
+                counters = stock;
+                if (counters == null) stock = counters = new ConcurrentHashMap<>();
+            }
         }
-        return prices;
+        return counters.computeIfAbsent(store, s -> new LongAdder());
     }
 
-    // Get all price history entries (full objects)
-    public List<PriceHistory> getPriceHistoryObjects() { 
-        return new ArrayList<>(priceHistory); 
+    void clearStock() {
+        stock = null;
     }
 
     // Get all units of this product
     public List<Unit> getUnits() {
+        resolveLinks();
         return new ArrayList<>(units);
     }
 
@@ -81,13 +192,24 @@ public class Product implements Serializable {
         }
     }
 
+    // Called by Unit.delete
+    void unitDeleted(Unit unit) {
+        units.remove(unit);
+    }
+
     // Called when Unit is deleted or disassociated from this Product
     // Deletes the Unit from system since Unit must be associated with exactly one Product
     public void unlinkUnit(Unit unit) {
         if (unit != null) {
-            units.remove(unit);
-            // Unit is now orphaned (has no product), so delete it from system
-            unit.delete();
+            Lock step = SystemSnapshot.mutation();
+            try {
+                units.remove(unit);
+                MutationJournal.record(MutationJournal.Op.PRODUCT_REMOVE_UNIT, this, unit);
+                // Unit is now orphaned (has no product), so delete it from system
+                unit.delete();
+            } finally {
+                step.unlock();
+            }
         }
     }
 
@@ -121,37 +243,86 @@ public class Product implements Serializable {
         if (newPrice <= 0) throw new IllegalArgumentException("price must be positive");
         if (Double.isNaN(newPrice)) throw new IllegalArgumentException("price cannot be NaN");
         if (Double.isInfinite(newPrice)) throw new IllegalArgumentException("price cannot be infinite");
-        
+        PriceTable.toCents(newPrice); // rejects prices below a cent before anything changes
+
         LocalDate today = LocalDate.now();
-        
+        Lock step = SystemSnapshot.mutation();
+        try {
+            applyPriceUpdate(newPrice, today);
+            MutationJournal.recordPrice(this, newPrice, today);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Applies an already validated price change; journal replay passes the recorded day
+    void applyPriceUpdate(double newPrice, LocalDate today) {
         // End the current (last) price history entry (if it doesn't have an end date yet)
-        if (!priceHistory.isEmpty()) {
-            PriceHistory lastPrice = priceHistory.get(priceHistory.size() - 1);
-            if (lastPrice.getDateTo() == null && !lastPrice.getDateFrom().isEqual(today)) {
-                lastPrice.setDateTo(today);
-            }
+        int last = prices.size() - 1;
+        if (last >= 0 && prices.dayTo(last) == PriceTable.OPEN && prices.dayFrom(last) != today.toEpochDay()) {
+            prices.setDateTo(last, today);
         }
-        
+
         // Add new price entry
-        this.priceHistory.add(new PriceHistory(newPrice, today, this));
+        prices.add(PriceTable.toCents(newPrice), today, null);
     }
 
 
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Product findById(long id) { return extent.byId(id); }
+
     // extent methods
-    public static List<Product> getExtent() { return new ArrayList<>(extent); }
+    public static List<Product> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Product> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Product>loadExtent(EXTENT_FILE));
+    }
+
+    // Publishes and logs a new product as one mutation, see SystemSnapshot.mutations; called at
+    // the end of the constructor of the object's own class so only complete objects are published
+    void registerNew() {
+        Lock step = SystemSnapshot.mutation();
+        try {
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Product> restored) {
+        extent.replaceWith(restored);
     }
 
     // Delete a product: cascade delete all composed PriceHistory objects
     public void delete() {
-        priceHistory.clear(); // Clear all composed PriceHistory objects
-        extent.remove(this); // Remove from extent
+        Lock step = SystemSnapshot.mutation();
+        try {
+            prices = new PriceTable(); // Drop all composed price history, views already handed out keep their values
+            extent.remove(this); // Remove from extent
+            MutationJournal.record(MutationJournal.Op.DELETE, this);
+        } finally {
+            step.unlock();
+        }
     }
 
     // For testing purposes only - clears extent
@@ -159,14 +330,21 @@ public class Product implements Serializable {
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Product && id == ((Product) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Product)) return false;
         Product p = (Product) o;
         return name.equals(p.name);
     }
 
-    @Override
-    public int hashCode() {
+    public int deepHashCode() {
         return Objects.hash(name) + Objects.hash(color);
     }
 }
@@ -1,46 +1,91 @@
 package com.byt.s30062.model;
 
 import com.byt.s30062.model.enums.PurchaseStatus;
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Purchase implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Purchase> extent = new ArrayList<>();
+    private static final Extent<Purchase> extent = new Extent<>(Purchase::getId);
     private static final String EXTENT_FILE = "purchase_extent.ser";
 
-    private final Customer customer;
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
+    Customer customer;
     private final LocalDateTime purchaseDate;
     private String deliveryAddress; // optional for in-store vs online
-    private List<Report> reports = new ArrayList<>(); // 0..many reports associated with this purchase
-    private List<Warranty> warranties = new ArrayList<>(); // 1..many warranties link units to purchase
+    List<Report> reports = new ArrayList<>(); // 0..many reports associated with this purchase
+    List<Warranty> warranties = new ArrayList<>(); // 1..many warranties link units to purchase
 
     private PurchaseStatus status;
 
+    // Line table captured by finalizePurchase: the price of each item at that moment, in cents.
+    // Null until then; items added afterwards are priced at the current price.
+    Unit[] lineUnits;
+    long[] lineCents;
+    // getTotalPrice result, kept while every item has a line and the items do not change
+    private transient boolean totalCached;
+    private transient long totalCents;
+
+    // Derived from warranties on first use: the units in the order they were added, by identity,
+    // and the warranty linking each; a unit is linked through its first warranty only, later
+    // ones such as prolongations stay with the unit. Dropped by itemsChanged.
+    private transient Extent<Unit> items;
+    private transient IdentityHashMap<Unit, Warranty> warrantyByUnit;
+    private transient IdentityHashMap<Unit, Integer> lineByUnit;  // position in lineUnits
+
     public Purchase(Customer customer) {
+        this(customer, LocalDateTime.now());
+    }
+
+    // For orders placed earlier, e.g. when importing order history
+    public Purchase(Customer customer, LocalDateTime purchaseDate) {
         if (customer == null) throw new IllegalArgumentException("customer cannot be null");
-        
+        if (purchaseDate == null) throw new IllegalArgumentException("purchase date cannot be null");
+        if (purchaseDate.isAfter(LocalDateTime.now())) throw new IllegalArgumentException("purchase date cannot be in the future");
+
         this.customer = customer;
-        this.purchaseDate = LocalDateTime.now();
+        this.purchaseDate = purchaseDate;
         this.status = PurchaseStatus.Pending;
-        
-        extent.add(this);
-        
-        // Link purchase to customer (bidirectional)
-        customer.linkPurchase(this);
+
+        // Opening a cart is the first checkout step, see SystemSnapshot.mutations
+        Lock step = SystemSnapshot.mutation();
+        try {
+            synchronized (extent) {
+                extent.add(this);
+            }
+            // Link purchase to customer (bidirectional)
+            customer.linkPurchase(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
     }
 
+    // Used by snapshot codecs, see Restoration
+    Purchase(Restoration restoration, LocalDateTime purchaseDate, String deliveryAddress, PurchaseStatus status) {
+        this.purchaseDate = purchaseDate;
+        this.deliveryAddress = deliveryAddress;
+        this.status = status;
+    }
 
-    public Customer getCustomer() { return customer; }
+    public Customer getCustomer() { resolveLinks(); return customer; }
 
     public List<Report> getReports() {
+        resolveLinks();
         return new ArrayList<>(reports);
     }
 
@@ -59,41 +104,153 @@ public class Purchase implements Serializable {
     }
 
     // Get all warranties for this purchase
-    public List<Warranty> getWarranties() { return new ArrayList<>(warranties); }
+    public List<Warranty> getWarranties() { resolveLinks(); return new ArrayList<>(warranties); }
 
     // Called by Warranty to link itself to this purchase
-    void linkWarranty(Warranty warranty) {
-        if (warranty != null && !warranties.contains(warranty)) {
+    synchronized void linkWarranty(Warranty warranty) {
+        if (warranty != null && !items().contains(warranty.getUnit())) {
             warranties.add(warranty);
+            items.add(warranty.getUnit());
+            warrantyByUnit.put(warranty.getUnit(), warranty);
+            totalCached = false;
         }
     }
 
     // Called by Warranty when removed
-    void unlinkWarranty(Warranty warranty) {
-        if (warranty != null) {
-            warranties.remove(warranty);
+    synchronized void unlinkWarranty(Warranty warranty) {
+        if (warranty == null) return;
+        Unit unit = warranty.getUnit();
+        // Drop the linked warranty for the same unit, which may be an earlier one than this
+        if (warranty.purchase != this || !items().contains(unit)) return;
+        Warranty linked = warrantyByUnit.get(unit);
+        for (int i = 0; i < warranties.size(); i++) {
+            if (warranties.get(i) == linked) {
+                warranties.remove(i);
+                break;
+            }
         }
+        items.remove(unit);
+        warrantyByUnit.remove(unit);
+        totalCached = false;
+        // A returned item leaves the line table too
+        removeLine(unit);
     }
 
-    // Derived: get all units from warranties
+    // Derived: get all units from warranties, in the order they were added
     public List<Unit> getItems() {
-        List<Unit> items = new ArrayList<>();
-        for (Warranty w : warranties) {
-            Unit u = w.getUnit();
-            if (!items.contains(u)) {
-                items.add(u);
+        resolveLinks();
+        return items().toList();
+    }
+
+    // Read-only live view of the items, for callers that only read them and want to skip the copy
+    public List<Unit> getItemsView() {
+        resolveLinks();
+        return items().view();
+    }
+
+    public int getItemCount() {
+        resolveLinks();
+        return items().size();
+    }
+
+    // The warranty linking the unit to this purchase, null if it is not an item
+    synchronized Warranty warrantyFor(Unit unit) {
+        return items().contains(unit) ? warrantyByUnit.get(unit) : null;
+    }
+
+    private synchronized Extent<Unit> items() {
+        if (items == null) {
+            Extent<Unit> units = new Extent<>();
+            IdentityHashMap<Unit, Warranty> byUnit = new IdentityHashMap<>();
+            for (Warranty w : warranties) {
+                if (units.add(w.getUnit())) byUnit.put(w.getUnit(), w);
             }
+            warrantyByUnit = byUnit;
+            items = units;
         }
         return items;
     }
 
-    // derived attribute total price
-    public double getTotalPrice() {
-        double sum = 0.;
-        for (Unit u : getItems()){
-            sum += u.getProduct().getCurrentPrice();
+    // derived attribute total price: today's prices until the purchase is finalized, the
+    // captured line prices afterwards
+    public synchronized double getTotalPrice() {
+        resolveLinks();
+        if (totalCached) return totalCents / 100.0;
+        Extent<Unit> items = items();
+        long sum = 0;
+        int priced = 0;
+        for (Unit u : items) {
+            int line = lineOf(u);
+            if (line >= 0) {
+                sum += lineCents[line];
+                priced++;
+            } else {
+                sum += currentCents(u);
+            }
+        }
+        if (lineUnits != null && priced == items.size()) {
+            totalCents = sum;
+            totalCached = true;
+        }
+        return sum / 100.0;
+    }
+
+    // Price of one item: the captured line price, or today's price if it has none
+    public double getLinePrice(Unit unit) {
+        if (unit == null) throw new IllegalArgumentException("unit cannot be null");
+        resolveLinks();
+        int line = lineOf(unit);
+        if (line >= 0) return lineCents[line] / 100.0;
+        if (!items().contains(unit)) throw new IllegalArgumentException("unit is not an item of this purchase");
+        return currentCents(unit) / 100.0;
+    }
+
+    private static long currentCents(Unit unit) {
+        return Math.round(unit.getProduct().getCurrentPrice() * 100);
+    }
+
+    private int lineOf(Unit unit) {
+        if (lineUnits == null) return -1;
+        if (lineByUnit == null) {
+            IdentityHashMap<Unit, Integer> byUnit = new IdentityHashMap<>(lineUnits.length * 2);
+            for (int i = 0; i < lineUnits.length; i++) byUnit.put(lineUnits[i], i);
+            lineByUnit = byUnit;
         }
-        return sum;
+        Integer line = lineByUnit.get(unit);
+        return line == null ? -1 : line;
+    }
+
+    // Captures the line table for the current items; journal replay passes the recorded prices
+    void lockLinePrices(long[] cents) {
+        List<Unit> units = getItems();
+        if (cents.length != units.size()) throw new IllegalStateException("line prices do not match the items of the purchase");
+        lineUnits = units.toArray(new Unit[0]);
+        lineCents = cents.clone();
+        lineByUnit = null;
+        totalCached = false;
+    }
+
+    // Called when warranties or the line table are replaced directly, e.g. by snapshot codecs
+    void itemsChanged() {
+        items = null;
+        warrantyByUnit = null;
+        lineByUnit = null;
+        totalCached = false;
+    }
+
+    private void removeLine(Unit unit) {
+        int line = lineOf(unit);
+        if (line < 0) return;
+        int n = lineUnits.length - 1;
+        Unit[] units = new Unit[n];
+        long[] cents = new long[n];
+        System.arraycopy(lineUnits, 0, units, 0, line);
+        System.arraycopy(lineUnits, line + 1, units, line, n - line);
+        System.arraycopy(lineCents, 0, cents, 0, line);
+        System.arraycopy(lineCents, line + 1, cents, line, n - line);
+        lineUnits = units;
+        lineCents = cents;
+        lineByUnit = null;
     }
 
     public LocalDateTime getPurchaseDate() { return purchaseDate; }
@@ -102,7 +259,13 @@ public class Purchase implements Serializable {
         if (deliveryAddress != null && deliveryAddress.length() > 200) {
             throw new IllegalArgumentException("delivery address cannot exceed 200 characters");
         }
-        this.deliveryAddress = (deliveryAddress == null || deliveryAddress.isBlank()) ? null : deliveryAddress.trim();
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.deliveryAddress = (deliveryAddress == null || deliveryAddress.isBlank()) ? null : deliveryAddress.trim();
+            MutationJournal.record(MutationJournal.Op.SET_DELIVERY_ADDRESS, this, this.deliveryAddress);
+        } finally {
+            step.unlock();
+        }
     }
 
     public String getDeliveryAddress() { return deliveryAddress; }
@@ -111,77 +274,172 @@ public class Purchase implements Serializable {
 
     public void setStatus(PurchaseStatus status) {
         if (status == null) throw new IllegalArgumentException("status cannot be null");
-        this.status = status;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.status = status;
+            MutationJournal.record(MutationJournal.Op.SET_STATUS, this, status);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Finalize purchase: set endDate on all dummy warranties and update status to Preparing
+    // One mutation (see SystemSnapshot.mutations) under this purchase's lock
     public void finalizePurchase() {
-        if (warranties.isEmpty()) {
-            throw new IllegalStateException("Cannot finalize purchase with no items");
-        }
-        
-        // Set endDate on all dummy warranties (endDate was null)
-        LocalDate warrantyEndDate = purchaseDate.toLocalDate().plusYears(Warranty.getMinimumPeriod());
-        for (Warranty w : new ArrayList<>(warranties)) {
-            if (w.getEndDate() == null) {
-                w.setEndDate(warrantyEndDate);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            synchronized (this) {
+                if (warranties.isEmpty()) {
+                    throw new IllegalStateException("Cannot finalize purchase with no items");
+                }
+                
+                // Set endDate on all dummy warranties (endDate was null)
+                LocalDate warrantyEndDate = purchaseDate.toLocalDate().plusYears(Warranty.getMinimumPeriod());
+                for (Warranty w : new ArrayList<>(warranties)) {
+                    if (w.getEndDate() == null) {
+                        w.setEndDate(warrantyEndDate);
+                    }
+                }
+                
+                // Lock in today's prices, later price changes no longer affect this purchase
+                List<Unit> units = getItemsView();
+                long[] cents = new long[units.size()];
+                for (int i = 0; i < cents.length; i++) cents[i] = currentCents(units.get(i));
+                lockLinePrices(cents);
+
+                // Update purchase status to Preparing
+                this.status = PurchaseStatus.Preparing;
+                MutationJournal.record(MutationJournal.Op.SET_STATUS, this, status);
+                MutationJournal.record(MutationJournal.Op.LOCK_LINE_PRICES, this, cents);
             }
+        } finally {
+            step.unlock();
         }
-        
-        // Update purchase status to Preparing
-        this.status = PurchaseStatus.Preparing;
     }
 
     // Add report to this purchase (bidirectional link)
     public void addReport(Report report) {
         if (report != null) {
-            linkReport(report);
-            report.linkPurchase(this);
+            Lock step = SystemSnapshot.mutation();
+            try {
+                linkReport(report);
+                report.linkPurchase(this);
+                MutationJournal.record(MutationJournal.Op.PURCHASE_ADD_REPORT, this, report);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
     // Remove report from this purchase (bidirectional unlink)
     public void removeReport(Report report) {
         if (report != null) {
-            unlinkReport(report);
-            report.unlinkPurchase(this);
+            Lock step = SystemSnapshot.mutation();
+            try {
+                unlinkReport(report);
+                report.unlinkPurchase(this);
+                MutationJournal.record(MutationJournal.Op.PURCHASE_REMOVE_REPORT, this, report);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
     // Delete this Purchase and unlink from customer
     public void delete() {
-        customer.unlinkPurchase(this);
-        extent.remove(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            customer.unlinkPurchase(this);
+            removeFromExtent();
+            MutationJournal.record(MutationJournal.Op.DELETE, this);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Remove this Purchase from extent only (called by Customer when unlinking)
     void removeFromExtent() {
-        extent.remove(this);
+        synchronized (extent) {
+            extent.remove(this);
+        }
+    }
+
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Purchase findById(long id) {
+        synchronized (extent) {
+            return extent.byId(id);
+        }
+    }
+
+    public static List<Purchase> getExtent() {
+        synchronized (extent) {
+            return extent.toList();
+        }
     }
 
-    public static List<Purchase> getExtent() { return new ArrayList<>(extent); }
+    // Carts are opened from many threads, so this is a copy taken under the extent lock as well
+    public static List<Purchase> getExtentView() { return getExtent(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(getExtent(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        replaceExtent(ExtentManager.<Purchase>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        Lock step = SystemSnapshot.mutation();
+        try {
+            synchronized (customer) {
+                customer.purchases.add(this);
+            }
+            synchronized (extent) {
+                extent.add(this);
+            }
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Purchase> restored) {
+        synchronized (extent) {
+            extent.replaceWith(restored);
+        }
     }
     // For testing purposes only - clears extent
-    public static void clearExtent() { extent.clear(); }
+    public static void clearExtent() {
+        synchronized (extent) {
+            extent.clear();
+        }
+    }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Purchase && id == ((Purchase) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Purchase)) return false;
         Purchase p = (Purchase) o;
 
-        return customer.equals(p.customer) && purchaseDate.equals(p.purchaseDate);
+        return getCustomer().deepEquals(p.getCustomer()) && purchaseDate.equals(p.purchaseDate);
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(purchaseDate, customer);
+    public int deepHashCode() {
+        return Objects.hash(purchaseDate, getCustomer().deepHashCode());
     }
 }
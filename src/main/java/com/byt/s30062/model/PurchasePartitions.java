@@ -0,0 +1,417 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+import com.byt.s30062.util.ExtentManager;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+// Stores the model with Purchases and their Warranties split into one file per month of
+// Purchase.purchaseDate, so that years of completed orders are not rewritten by every save and
+// a load can be limited to the months that are still being worked on.
+//
+// Directory layout:
+//   core.bin               SystemSnapshot of everything except Purchase and Warranty, followed
+//                          by the partition id of every object in it, the next free id and the
+//                          ids of the units that are in a purchase
+//   purchases-<yyyy-MM>.bin purchases of that month and their warranties
+// Objects keep the same id across saves, so a partition that was not rewritten still refers
+// to the right customers, units and reports in a newer core.bin. Partition record:
+//   int id, boolean inExtent, attributes (codec specific), int refCount, refCount x int id
+//
+// save() re-encodes every loaded month but only writes the ones whose bytes differ from those
+// last read or written. After a windowed load, months outside the window stay on disk
+// untouched, and every object of the core is kept because unloaded partitions may still refer
+// to it. Units whose purchase is in a month that was not loaded stay sold, see
+// Unit.isPurchased, so they cannot be sold a second time.
+public final class PurchasePartitions {
+    private static final String CORE_FILE = "core.bin";
+    private static final String PARTITION_PREFIX = "purchases-";
+    private static final String PARTITION_SUFFIX = ".bin";
+    private static final Set<EntityCodec<?>> PARTITIONED = Set.of(EntityCodecs.PURCHASE, EntityCodecs.WARRANTY);
+
+    private final File directory;
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+    private int nextId;
+    // Contents of each month file as last read or written by this instance
+    private final Map<YearMonth, byte[]> contents = new HashMap<>();
+    private boolean attached;
+    private boolean windowed;
+
+    public PurchasePartitions(String directory) throws IOException {
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create partition directory: " + directory);
+        this.directory = dir;
+        // An empty directory can be saved to straight away; an existing one has to be loaded first
+        this.attached = !new File(dir, CORE_FILE).exists();
+    }
+
+    // Months with a partition file on disk
+    public SortedSet<YearMonth> getPartitions() {
+        SortedSet<YearMonth> months = new TreeSet<>();
+        File[] files = directory.listFiles();
+        if (files == null) return months;
+        for (File f : files) {
+            YearMonth month = monthOf(f.getName());
+            if (month != null) months.add(month);
+        }
+        return months;
+    }
+
+    // Months currently in the model, i.e. loaded or saved by this instance
+    public SortedSet<YearMonth> getLoadedPartitions() {
+        return new TreeSet<>(contents.keySet());
+    }
+
+    // Writes the core and every loaded month that changed; returns the months written or deleted
+    public synchronized SortedSet<YearMonth> save() throws IOException {
+        if (!attached) throw new IllegalStateException("directory holds partitions that were not loaded");
+        // Mutations wait only while the model is captured; the months and the core are encoded
+        // from that one capture, so they agree with each other
+        Captured captured;
+        Lock capture = SystemSnapshot.captureLock();
+        capture.lock();
+        try {
+            captured = capture();
+        } finally {
+            capture.unlock();
+        }
+        return save(captured);
+    }
+
+    // The model as of the capture, with the purchases and warranties split by month
+    private static final class Captured {
+        final SystemSnapshot.Graph graph;
+        final SortedMap<YearMonth, Partition> partitions = new TreeMap<>();
+        // Units that were in a purchase
+        final Set<Object> sold = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Captured(SystemSnapshot.Graph graph) {
+            this.graph = graph;
+        }
+    }
+
+    // Caller holds SystemSnapshot.captureLock()
+    private Captured capture() throws IOException {
+        // After a windowed load the core keeps everything it had, see the class comment
+        List<Object> coreRoots = new ArrayList<>();
+        if (windowed) {
+            for (Object o : ids.keySet()) {
+                if (!(o instanceof Purchase) && !(o instanceof Warranty)) coreRoots.add(o);
+            }
+        }
+        Captured captured = new Captured(SystemSnapshot.discover(coreRoots));
+        SystemSnapshot.Graph graph = captured.graph;
+
+        int purchaseSection = EntityCodecs.ALL.indexOf(EntityCodecs.PURCHASE);
+        int warrantySection = EntityCodecs.ALL.indexOf(EntityCodecs.WARRANTY);
+        int unitSection = EntityCodecs.ALL.indexOf(EntityCodecs.UNIT);
+        List<Object> purchases = graph.sections.get(purchaseSection);
+        for (int i = 0; i < purchases.size(); i++) {
+            Purchase p = (Purchase) purchases.get(i);
+            captured.partitions.computeIfAbsent(YearMonth.from(p.getPurchaseDate()), m -> new Partition())
+                    .add(p, i < graph.extentCounts[purchaseSection]);
+        }
+        List<Object> warranties = graph.sections.get(warrantySection);
+        for (int i = 0; i < warranties.size(); i++) {
+            Warranty w = (Warranty) warranties.get(i);
+            captured.partitions.computeIfAbsent(YearMonth.from(w.getPurchase().getPurchaseDate()), m -> new Partition())
+                    .add(w, i < graph.extentCounts[warrantySection]);
+        }
+        for (Object o : graph.sections.get(unitSection)) {
+            if (((Unit) o).isPurchased()) captured.sold.add(o);
+        }
+        return captured;
+    }
+
+    private SortedSet<YearMonth> save(Captured captured) throws IOException {
+        SystemSnapshot.Graph graph = captured.graph;
+        SortedMap<YearMonth, Partition> partitions = captured.partitions;
+        for (List<Object> section : graph.sections) {
+            for (Object o : section) {
+                if (!ids.containsKey(o)) ids.put(o, nextId++);
+            }
+        }
+
+        Set<YearMonth> onDisk = getPartitions();
+        for (YearMonth month : partitions.keySet()) {
+            if (onDisk.contains(month) && !contents.containsKey(month)) {
+                throw new IllegalStateException("partition " + month + " has to be loaded before purchases of that month are saved");
+            }
+        }
+
+        SortedSet<YearMonth> changed = new TreeSet<>();
+        for (Map.Entry<YearMonth, Partition> entry : partitions.entrySet()) {
+            byte[] bytes = encode(entry.getValue(), graph);
+            byte[] previous = contents.get(entry.getKey());
+            if (previous == null || !Arrays.equals(previous, bytes) || !partitionFile(entry.getKey()).exists()) {
+                writeAtomically(partitionFile(entry.getKey()), bytes);
+                changed.add(entry.getKey());
+            }
+            contents.put(entry.getKey(), bytes);
+        }
+        for (YearMonth month : new ArrayList<>(contents.keySet())) {
+            if (!partitions.containsKey(month)) {
+                Files.deleteIfExists(partitionFile(month).toPath());
+                contents.remove(month);
+                changed.add(month);
+            }
+        }
+
+        ByteArrayOutputStream core = new ByteArrayOutputStream();
+        List<Object> written = new ArrayList<>();
+        try (BinaryWriter out = ExtentManager.openBinaryOutput(core)) {
+            written.addAll(SystemSnapshot.write(out, graph, PARTITIONED));
+            out.writeInt(written.size());
+            for (Object o : written) out.writeInt(ids.get(o));
+            out.writeInt(nextId);
+            List<Integer> sold = new ArrayList<>();
+            for (Object o : written) {
+                if (captured.sold.contains(o)) sold.add(ids.get(o));
+            }
+            out.writeInt(sold.size());
+            for (int id : sold) out.writeInt(id);
+        }
+        writeAtomically(new File(directory, CORE_FILE), core.toByteArray());
+
+        // Forget objects that are gone from the model
+        IdentityHashMap<Object, Integer> retained = new IdentityHashMap<>();
+        for (Object o : written) retained.put(o, ids.get(o));
+        for (Partition partition : partitions.values()) {
+            for (Object o : partition.objects) retained.put(o, ids.get(o));
+        }
+        ids.clear();
+        ids.putAll(retained);
+        attached = true;
+        return changed;
+    }
+
+    // Replaces the model with the core and every month on disk
+    public synchronized void loadAll() throws IOException {
+        load(getPartitions(), false);
+    }
+
+    // Replaces the model with the core and the months that overlap [from, to]. Purchases of
+    // other months, and the warranties that belong to them, are not loaded.
+    public synchronized void load(LocalDate from, LocalDate to) throws IOException {
+        if (from == null || to == null) throw new IllegalArgumentException("window bounds cannot be null");
+        if (to.isBefore(from)) throw new IllegalArgumentException("window end cannot be before its start");
+        YearMonth first = YearMonth.from(from), last = YearMonth.from(to);
+        SortedSet<YearMonth> months = new TreeSet<>();
+        for (YearMonth month : getPartitions()) {
+            if (!month.isBefore(first) && !month.isAfter(last)) months.add(month);
+        }
+        load(months, !months.equals(getPartitions()));
+    }
+
+    // The hot working set, e.g. loadRecent(90) for the last 90 days
+    public void loadRecent(int days) throws IOException {
+        if (days < 0) throw new IllegalArgumentException("days cannot be negative");
+        LocalDate today = LocalDate.now();
+        load(today.minusDays(days), today);
+    }
+
+    // The model is replaced only after the core and all months have been read and linked
+    private void load(SortedSet<YearMonth> months, boolean partial) throws IOException {
+        File coreFile = new File(directory, CORE_FILE);
+        if (!coreFile.exists()) throw new FileNotFoundException("no partitioned snapshot in " + directory);
+
+        SystemSnapshot.Contents core;
+        Map<Integer, Object> byId = new HashMap<>();
+        IdentityHashMap<Object, Integer> loadedIds = new IdentityHashMap<>();
+        int loadedNextId;
+        int[] sold;
+        try (BinaryReader in = ExtentManager.openBinaryInput(coreFile.getPath())) {
+            core = SystemSnapshot.readContents(in);
+            if (in.readInt() != core.objects.size()) throw new IOException("core id table does not match its objects");
+            for (Object o : core.objects) {
+                int id = in.readInt();
+                byId.put(id, o);
+                loadedIds.put(o, id);
+            }
+            loadedNextId = in.readInt();
+            sold = new int[in.readInt()];
+            for (int i = 0; i < sold.length; i++) sold[i] = in.readInt();
+        }
+
+        Map<YearMonth, byte[]> loadedContents = new HashMap<>();
+        List<Purchase> purchaseExtent = new ArrayList<>();
+        List<Warranty> warrantyExtent = new ArrayList<>();
+        for (YearMonth month : months) {
+            byte[] bytes = Files.readAllBytes(partitionFile(month).toPath());
+            loadedContents.put(month, bytes);
+            decode(bytes, byId, loadedIds, purchaseExtent, warrantyExtent);
+        }
+        // Sold units whose warranties did not come with the loaded months
+        for (int id : sold) {
+            Object unit = byId.get(id);
+            if (!(unit instanceof Unit)) throw new IOException("core lists unknown unit id as sold: " + id);
+            if (((Unit) unit).warranties.isEmpty()) ((Unit) unit).markReservedUnloaded();
+        }
+
+        core.install();
+        Purchase.replaceExtent(purchaseExtent);
+        Warranty.replaceExtent(warrantyExtent);
+        ids.clear();
+        ids.putAll(loadedIds);
+        nextId = loadedNextId;
+        contents.clear();
+        contents.putAll(loadedContents);
+        attached = true;
+        windowed = partial;
+    }
+
+    // ---- partition files ----
+
+    // Purchases and warranties of one month, in extent order followed by detached ones
+    private static final class Partition {
+        final List<Object> objects = new ArrayList<>();
+        final List<Purchase> purchases = new ArrayList<>();
+        final List<Warranty> warranties = new ArrayList<>();
+        final Set<Object> inExtent = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        void add(Purchase p, boolean extent) {
+            purchases.add(p);
+            objects.add(p);
+            if (extent) inExtent.add(p);
+        }
+
+        void add(Warranty w, boolean extent) {
+            warranties.add(w);
+            objects.add(w);
+            if (extent) inExtent.add(w);
+        }
+    }
+
+    private byte[] encode(Partition partition, SystemSnapshot.Graph graph) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryWriter out = ExtentManager.openBinaryOutput(bytes)) {
+            out.writeInt(partition.purchases.size());
+            out.writeInt(partition.warranties.size());
+            for (Purchase p : partition.purchases) writeRecord(p, partition, graph, out);
+            for (Warranty w : partition.warranties) writeRecord(w, partition, graph, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    // From the state captured in graph
+    private void writeRecord(Object entity, Partition partition, SystemSnapshot.Graph graph, BinaryWriter out) throws IOException {
+        out.writeInt(ids.get(entity));
+        out.writeBoolean(partition.inExtent.contains(entity));
+        graph.writeAttributes(entity, out);
+        List<Integer> refs = new ArrayList<>();
+        graph.writeReferences(entity, new EntityCodec.ReferenceSink() {
+            public void ref(Object target) {
+                refs.add(target == null ? -1 : ids.get(target));
+            }
+
+            public void refs(Collection<?> targets) {
+                refs.add(targets.size());
+                for (Object target : targets) ref(target);
+            }
+        });
+        out.writeInt(refs.size());
+        for (int ref : refs) out.writeInt(ref);
+    }
+
+    // Reads one month and links it to the core; the reverse sides that the core does not store
+    // (Customer.purchases, Report.purchases, Unit.warranties) are filled in here
+    private static void decode(byte[] bytes, Map<Integer, Object> byId, IdentityHashMap<Object, Integer> loadedIds,
+                               List<Purchase> purchaseExtent, List<Warranty> warrantyExtent) throws IOException {
+        try (BinaryReader in = ExtentManager.openBinaryInput(new ByteArrayInputStream(bytes))) {
+            int purchaseCount = in.readInt();
+            int warrantyCount = in.readInt();
+            if (purchaseCount < 0 || warrantyCount < 0) throw new IOException("corrupt partition header");
+            List<Purchase> purchases = new ArrayList<>(purchaseCount);
+            List<int[]> purchaseRefs = new ArrayList<>(purchaseCount);
+            for (int i = 0; i < purchaseCount; i++) {
+                purchases.add(readRecord(EntityCodecs.PURCHASE, in, byId, loadedIds, purchaseRefs, purchaseExtent));
+            }
+            List<Warranty> warranties = new ArrayList<>(warrantyCount);
+            List<int[]> warrantyRefs = new ArrayList<>(warrantyCount);
+            for (int i = 0; i < warrantyCount; i++) {
+                warranties.add(readRecord(EntityCodecs.WARRANTY, in, byId, loadedIds, warrantyRefs, warrantyExtent));
+            }
+
+            for (int i = 0; i < purchaseCount; i++) {
+                Purchase p = purchases.get(i);
+                EntityCodecs.PURCHASE.link(p, new IdRefReader(purchaseRefs.get(i), byId));
+                if (p.customer != null) p.customer.purchases.add(p);
+                for (Report r : p.reports) r.purchases.add(p);
+            }
+            for (int i = 0; i < warrantyCount; i++) {
+                Warranty w = warranties.get(i);
+                EntityCodecs.WARRANTY.link(w, new IdRefReader(warrantyRefs.get(i), byId));
+                if (w.unit != null) w.unit.warranties.add(w);
+            }
+        }
+    }
+
+    private static <T> T readRecord(EntityCodec<T> codec, BinaryReader in, Map<Integer, Object> byId,
+                                    IdentityHashMap<Object, Integer> loadedIds, List<int[]> references,
+                                    List<T> extent) throws IOException {
+        int id = in.readInt();
+        boolean inExtent = in.readBoolean();
+        T entity = codec.readAttributes(in);
+        int[] refs = new int[in.readInt()];
+        for (int i = 0; i < refs.length; i++) refs[i] = in.readInt();
+        if (byId.put(id, entity) != null) throw new IOException("duplicate partition id: " + id);
+        loadedIds.put(entity, id);
+        references.add(refs);
+        if (inExtent) extent.add(entity);
+        return entity;
+    }
+
+    // Resolves partition ids of one record
+    private static final class IdRefReader implements EntityCodec.ReferenceSource {
+        private final int[] refs;
+        private final Map<Integer, Object> byId;
+        private int position;
+
+        IdRefReader(int[] refs, Map<Integer, Object> byId) {
+            this.refs = refs;
+            this.byId = byId;
+        }
+
+        public <R> R ref(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int id = refs[position++];
+            if (id == -1) return null;
+            Object target = byId.get(id);
+            if (!type.isInstance(target)) throw new IOException("partition references unknown " + type.getSimpleName() + " id: " + id);
+            return type.cast(target);
+        }
+
+        public <R> List<R> refs(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int count = refs[position++];
+            List<R> result = new ArrayList<>(Math.max(count, 0));
+            for (int i = 0; i < count; i++) result.add(ref(type));
+            return result;
+        }
+    }
+
+    private File partitionFile(YearMonth month) {
+        return new File(directory, PARTITION_PREFIX + month + PARTITION_SUFFIX);
+    }
+
+    private static YearMonth monthOf(String fileName) {
+        if (!fileName.startsWith(PARTITION_PREFIX) || !fileName.endsWith(PARTITION_SUFFIX)) return null;
+        try {
+            return YearMonth.parse(fileName.substring(PARTITION_PREFIX.length(), fileName.length() - PARTITION_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeAtomically(File target, byte[] bytes) throws IOException {
+        Path tmp = new File(target.getPath() + ".tmp").toPath();
+        Files.write(tmp, bytes);
+        Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -1,5 +1,7 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
@@ -8,16 +10,22 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Report implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Report> extent = new ArrayList<>();
+    private static final Extent<Report> extent = new Extent<>(Report::getId);
     private static final String EXTENT_FILE = "report_extent.ser";
 
-    private final Manager manager;
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
+    Manager manager;
     private final LocalDateTime dateGenerated;
     private final String content;
-    private List<Purchase> purchases = new ArrayList<>(); // 0..many purchases associated with this report
+    List<Purchase> purchases = new ArrayList<>(); // 0..many purchases associated with this report
 
     public Report(Manager manager, String content) {
         if (manager == null) throw new IllegalArgumentException("manager cannot be null");
@@ -29,17 +37,30 @@ public class Report implements Serializable {
         this.manager = manager;
         this.content = content.trim();
         this.dateGenerated = LocalDateTime.now();
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            extent.add(this);
         
-        // Link report to manager (bidirectional)
-        manager.linkReport(this);
+            // Link report to manager (bidirectional)
+            manager.linkReport(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
     }
 
-    public Manager getManager() { return manager; }
+    // Used by snapshot codecs, see Restoration
+    Report(Restoration restoration, LocalDateTime dateGenerated, String content) {
+        this.dateGenerated = dateGenerated;
+        this.content = content;
+    }
+
+    public Manager getManager() { resolveLinks(); return manager; }
     public LocalDateTime getDateGenerated() { return dateGenerated; }
     public String getContent() { return content; }
 
     public List<Purchase> getPurchases() {
+        resolveLinks();
         return new ArrayList<>(purchases);
     }
 
@@ -60,23 +81,41 @@ public class Report implements Serializable {
     // Add purchase to this report (bidirectional link)
     public void addPurchase(Purchase purchase) {
         if (purchase != null) {
-            linkPurchase(purchase);
-            purchase.linkReport(this);
+            Lock step = SystemSnapshot.mutation();
+            try {
+                linkPurchase(purchase);
+                purchase.linkReport(this);
+                MutationJournal.record(MutationJournal.Op.REPORT_ADD_PURCHASE, this, purchase);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
     // Remove purchase from this report (bidirectional unlink)
     public void removePurchase(Purchase purchase) {
         if (purchase != null) {
-            unlinkPurchase(purchase);
-            purchase.unlinkReport(this);
+            Lock step = SystemSnapshot.mutation();
+            try {
+                unlinkPurchase(purchase);
+                purchase.unlinkReport(this);
+                MutationJournal.record(MutationJournal.Op.REPORT_REMOVE_PURCHASE, this, purchase);
+            } finally {
+                step.unlock();
+            }
         }
     }
 
     // Delete this Report and unlink from manager
     public void delete() {
-        manager.unlinkReport(this);
-        extent.remove(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            manager.unlinkReport(this);
+            extent.remove(this);
+            MutationJournal.record(MutationJournal.Op.DELETE, this);
+        } finally {
+            step.unlock();
+        }
     }
 
     // Remove this Report from extent only (called by Manager when unlinking)
@@ -84,28 +123,58 @@ public class Report implements Serializable {
         extent.remove(this);
     }
 
-    public static List<Report> getExtent() { return new ArrayList<>(extent); }
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Report findById(long id) { return extent.byId(id); }
+
+    public static List<Report> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Report> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Report>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        manager.reports.add(this);
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Report> restored) {
+        extent.replaceWith(restored);
     }
     // For testing purposes only - clears extent
     public static void clearExtent() { extent.clear(); }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Report && id == ((Report) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Report)) return false;
         Report r = (Report) o;
-        return manager.equals(r.manager) && dateGenerated.equals(r.getDateGenerated());
+        return getManager().deepEquals(r.getManager()) && dateGenerated.equals(r.getDateGenerated());
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(manager, dateGenerated);
+    public int deepHashCode() {
+        return Objects.hash(getManager().deepHashCode(), dateGenerated);
     }
 }
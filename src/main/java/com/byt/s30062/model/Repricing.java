@@ -0,0 +1,154 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.model.enums.AccessoryType;
+import com.byt.s30062.model.enums.Line;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Predicate;
+
+// Batch price changes, e.g. a promotion like "-10% on every MacBook":
+//   Repricing.reprice(Repricing.line(Line.MacBook), Repricing.percentOff(10));
+// Selectors combine with Predicate.and/or. The extent is split into slices that are selected
+// and priced on a pool of threads; the new prices are all validated before the first one is
+// applied, so either every selected product is repriced or, if one new price is invalid,
+// none is. All new entries start on the same day and are journaled as updatePrice does.
+public final class Repricing {
+    // Below this many products the selection runs on the calling thread
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    private Repricing() {}
+
+    // ---- selectors ----
+
+    public static Predicate<Product> line(Line line) {
+        if (line == null) throw new IllegalArgumentException("line cannot be null");
+        return p -> p instanceof Device && ((Device) p).getLine() == line;
+    }
+
+    public static Predicate<Product> accessoryType(AccessoryType type) {
+        if (type == null) throw new IllegalArgumentException("type cannot be null");
+        return p -> p instanceof Accessory && ((Accessory) p).getType() == type;
+    }
+
+    // Colours are compared ignoring case, as entered by staff
+    public static Predicate<Product> color(String color) {
+        if (color == null || color.isBlank()) throw new IllegalArgumentException("color cannot be null or blank");
+        String c = color.trim();
+        return p -> c.equalsIgnoreCase(p.getColor());
+    }
+
+    // Current price between min and max, both inclusive
+    public static Predicate<Product> priceBetween(double min, double max) {
+        if (Double.isNaN(min) || Double.isNaN(max)) throw new IllegalArgumentException("price band cannot be NaN");
+        if (min > max) throw new IllegalArgumentException("min price cannot be greater than max price");
+        return p -> {
+            double price = p.getCurrentPrice();
+            return price >= min && price <= max;
+        };
+    }
+
+    // ---- price functions ----
+
+    // New price from the current one, e.g. percentOff(10) turns 999.0 into 899.1
+    public static DoubleUnaryOperator percentOff(double percent) {
+        if (Double.isNaN(percent) || percent <= 0 || percent >= 100) throw new IllegalArgumentException("percent must be between 0 and 100");
+        double factor = 1 - percent / 100;
+        return price -> price * factor;
+    }
+
+    // ---- batch ----
+
+    // Returns the products whose price changed; products whose new price rounds to the current
+    // one are left alone
+    public static Set<Product> reprice(Predicate<? super Product> selector, DoubleUnaryOperator newPrice) {
+        return reprice(selector, newPrice, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Set<Product> reprice(Predicate<? super Product> selector, DoubleUnaryOperator newPrice, int parallelism) {
+        if (selector == null) throw new IllegalArgumentException("selector cannot be null");
+        if (newPrice == null) throw new IllegalArgumentException("price function cannot be null");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+
+        List<Product> products = Product.getExtent();
+        List<Change> changes = products.size() < PARALLEL_THRESHOLD || parallelism == 1
+                ? select(products, selector, newPrice)
+                : selectParallel(products, selector, newPrice, parallelism);
+
+        LocalDate today = LocalDate.now();
+        Set<Product> affected = Collections.newSetFromMap(new IdentityHashMap<>(changes.size() * 2));
+        Lock step = SystemSnapshot.mutation();
+        try {
+            for (Change change : changes) {
+                change.product.applyPriceUpdate(change.price, today);
+                MutationJournal.recordPrice(change.product, change.price, today);
+                affected.add(change.product);
+            }
+        } finally {
+            step.unlock();
+        }
+        return Collections.unmodifiableSet(affected);
+    }
+
+    private static final class Change {
+        final Product product;
+        final double price;
+
+        Change(Product product, double price) {
+            this.product = product;
+            this.price = price;
+        }
+    }
+
+    // Selects and prices a slice; throws IllegalArgumentException for the first invalid price
+    private static List<Change> select(List<Product> products, Predicate<? super Product> selector, DoubleUnaryOperator newPrice) {
+        List<Change> changes = new ArrayList<>();
+        for (Product p : products) {
+            if (!selector.test(p)) continue;
+            double current = p.getCurrentPrice();
+            double price = newPrice.applyAsDouble(current);
+            long cents;
+            try {
+                cents = PriceTable.toCents(price);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("new price for " + p.getName() + ": " + e.getMessage());
+            }
+            if (cents == Math.round(current * 100)) continue;
+            changes.add(new Change(p, cents / 100.0));
+        }
+        return changes;
+    }
+
+    private static List<Change> selectParallel(List<Product> products, Predicate<? super Product> selector,
+                                               DoubleUnaryOperator newPrice, int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "repricing");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<List<Change>>> slices = new ArrayList<>();
+        try {
+            int sliceSize = (products.size() + parallelism - 1) / parallelism;
+            for (int from = 0; from < products.size(); from += sliceSize) {
+                List<Product> slice = products.subList(from, Math.min(from + sliceSize, products.size()));
+                slices.add(executor.submit(() -> select(slice, selector, newPrice)));
+            }
+            List<Change> changes = new ArrayList<>();
+            for (Future<List<Change>> slice : slices) changes.addAll(slice.get());
+            return changes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while repricing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("cannot reprice", cause);
+        } finally {
+            for (Future<?> slice : slices) slice.cancel(true);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.byt.s30062.model;
+
+// Marker passed to the package-private constructors used by the snapshot codecs.
+// Those constructors skip validation and extent registration: the values come from a
+// snapshot of a valid model and the extents are rebuilt by the snapshot itself.
+final class Restoration {
+    static final Restoration TOKEN = new Restoration();
+
+    private Restoration() {}
+}
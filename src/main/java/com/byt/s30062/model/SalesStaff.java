@@ -6,6 +6,7 @@ import com.byt.s30062.model.complex.WorkingHours;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class SalesStaff extends Staff {
 
@@ -16,6 +17,7 @@ public class SalesStaff extends Staff {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, weekends);
         validateSalesBonus(salesBonus);
         this.salesBonus = salesBonus;
+        registerNew();
     }
 
     public SalesStaff(String firstName, String lastName, LocalDate dateOfBirth, double baseSalary, 
@@ -24,6 +26,7 @@ public class SalesStaff extends Staff {
         super(firstName, lastName, dateOfBirth, baseSalary, isIntern, staffType, workingDays, workingHours);
         validateSalesBonus(salesBonus);
         this.salesBonus = salesBonus;
+        registerNew();
     }
 
     public SalesStaff(Person person, double baseSalary, boolean isIntern, double salesBonus, 
@@ -31,6 +34,7 @@ public class SalesStaff extends Staff {
         super(person, baseSalary, isIntern, staffType, weekends);
         validateSalesBonus(salesBonus);
         this.salesBonus = salesBonus;
+        registerNew();
     }
 
     public SalesStaff(Person person, double baseSalary, boolean isIntern, double salesBonus, 
@@ -38,6 +42,15 @@ public class SalesStaff extends Staff {
         super(person, baseSalary, isIntern, staffType, workingDays, workingHours);
         validateSalesBonus(salesBonus);
         this.salesBonus = salesBonus;
+        registerNew();
+    }
+
+    // Used by snapshot codecs, see Restoration
+    SalesStaff(Restoration restoration, double baseSalary, boolean isIntern, StaffType staffType,
+               List<DayOfWeek> weekends, List<DayOfWeek> workingDays, WorkingHours workingHours,
+               double salesBonus) {
+        super(restoration, baseSalary, isIntern, staffType, weekends, workingDays, workingHours);
+        this.salesBonus = salesBonus;
     }
 
     private static void validateSalesBonus(double salesBonus) {
@@ -54,19 +67,25 @@ public class SalesStaff extends Staff {
         if (Double.isNaN(salesBonus)) throw new IllegalArgumentException("salesBonus cannot be NaN");
         if (Double.isInfinite(salesBonus)) throw new IllegalArgumentException("salesBonus cannot be infinite");
         if (salesBonus > 10_000_000) throw new IllegalArgumentException("salesBonus cannot exceed 10,000,000");
-        this.salesBonus = salesBonus;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.salesBonus = salesBonus;
+            MutationJournal.record(MutationJournal.Op.SET_SALES_BONUS, this, salesBonus);
+        } finally {
+            step.unlock();
+        }
     }
 
     @Override
-    public boolean equals(Object o) {
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof SalesStaff)) return false;
         SalesStaff s = (SalesStaff) o;
-        return super.equals(o) && salesBonus == s.salesBonus;
+        return super.deepEquals(o) && salesBonus == s.salesBonus;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), salesBonus);
+    public int deepHashCode() {
+        return Objects.hash(super.deepHashCode(), salesBonus);
     }
 }
@@ -0,0 +1,104 @@
+package com.byt.s30062.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+// Progress and outcome of a snapshot written by SnapshotService. The future completes with the
+// path of the snapshot file once it is on disk, or exceptionally with the IOException that
+// stopped the encoding or the write. Cancelling stops the write at the next chunk and removes
+// the partial file.
+public final class SnapshotJob implements Future<Path> {
+    private static final int CHUNK_SIZE = 1 << 18;
+
+    private final Path target;
+    // -1 until the writer thread has encoded the snapshot
+    private volatile long totalBytes = -1;
+    private volatile long bytesWritten;
+    private final CompletableFuture<Path> result = new CompletableFuture<>();
+
+    SnapshotJob(Path target) {
+        this.target = target;
+    }
+
+    // Produces the bytes of the snapshot file; runs on the writer thread
+    interface Encoder {
+        byte[] encode() throws IOException;
+    }
+
+    public Path getTarget() { return target; }
+
+    // Size of the snapshot, -1 while it is still being encoded
+    public long getTotalBytes() { return totalBytes; }
+
+    public long getBytesWritten() { return bytesWritten; }
+
+    // Fraction of the snapshot written so far, from 0.0 to 1.0
+    public double getProgress() {
+        long total = totalBytes;
+        if (total < 0) return 0.0;
+        return total == 0 ? 1.0 : (double) bytesWritten / total;
+    }
+
+    // Completion as a CompletableFuture for chaining; completing the copy does not affect the job
+    public CompletableFuture<Path> toCompletableFuture() { return result.copy(); }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) { return result.cancel(mayInterruptIfRunning); }
+
+    @Override
+    public boolean isCancelled() { return result.isCancelled(); }
+
+    @Override
+    public boolean isDone() { return result.isDone(); }
+
+    @Override
+    public Path get() throws InterruptedException, ExecutionException { return result.get(); }
+
+    @Override
+    public Path get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+
+    // Runs on the snapshot writer thread. The bytes go to a temporary file that replaces the
+    // target only once it has been forced to disk, so readers never see a partial snapshot.
+    void run(Encoder encoder) {
+        if (result.isDone()) return;
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            byte[] snapshot = encoder.encode();
+            totalBytes = snapshot.length;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                int offset = 0;
+                while (offset < snapshot.length) {
+                    if (result.isCancelled()) break;
+                    ByteBuffer chunk = ByteBuffer.wrap(snapshot, offset, Math.min(CHUNK_SIZE, snapshot.length - offset));
+                    while (chunk.hasRemaining()) out.write(chunk);
+                    offset = chunk.position();
+                    bytesWritten = offset;
+                }
+                if (!result.isCancelled()) out.force(true);
+            }
+            if (result.isCancelled()) {
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            result.complete(target);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // the write already failed, report that instead
+            }
+            result.completeExceptionally(e);
+        }
+    }
+
+    void fail(Throwable cause) {
+        result.completeExceptionally(cause);
+    }
+}
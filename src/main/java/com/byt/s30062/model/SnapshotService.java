@@ -0,0 +1,81 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryWriter;
+import com.byt.s30062.util.ExtentManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Writes snapshots of all extents on a background thread. start() captures the object graph on
+// the calling thread, copying each extent and the state of the objects it reaches (no encoding,
+// no I/O), and returns at once; the writer thread encodes the capture and writes, forces and
+// moves the file into place while the model keeps changing. Mutations made after start()
+// returns are neither held up by the encoding or the write nor part of the snapshot. During the
+// capture mutations wait on SystemSnapshot.mutations, so the snapshot never holds a change half
+// done, e.g. a purchase without its warranties.
+public final class SnapshotService implements Closeable {
+    private final ExecutorService writer;
+
+    public SnapshotService() {
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public SnapshotJob start() throws IOException {
+        return start(SystemSnapshot.SNAPSHOT_FILE);
+    }
+
+    // Captures the current model and schedules encoding and writing it to filePath
+    public SnapshotJob start(String filePath) throws IOException {
+        if (writer.isShutdown()) throw new IllegalStateException("snapshot service is closed");
+        SystemSnapshot.Graph graph = SystemSnapshot.capture();
+        return write(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            try (BinaryWriter out = ExtentManager.openBinaryOutput(bytes)) {
+                SystemSnapshot.write(out, graph);
+            }
+            return bytes.toByteArray();
+        }, Paths.get(filePath));
+    }
+
+    // Same, compressed as by SystemSnapshot.save(filePath, compressionLevel) on the writer thread
+    public SnapshotJob start(String filePath, int compressionLevel) throws IOException {
+        if (writer.isShutdown()) throw new IllegalStateException("snapshot service is closed");
+        ExtentManager.checkCompressionLevel(compressionLevel);
+        SystemSnapshot.Graph graph = SystemSnapshot.capture();
+        return write(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            try (BinaryWriter out = ExtentManager.openCompressedOutput(bytes, compressionLevel)) {
+                SystemSnapshot.write(out, graph);
+            }
+            return bytes.toByteArray();
+        }, Paths.get(filePath));
+    }
+
+    // Schedules encoding and writing an already captured snapshot, also used by MutationJournal
+    // checkpoints
+    SnapshotJob write(SnapshotJob.Encoder encoder, Path target) {
+        SnapshotJob job = new SnapshotJob(target);
+        try {
+            writer.execute(() -> job.run(encoder));
+        } catch (RejectedExecutionException e) {
+            job.fail(new IOException("snapshot service is closed"));
+        }
+        return job;
+    }
+
+    // Snapshots already started are still written; new ones are rejected
+    @Override
+    public void close() {
+        writer.shutdown();
+    }
+}
@@ -3,6 +3,8 @@ package com.byt.s30062.model;
 import com.byt.s30062.model.complex.WorkingHours;
 import com.byt.s30062.model.enums.DayOfWeek;
 import com.byt.s30062.model.enums.StaffType;
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
@@ -10,34 +12,39 @@ import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 public abstract class Staff implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Staff> extent = new ArrayList<>();
+    private static final Extent<Staff> extent = new Extent<>(Staff::getId);
     private static final String EXTENT_FILE = "staff_extent.ser";
 
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
     protected Person person; // Composed Person (required)
     private double baseSalary;
     private boolean isIntern;
     private StaffType staffType; // FULL_TIME or PART_TIME (required)
 
+    // Days as 7-bit masks, bit i for DayOfWeek.values()[i]
     // FullTime-specific attributes
-    private List<DayOfWeek> weekends; // exactly 2 days for FULL_TIME
+    private byte weekends; // exactly 2 days for FULL_TIME
 
     // PartTime-specific attributes
-    private List<DayOfWeek> workingDays; // 2-5 days for PART_TIME
+    private byte workingDays; // 2-5 days for PART_TIME
     private WorkingHours workingHours; // complex attribute for PART_TIME
 
     // Bag association: employment history records (managed by HistoryOfEmployment)
     List<HistoryOfEmployment> employmentHistory = new ArrayList<>();
 
     // Reflexive association: supervision (non-intern supervises interns)
-    private Staff supervisedBy; // nullable; only set for interns
-    private List<Staff> supervises = new ArrayList<>(); // non-intern can supervise many interns
+    Staff supervisedBy; // nullable; only set for interns
+    List<Staff> supervises = new ArrayList<>(); // non-intern can supervise many interns
 
     // Protected constructor for FULL_TIME staff with new Person
     protected Staff(String firstName, String lastName, LocalDate dateOfBirth, double baseSalary,
@@ -48,14 +55,12 @@ public abstract class Staff implements Serializable {
         if (staffType != StaffType.FULL_TIME) {
             throw new IllegalArgumentException("This constructor is for FULL_TIME staff only");
         }
-        validateWeekends(weekends);
+        int weekendMask = validateWeekends(weekends);
         this.baseSalary = baseSalary;
         this.isIntern = isIntern;
         this.staffType = staffType;
-        this.weekends = new ArrayList<>(weekends);
-        // Bidirectional link
-        newPerson.linkStaff(this);
-        extent.add(this);
+        this.weekends = (byte) weekendMask;
+        // Linked and published by registerNew once the subclass constructor is done
     }
 
     // Protected constructor for PART_TIME staff with new Person
@@ -67,16 +72,14 @@ public abstract class Staff implements Serializable {
         if (staffType != StaffType.PART_TIME) {
             throw new IllegalArgumentException("This constructor is for PART_TIME staff only");
         }
-        validateWorkingDays(workingDays);
+        int workingDayMask = validateWorkingDays(workingDays);
         if (workingHours == null) throw new IllegalArgumentException("workingHours cannot be null");
         this.baseSalary = baseSalary;
         this.isIntern = isIntern;
         this.staffType = staffType;
-        this.workingDays = new ArrayList<>(workingDays);
+        this.workingDays = (byte) workingDayMask;
         this.workingHours = workingHours;
-        // Bidirectional link
-        newPerson.linkStaff(this);
-        extent.add(this);
+        // Linked and published by registerNew once the subclass constructor is done
     }
 
     // Protected constructor for FULL_TIME staff with existing Person
@@ -87,14 +90,12 @@ public abstract class Staff implements Serializable {
         if (staffType != StaffType.FULL_TIME) {
             throw new IllegalArgumentException("This constructor is for FULL_TIME staff only");
         }
-        validateWeekends(weekends);
+        int weekendMask = validateWeekends(weekends);
         this.baseSalary = baseSalary;
         this.isIntern = isIntern;
         this.staffType = staffType;
-        this.weekends = new ArrayList<>(weekends);
-        // Bidirectional link
-        person.linkStaff(this);
-        extent.add(this);
+        this.weekends = (byte) weekendMask;
+        // Linked and published by registerNew once the subclass constructor is done
     }
 
     // Protected constructor for PART_TIME staff with existing Person
@@ -105,16 +106,25 @@ public abstract class Staff implements Serializable {
         if (staffType != StaffType.PART_TIME) {
             throw new IllegalArgumentException("This constructor is for PART_TIME staff only");
         }
-        validateWorkingDays(workingDays);
+        int workingDayMask = validateWorkingDays(workingDays);
         if (workingHours == null) throw new IllegalArgumentException("workingHours cannot be null");
         this.baseSalary = baseSalary;
         this.isIntern = isIntern;
         this.staffType = staffType;
-        this.workingDays = new ArrayList<>(workingDays);
+        this.workingDays = (byte) workingDayMask;
+        this.workingHours = workingHours;
+        // Linked and published by registerNew once the subclass constructor is done
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Staff(Restoration restoration, double baseSalary, boolean isIntern, StaffType staffType,
+          List<DayOfWeek> weekends, List<DayOfWeek> workingDays, WorkingHours workingHours) {
+        this.baseSalary = baseSalary;
+        this.isIntern = isIntern;
+        this.staffType = staffType;
+        this.weekends = (byte) (weekends == null ? 0 : maskOf(weekends));
+        this.workingDays = (byte) (workingDays == null ? 0 : maskOf(workingDays));
         this.workingHours = workingHours;
-        // Bidirectional link
-        person.linkStaff(this);
-        extent.add(this);
     }
 
     // Validation helpers
@@ -125,33 +135,53 @@ public abstract class Staff implements Serializable {
         if (baseSalary > 10_000_000) throw new IllegalArgumentException("baseSalary cannot exceed 10,000,000");
     }
 
-    private static void validateWeekends(List<DayOfWeek> weekends) {
+    // Both return the days as a mask
+    private static int validateWeekends(List<DayOfWeek> weekends) {
         if (weekends == null) throw new IllegalArgumentException("weekends cannot be null");
         if (weekends.size() != 2) throw new IllegalArgumentException("weekends must contain exactly 2 days");
         if (weekends.contains(null)) throw new IllegalArgumentException("weekends cannot contain null values");
-        Set<DayOfWeek> uniqueDays = new HashSet<>(weekends);
-        if (uniqueDays.size() != 2) throw new IllegalArgumentException("weekends cannot contain duplicate days");
+        int mask = maskOf(weekends);
+        if (Integer.bitCount(mask) != 2) throw new IllegalArgumentException("weekends cannot contain duplicate days");
+        return mask;
     }
 
-    private static void validateWorkingDays(List<DayOfWeek> workingDays) {
+    private static int validateWorkingDays(List<DayOfWeek> workingDays) {
         if (workingDays == null) throw new IllegalArgumentException("workingDays cannot be null");
         if (workingDays.size() < 2 || workingDays.size() > 5)
             throw new IllegalArgumentException("workingDays must contain between 2 and 5 days");
         if (workingDays.contains(null)) throw new IllegalArgumentException("workingDays cannot contain null values");
-        Set<DayOfWeek> uniqueDays = new HashSet<>(workingDays);
-        if (uniqueDays.size() != workingDays.size()) throw new IllegalArgumentException("workingDays cannot contain duplicate days");
+        int mask = maskOf(workingDays);
+        if (Integer.bitCount(mask) != workingDays.size()) throw new IllegalArgumentException("workingDays cannot contain duplicate days");
+        return mask;
+    }
+
+    static int bit(DayOfWeek day) { return 1 << day.ordinal(); }
+
+    private static int maskOf(List<DayOfWeek> days) {
+        int mask = 0;
+        for (int i = 0; i < days.size(); i++) mask |= bit(days.get(i));
+        return mask;
+    }
+
+    // Days of the mask in week order
+    private static List<DayOfWeek> daysOf(int mask) {
+        List<DayOfWeek> days = new ArrayList<>(Integer.bitCount(mask));
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if ((mask & bit(day)) != 0) days.add(day);
+        }
+        return Collections.unmodifiableList(days);
     }
 
     // Person delegation methods
-    public Person getPerson() { return person; }
+    public Person getPerson() { resolveLinks(); return person; }
 
-    public String getFirstName() { return person.getFirstName(); }
+    public String getFirstName() { return getPerson().getFirstName(); }
 
-    public String getLastName() { return person.getLastName(); }
+    public String getLastName() { return getPerson().getLastName(); }
 
-    public LocalDate getDateOfBirth() { return person.getDateOfBirth(); }
+    public LocalDate getDateOfBirth() { return getPerson().getDateOfBirth(); }
 
-    public int getAge() { return person.getAge(); }
+    public int getAge() { return getPerson().getAge(); }
 
     public void setFirstName(String firstName) { person.setFirstName(firstName); }
 
@@ -163,35 +193,58 @@ public abstract class Staff implements Serializable {
 
     public void setBaseSalary(double baseSalary) {
         validateBaseSalary(baseSalary);
-        this.baseSalary = baseSalary;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.baseSalary = baseSalary;
+            MutationJournal.record(MutationJournal.Op.SET_BASE_SALARY, this, baseSalary);
+        } finally {
+            step.unlock();
+        }
     }
 
     public double getBaseSalary() {
         return baseSalary;
     }
 
-    // FULL_TIME specific
+    // Days this staff member works: all but the weekends for FULL_TIME, the working days for
+    // PART_TIME; as a mask with bit i for DayOfWeek.values()[i]
+    public int getWorkDayMask() {
+        return staffType == StaffType.FULL_TIME ? ~weekends & 0x7F : workingDays;
+    }
+
+    public boolean worksOn(DayOfWeek day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        return (getWorkDayMask() & bit(day)) != 0;
+    }
+
+    // FULL_TIME specific, in week order
     public List<DayOfWeek> getWeekends() {
         if (staffType != StaffType.FULL_TIME) {
             throw new IllegalStateException("getWeekends() can only be called on FULL_TIME staff");
         }
-        return Collections.unmodifiableList(weekends);
+        return daysOf(weekends);
     }
 
     public void setWeekends(List<DayOfWeek> weekends) {
         if (staffType != StaffType.FULL_TIME) {
             throw new IllegalStateException("setWeekends() can only be called on FULL_TIME staff");
         }
-        validateWeekends(weekends);
-        this.weekends = new ArrayList<>(weekends);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.weekends = (byte) validateWeekends(weekends);
+            workDaysChanged();
+            MutationJournal.record(MutationJournal.Op.SET_WEEKENDS, this, weekends);
+        } finally {
+            step.unlock();
+        }
     }
 
-    // PART_TIME specific
+    // PART_TIME specific, in week order
     public List<DayOfWeek> getWorkingDays() {
         if (staffType != StaffType.PART_TIME) {
             throw new IllegalStateException("getWorkingDays() can only be called on PART_TIME staff");
         }
-        return Collections.unmodifiableList(workingDays);
+        return daysOf(workingDays);
     }
 
     public WorkingHours getWorkingHours() {
@@ -205,8 +258,19 @@ public abstract class Staff implements Serializable {
         if (staffType != StaffType.PART_TIME) {
             throw new IllegalStateException("setWorkingDays() can only be called on PART_TIME staff");
         }
-        validateWorkingDays(workingDays);
-        this.workingDays = new ArrayList<>(workingDays);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.workingDays = (byte) validateWorkingDays(workingDays);
+            workDaysChanged();
+            MutationJournal.record(MutationJournal.Op.SET_WORKING_DAYS, this, workingDays);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // The stores' day rosters hold the work days of their staff
+    private void workDaysChanged() {
+        for (HistoryOfEmployment h : employmentHistory) h.store.rosterChanged();
     }
 
     public void setWorkingHours(WorkingHours workingHours) {
@@ -214,33 +278,46 @@ public abstract class Staff implements Serializable {
             throw new IllegalStateException("setWorkingHours() can only be called on PART_TIME staff");
         }
         if (workingHours == null) throw new IllegalArgumentException("workingHours cannot be null");
-        this.workingHours = workingHours;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            this.workingHours = workingHours;
+            MutationJournal.record(MutationJournal.Op.SET_WORKING_HOURS, this, workingHours);
+        } finally {
+            step.unlock();
+        }
     }
 
     public void setIntern(boolean intern) {
-        // Enforce supervision invariants when changing role
-        if (intern) {
-            // Becoming an intern: cannot supervise others
-            if (!supervises.isEmpty()) {
-                throw new IllegalStateException("An intern cannot supervise other staff");
-            }
-        } else {
-            // Becoming non-intern: cannot be supervised
-            if (supervisedBy != null) {
-                throw new IllegalStateException("A non-intern cannot be supervised");
+        Lock step = SystemSnapshot.mutation();
+        try {
+            // Enforce supervision invariants when changing role
+            if (intern) {
+                // Becoming an intern: cannot supervise others
+                if (!supervises.isEmpty()) {
+                    throw new IllegalStateException("An intern cannot supervise other staff");
+                }
+            } else {
+                // Becoming non-intern: cannot be supervised
+                if (supervisedBy != null) {
+                    throw new IllegalStateException("A non-intern cannot be supervised");
+                }
             }
+            isIntern = intern;
+            MutationJournal.record(MutationJournal.Op.SET_INTERN, this, intern);
+        } finally {
+            step.unlock();
         }
-        isIntern = intern;
     }
 
     public List<HistoryOfEmployment> getEmploymentHistory() {
+        resolveLinks();
         return new ArrayList<>(employmentHistory);
     }
 
     // Supervision API
-    public Staff getSupervisor() { return supervisedBy; }
+    public Staff getSupervisor() { resolveLinks(); return supervisedBy; }
 
-    public List<Staff> getSupervises() { return new ArrayList<>(supervises); }
+    public List<Staff> getSupervises() { resolveLinks(); return new ArrayList<>(supervises); }
 
     // Supervisor-side linking: this supervises the given intern
     public void supervise(Staff intern) {
@@ -248,22 +325,34 @@ public abstract class Staff implements Serializable {
         if (this == intern) throw new IllegalArgumentException("Staff cannot supervise themselves");
         if (this.isIntern) throw new IllegalArgumentException("Only non-interns can supervise interns");
         if (!intern.isIntern) throw new IllegalArgumentException("Only interns can be supervised");
-        if (intern.supervisedBy != null && intern.supervisedBy != this) {
-            throw new IllegalArgumentException("Intern is already supervised by another staff member");
-        }
-        if (!supervises.contains(intern)) {
-            supervises.add(intern);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (intern.supervisedBy != null && intern.supervisedBy != this) {
+                throw new IllegalArgumentException("Intern is already supervised by another staff member");
+            }
+            if (!supervises.contains(intern)) {
+                supervises.add(intern);
+            }
+            intern.supervisedBy = this;
+            MutationJournal.record(MutationJournal.Op.SUPERVISE, this, intern);
+        } finally {
+            step.unlock();
         }
-        intern.supervisedBy = this;
     }
 
     // Supervisor-side unlinking
     public void stopSupervising(Staff intern) {
         if (intern == null) return;
-        if (supervises.remove(intern)) {
-            if (intern.supervisedBy == this) {
-                intern.supervisedBy = null;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (supervises.remove(intern)) {
+                if (intern.supervisedBy == this) {
+                    intern.supervisedBy = null;
+                }
+                MutationJournal.record(MutationJournal.Op.STOP_SUPERVISING, this, intern);
             }
+        } finally {
+            step.unlock();
         }
     }
 
@@ -276,64 +365,117 @@ public abstract class Staff implements Serializable {
         if (!this.isIntern) throw new IllegalArgumentException("Only interns can be supervised");
         if (supervisor.isIntern) throw new IllegalArgumentException("An intern cannot be a supervisor");
         if (this == supervisor) throw new IllegalArgumentException("Staff cannot supervise themselves");
-        if (this.supervisedBy == supervisor) return; // no-op
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (this.supervisedBy == supervisor) return; // no-op
 
-        // detach from previous supervisor if any
-        if (this.supervisedBy != null) {
-            this.supervisedBy.supervises.remove(this);
-        }
-        this.supervisedBy = supervisor;
-        if (!supervisor.supervises.contains(this)) {
-            supervisor.supervises.add(this);
+            // detach from previous supervisor if any
+            if (this.supervisedBy != null) {
+                this.supervisedBy.supervises.remove(this);
+            }
+            this.supervisedBy = supervisor;
+            if (!supervisor.supervises.contains(this)) {
+                supervisor.supervises.add(this);
+            }
+            MutationJournal.record(MutationJournal.Op.SET_SUPERVISOR, this, supervisor);
+        } finally {
+            step.unlock();
         }
     }
 
     // Intern-side unlinking
     public void clearSupervisor() {
-        if (this.supervisedBy != null) {
-            Staff old = this.supervisedBy;
-            this.supervisedBy = null;
-            old.supervises.remove(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (this.supervisedBy != null) {
+                Staff old = this.supervisedBy;
+                this.supervisedBy = null;
+                old.supervises.remove(this);
+                MutationJournal.record(MutationJournal.Op.CLEAR_SUPERVISOR, this);
+            }
+        } finally {
+            step.unlock();
         }
     }
 
-    public static List<Staff> getExtent() { return new ArrayList<>(extent); }
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Staff findById(long id) { return extent.byId(id); }
+
+    public static List<Staff> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Staff> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Staff>loadExtent(EXTENT_FILE));
+    }
+
+    // Links, publishes and logs a new staff member as one mutation, see SystemSnapshot.mutations;
+    // called at the end of the subclass constructors so only complete objects are published
+    void registerNew() {
+        Lock step = SystemSnapshot.mutation();
+        try {
+            person.linkStaff(this);
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        person.linkStaff(this);
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Staff> restored) {
+        extent.replaceWith(restored);
     }
     // For testing purposes only - clears extent
     public static void clearExtent() { extent.clear(); }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Staff && id == ((Staff) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Staff)) return false;
         Staff s = (Staff) o;
-        if (!person.equals(s.person) || baseSalary != s.getBaseSalary()) return false;
+        if (!getPerson().deepEquals(s.getPerson()) || baseSalary != s.getBaseSalary()) return false;
         if (!Objects.equals(staffType, s.staffType)) return false;
         if (staffType == StaffType.FULL_TIME) {
-            return weekends != null && s.weekends != null && new HashSet<>(weekends).equals(new HashSet<>(s.weekends));
+            return weekends == s.weekends;
         }
         if (staffType == StaffType.PART_TIME) {
-            return workingDays != null && s.workingDays != null &&
-                    new HashSet<>(workingDays).equals(new HashSet<>(s.workingDays)) &&
-                    Objects.equals(workingHours, s.workingHours);
+            return workingDays == s.workingDays && Objects.equals(workingHours, s.workingHours);
         }
         return true;
     }
 
-    @Override
-    public int hashCode() {
-        int hash = Objects.hash(person, baseSalary, staffType);
-        if (staffType == StaffType.FULL_TIME && weekends != null) {
-            hash = Objects.hash(hash, new HashSet<>(weekends));
-        } else if (staffType == StaffType.PART_TIME && workingDays != null) {
-            hash = Objects.hash(hash, new HashSet<>(workingDays), workingHours);
+    public int deepHashCode() {
+        int hash = Objects.hash(getPerson().deepHashCode(), baseSalary, staffType);
+        if (staffType == StaffType.FULL_TIME) {
+            hash = 31 * hash + weekends;
+        } else if (staffType == StaffType.PART_TIME) {
+            hash = 31 * (31 * hash + workingDays) + Objects.hashCode(workingHours);
         }
         return hash;
     }
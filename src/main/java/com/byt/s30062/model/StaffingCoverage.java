@@ -0,0 +1,198 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.StaffType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Half-hour staffing of a store over the week, from the staff with an active employment there.
+// A staff member's week is seven 48-bit masks, bit i of a day for the slot starting at i/2
+// hours, set when the shift covers the whole slot. Part-time staff work their WorkingHours on
+// their working days; full-time staff have no hours of their own and work the full-time shift
+// given to the calculator on every day but their weekends.
+//
+// The calculator keeps the headcount of every slot and, per day, the mask of slots with anyone
+// at work, so coverage questions are bit tests. It does not watch the model: recompute() reads
+// all staff of the store again, update(staff) replaces one person's contribution after their
+// days, hours or employment changed and only touches the slots of their old and new weeks.
+public final class StaffingCoverage {
+    public static final int SLOTS_PER_DAY = 48;
+    private static final int DAYS = DayOfWeek.values().length;
+
+    private final Store store;
+    private final WorkingHours fullTimeHours;
+    private final Map<Staff, long[]> weeks = new IdentityHashMap<>();
+    private final int[] headcount = new int[DAYS * SLOTS_PER_DAY];
+    private final long[] covered = new long[DAYS];
+
+    // Full-time staff counted from 9:00 to 17:00
+    public StaffingCoverage(Store store) {
+        this(store, new WorkingHours(9, 17));
+    }
+
+    public StaffingCoverage(Store store, WorkingHours fullTimeHours) {
+        if (store == null) throw new IllegalArgumentException("store cannot be null");
+        if (fullTimeHours == null) throw new IllegalArgumentException("fullTimeHours cannot be null");
+        this.store = store;
+        this.fullTimeHours = fullTimeHours;
+        recompute();
+    }
+
+    // A gap: slots fromSlot (inclusive) to toSlot (exclusive) of a day with nobody at work
+    public static final class Gap {
+        private final DayOfWeek day;
+        private final int fromSlot;
+        private final int toSlot;
+
+        Gap(DayOfWeek day, int fromSlot, int toSlot) {
+            this.day = day;
+            this.fromSlot = fromSlot;
+            this.toSlot = toSlot;
+        }
+
+        public DayOfWeek getDay() { return day; }
+
+        public int getFromSlot() { return fromSlot; }
+
+        public int getToSlot() { return toSlot; }
+
+        public double getStartHour() { return fromSlot / 2.0; }
+
+        public double getFinishHour() { return toSlot / 2.0; }
+
+        @Override
+        public String toString() {
+            return String.format("Gap(%s %.1f-%.1f)", day, getStartHour(), getFinishHour());
+        }
+    }
+
+    // Rebuilds the matrix from every staff member currently employed at the store
+    public void recompute() {
+        weeks.clear();
+        Arrays.fill(headcount, 0);
+        Arrays.fill(covered, 0);
+        for (Staff staff : store.activeStaff()) add(staff, weekOf(staff));
+    }
+
+    // Takes the staff member's current schedule and employment into account, e.g. after
+    // setWorkingDays, setWorkingHours or the end of their employment here
+    public void update(Staff staff) {
+        if (staff == null) throw new IllegalArgumentException("staff cannot be null");
+        long[] old = weeks.remove(staff);
+        if (old != null) remove(old);
+        if (isActiveHere(staff)) add(staff, weekOf(staff));
+    }
+
+    public int getHeadcount(DayOfWeek day, int slot) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        checkSlot(slot);
+        return headcount[day.ordinal() * SLOTS_PER_DAY + slot];
+    }
+
+    public boolean isCovered(DayOfWeek day, int slot) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        checkSlot(slot);
+        return (covered[day.ordinal()] & (1L << slot)) != 0;
+    }
+
+    // Slots of the day with at least one person at work, bit i for slot i
+    public long getCoveredMask(DayOfWeek day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        return covered[day.ordinal()];
+    }
+
+    // Number of staff members in the matrix
+    public int getStaffCount() { return weeks.size(); }
+
+    // Uncovered stretches of the whole week, in week order
+    public List<Gap> getGaps() {
+        return getGaps(new WorkingHours(0, 24));
+    }
+
+    // Uncovered stretches while the store is open, the opening hours being the same every day
+    public List<Gap> getGaps(WorkingHours openingHours) {
+        if (openingHours == null) throw new IllegalArgumentException("openingHours cannot be null");
+        long open = slotsOf(openingHours);
+        List<Gap> gaps = new ArrayList<>();
+        for (DayOfWeek day : DayOfWeek.values()) {
+            long uncovered = open & ~covered[day.ordinal()];
+            while (uncovered != 0) {
+                int from = Long.numberOfTrailingZeros(uncovered);
+                // The run of set bits starting at from ends at the first clear bit above it
+                int to = Long.numberOfTrailingZeros(~(uncovered >>> from)) + from;
+                gaps.add(new Gap(day, from, to));
+                uncovered &= ~mask(from, to);
+            }
+        }
+        return gaps;
+    }
+
+    public boolean isFullyCovered(WorkingHours openingHours) {
+        if (openingHours == null) throw new IllegalArgumentException("openingHours cannot be null");
+        long open = slotsOf(openingHours);
+        for (long day : covered) {
+            if ((open & ~day) != 0) return false;
+        }
+        return true;
+    }
+
+    private boolean isActiveHere(Staff staff) {
+        for (HistoryOfEmployment h : staff.employmentHistory) {
+            if (h.store == store && h.isActive()) return true;
+        }
+        return false;
+    }
+
+    private long[] weekOf(Staff staff) {
+        WorkingHours hours = staff.getStaffType() == StaffType.FULL_TIME ? fullTimeHours : staff.getWorkingHours();
+        long slots = hours == null ? 0 : slotsOf(hours);
+        int days = staff.getWorkDayMask();
+        long[] week = new long[DAYS];
+        for (int d = 0; d < DAYS; d++) {
+            if ((days & (1 << d)) != 0) week[d] = slots;
+        }
+        return week;
+    }
+
+    private void add(Staff staff, long[] week) {
+        weeks.put(staff, week);
+        for (int d = 0; d < DAYS; d++) {
+            int base = d * SLOTS_PER_DAY;
+            for (long bits = week[d]; bits != 0; bits &= bits - 1) {
+                int slot = Long.numberOfTrailingZeros(bits);
+                if (headcount[base + slot]++ == 0) covered[d] |= 1L << slot;
+            }
+        }
+    }
+
+    private void remove(long[] week) {
+        for (int d = 0; d < DAYS; d++) {
+            int base = d * SLOTS_PER_DAY;
+            for (long bits = week[d]; bits != 0; bits &= bits - 1) {
+                int slot = Long.numberOfTrailingZeros(bits);
+                if (--headcount[base + slot] == 0) covered[d] &= ~(1L << slot);
+            }
+        }
+    }
+
+    // Slots lying entirely within the hours
+    private static long slotsOf(WorkingHours hours) {
+        int from = (int) Math.ceil(hours.getStartHour() * 2);
+        int to = (int) Math.floor(hours.getFinishHour() * 2);
+        return from < to ? mask(from, to) : 0;
+    }
+
+    // Bits from (inclusive) to to (exclusive), to at most 63
+    private static long mask(int from, int to) {
+        return ((1L << to) - 1) & -(1L << from);
+    }
+
+    private static void checkSlot(int slot) {
+        if (slot < 0 || slot >= SLOTS_PER_DAY) throw new IllegalArgumentException("slot must be between 0 and " + (SLOTS_PER_DAY - 1));
+    }
+}
@@ -1,31 +1,51 @@
 package com.byt.s30062.model;
 
 import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
-
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
 
 public class Store implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Store> extent = new ArrayList<>();
+    private static final Extent<Store> extent = new Extent<>(Store::getId);
     private static final String EXTENT_FILE = "store_extent.ser";
 
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
     private final Address address;
     private final LocalDate dateOfOpening;
 
-    // Ordered association: units sorted by serial number
-    private final List<Unit> units = new ArrayList<>();
+    // Ordered association: units sorted by serial number, which is unique (see Unit.findBySerial).
+    // A red-black tree keeps inserts, removals and range lookups at O(log n).
+    final NavigableMap<String, Unit> units = new TreeMap<>();
     
     // Bag association: employment history records (managed by HistoryOfEmployment)
     List<HistoryOfEmployment> employmentHistory = new ArrayList<>();
 
+    // Day roster: the staff with an active employment here, each once, and the days each works
+    // (Staff.getWorkDayMask) packed in a parallel byte array, so day queries test one bit per
+    // staff member without touching the Staff objects. Built from employmentHistory on first
+    // use, dropped by rosterChanged.
+    private transient Staff[] rosterStaff;
+    private transient byte[] rosterDays;
+
     public Store(Address address, LocalDate dateOfOpening) {
         if (address == null) throw new IllegalArgumentException("address cannot be null");
         if (dateOfOpening == null) throw new IllegalArgumentException("dateOfOpening cannot be null");
@@ -34,7 +54,19 @@ public class Store implements Serializable {
         
         this.address = address;
         this.dateOfOpening = dateOfOpening;
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            extent.add(this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Store(Restoration restoration, Address address, LocalDate dateOfOpening) {
+        this.address = address;
+        this.dateOfOpening = dateOfOpening;
     }
 
     public Address getAddress() { return address; }
@@ -42,36 +74,158 @@ public class Store implements Serializable {
     public LocalDate getDateOfOpening() { return dateOfOpening; }
 
     public List<Unit> getUnits() {
-        return new ArrayList<>(units);
+        resolveLinks();
+        return new ArrayList<>(units.values());
+    }
+
+    // Units whose serial numbers lie between fromSerial and toSerial, both inclusive, in serial
+    // number order; a null bound leaves that side open
+    public List<Unit> getUnits(String fromSerial, String toSerial) {
+        return new ArrayList<>(range(fromSerial, toSerial).values());
+    }
+
+    public int getUnitCount() { resolveLinks(); return units.size(); }
+
+    // Iterates the units in serial number order without copying them. The iterator is read-only
+    // and fails fast if units are linked or unlinked meanwhile.
+    public Iterator<Unit> unitIterator() {
+        resolveLinks();
+        return Collections.unmodifiableCollection(units.values()).iterator();
+    }
+
+    public Iterator<Unit> unitIterator(String fromSerial, String toSerial) {
+        return Collections.unmodifiableCollection(range(fromSerial, toSerial).values()).iterator();
+    }
+
+    private NavigableMap<String, Unit> range(String fromSerial, String toSerial) {
+        resolveLinks();
+        if (fromSerial != null && toSerial != null && fromSerial.compareTo(toSerial) > 0) {
+            throw new IllegalArgumentException("fromSerial cannot be after toSerial");
+        }
+        if (fromSerial == null && toSerial == null) return units;
+        if (fromSerial == null) return units.headMap(toSerial, true);
+        if (toSerial == null) return units.tailMap(fromSerial, true);
+        return units.subMap(fromSerial, true, toSerial, true);
     }
 
     public void linkUnit(Unit unit) {
         if (unit == null) return;
-        if (!units.contains(unit)) {
-            units.add(unit);
-            units.sort(Comparator.comparing(Unit::getSerialNumber));
+        Lock step = SystemSnapshot.mutation();
+        try {
+            Unit linked = units.get(unit.getSerialNumber());
+            if (linked == unit) return;
+            if (linked != null) throw new IllegalArgumentException("store already holds a unit with serial number " + unit.getSerialNumber());
+            units.put(unit.getSerialNumber(), unit);
+            MutationJournal.record(MutationJournal.Op.STORE_LINK_UNIT, this, unit);
+        } finally {
+            step.unlock();
         }
     }
 
     public void unlinkUnit(Unit unit) {
         if (unit == null) return;
-        if (units.remove(unit)) {
-            unit.clearStore();
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (units.remove(unit.getSerialNumber(), unit)) {
+                unit.clearStore();
+                MutationJournal.record(MutationJournal.Op.STORE_UNLINK_UNIT, this, unit);
+            }
+        } finally {
+            step.unlock();
         }
     }
 
+    // Units of the product in this store that are not in a purchase, see Product.getAvailableCount
+    public long getAvailableCount(Product product) {
+        if (product == null) throw new IllegalArgumentException("product cannot be null");
+        return product.getAvailableCount(this);
+    }
+
     public List<HistoryOfEmployment> getEmploymentHistory() {
+        resolveLinks();
         return new ArrayList<>(employmentHistory);
     }
 
-    public static List<Store> getExtent() { return new ArrayList<>(extent); }
+    // Staff currently employed here who work on the given day, in order of employment
+    public List<Staff> getStaffWorkingOn(DayOfWeek day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        roster();
+        int bit = Staff.bit(day);
+        List<Staff> working = new ArrayList<>();
+        for (int i = 0; i < rosterDays.length; i++) {
+            if ((rosterDays[i] & bit) != 0) working.add(rosterStaff[i]);
+        }
+        return working;
+    }
+
+    public int countStaffWorkingOn(DayOfWeek day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        roster();
+        int bit = Staff.bit(day);
+        int count = 0;
+        for (byte days : rosterDays) {
+            if ((days & bit) != 0) count++;
+        }
+        return count;
+    }
+
+    // Staff with an active employment here, each once; read-only
+    Staff[] activeStaff() {
+        roster();
+        return rosterStaff;
+    }
+
+    // Called when an employment here starts or ends, or one of the staff changes work days
+    void rosterChanged() {
+        rosterStaff = null;
+        rosterDays = null;
+    }
+
+    private void roster() {
+        if (rosterDays != null) return;
+        resolveLinks();
+        Map<Staff, Boolean> seen = new IdentityHashMap<>();
+        List<Staff> active = new ArrayList<>();
+        for (HistoryOfEmployment h : employmentHistory) {
+            if (h.isActive() && seen.put(h.getStaff(), Boolean.TRUE) == null) active.add(h.getStaff());
+        }
+        Staff[] staff = active.toArray(new Staff[0]);
+        byte[] days = new byte[staff.length];
+        for (int i = 0; i < staff.length; i++) days[i] = (byte) staff[i].getWorkDayMask();
+        rosterStaff = staff;
+        rosterDays = days;
+    }
+
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Store findById(long id) { return extent.byId(id); }
+
+    public static List<Store> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Store> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Store>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        extent.add(this);
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Store> restored) {
+        extent.replaceWith(restored);
     }
 
     // For testing purposes only - clears extent
@@ -79,14 +233,21 @@ public class Store implements Serializable {
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Store && id == ((Store) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Store)) return false;
         Store store = (Store) o;
         return address.equals(store.address) && dateOfOpening.isEqual(store.dateOfOpening);
     }
 
-    @Override
-    public int hashCode() {
+    public int deepHashCode() {
         return Objects.hash(address, dateOfOpening);
     }
 
@@ -0,0 +1,483 @@
+package com.byt.s30062.model;
+
+import com.byt.s30062.util.BinaryReader;
+import com.byt.s30062.util.BinaryWriter;
+import com.byt.s30062.util.ExtentManager;
+import com.byt.s30062.util.RecordingWriter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Saves and loads all extents as one object graph. Objects referenced from several extents
+// (e.g. a Product reachable from Product.getExtent() and from Unit.getProduct()) are written
+// once, and after loading every association points at the same instance as the extents.
+//
+// File layout (binary, see ExtentManager for the header):
+//   int minimumWarrantyPeriod, int sectionCount,
+//   per section (EntityCodecs.ALL order): int recordCount, int extentCount, records
+//   record: long surrogate id, attributes (codec specific), int refCount, refCount x int
+//   offset table, per section: int recordCount, int extentCount, recordCount x long record position
+//   long position of the offset table
+// Within the file every object is numbered by its position across all sections; references are
+// written as those numbers (-1 for null). The first extentCount records of a section are the extent,
+// the rest are objects that are only reachable through associations.
+// Both save and load are flat loops over the sections, so deep association chains
+// (Purchase -> Warranty -> Unit -> Product -> units ...) never recurse. The offset table lets
+// MappedSnapshot find single records without reading the rest of the file.
+public final class SystemSnapshot {
+    public static final String SNAPSHOT_FILE = "system_snapshot.bin";
+
+    // Mutations change several objects one monitor at a time (see Warranty.register), so a
+    // capture that took those monitors in turn could still see one half done. Every mutation of
+    // the model that the journal records holds the read side of this lock while it applies and
+    // logs the change, and the capture phase of a snapshot holds the write side: shoppers still
+    // run side by side, and a snapshot sees each mutation either done or not started.
+    // Mutations take it before any monitor of the model.
+    static final ReentrantReadWriteLock mutations = new ReentrantReadWriteLock();
+
+    private SystemSnapshot() {}
+
+    // Read side of the mutation lock, locked; the caller unlocks it when its change is logged
+    static Lock mutation() {
+        Lock step = mutations.readLock();
+        step.lock();
+        return step;
+    }
+
+    // Write side of the mutation lock, held while a snapshot captures the graph, see discover
+    static Lock captureLock() {
+        // The read side cannot be upgraded; waiting for the write side would never end
+        if (mutations.getReadHoldCount() > 0) {
+            throw new IllegalStateException("cannot capture a snapshot inside a mutation");
+        }
+        return mutations.writeLock();
+    }
+
+    public static void save() throws IOException {
+        save(SNAPSHOT_FILE);
+    }
+
+    public static void save(String filePath) throws IOException {
+        Graph graph = capture();
+        try (BinaryWriter out = ExtentManager.openBinaryOutput(filePath)) {
+            write(out, graph);
+        }
+    }
+
+    // Deflated, with repeated strings written once; see ExtentManager.openCompressedOutput.
+    // load() reads both kinds of file.
+    public static void save(String filePath, int compressionLevel) throws IOException {
+        Graph graph = capture();
+        try (BinaryWriter out = ExtentManager.openCompressedOutput(filePath, compressionLevel)) {
+            write(out, graph);
+        }
+    }
+
+    // Captures the whole model. Mutations wait until it returns, but not while the graph is
+    // encoded or written.
+    static Graph capture() throws IOException {
+        Lock capture = captureLock();
+        capture.lock();
+        try {
+            return discover(Collections.emptyList());
+        } finally {
+            capture.unlock();
+        }
+    }
+
+    // Every object reachable from the extents and the extra roots, grouped into sections in
+    // EntityCodecs.ALL order, together with its attributes and references as they were at the
+    // capture. The first extentCounts[k] objects of section k are its extent. Encoding a graph
+    // only reads the captured state, so it can run while the model changes.
+    static final class Graph {
+        final List<List<Object>> sections;
+        final int[] extentCounts;
+        final int minimumPeriod;
+        // Capture slot of every object; its attributes are values attributeStarts[slot] up to
+        // attributeStarts[slot + 1] of attributes, its references likewise. A reference is the
+        // target, or an Object[] for a collection.
+        private final IdentityHashMap<Object, Integer> slots;
+        private final RecordingWriter attributes;
+        private final int[] attributeStarts;
+        private final List<Object> references;
+        private final int[] referenceStarts;
+
+        private Graph(List<List<Object>> sections, int[] extentCounts, int minimumPeriod,
+                      IdentityHashMap<Object, Integer> slots, RecordingWriter attributes, int[] attributeStarts,
+                      List<Object> references, int[] referenceStarts) {
+            this.sections = sections;
+            this.extentCounts = extentCounts;
+            this.minimumPeriod = minimumPeriod;
+            this.slots = slots;
+            this.attributes = attributes;
+            this.attributeStarts = attributeStarts;
+            this.references = references;
+            this.referenceStarts = referenceStarts;
+        }
+
+        void writeAttributes(Object o, BinaryWriter out) throws IOException {
+            int slot = slotOf(o);
+            attributes.replay(attributeStarts[slot], attributeStarts[slot + 1], out);
+        }
+
+        // Visits the captured references in the order the codec wrote them
+        void writeReferences(Object o, EntityCodec.ReferenceSink refs) throws IOException {
+            int slot = slotOf(o);
+            for (int i = referenceStarts[slot]; i < referenceStarts[slot + 1]; i++) {
+                Object target = references.get(i);
+                if (target instanceof Object[]) {
+                    refs.refs(Arrays.asList((Object[]) target));
+                } else {
+                    refs.ref(target);
+                }
+            }
+        }
+
+        private int slotOf(Object o) {
+            Integer slot = slots.get(o);
+            if (slot == null) throw new IllegalArgumentException("object is not part of the captured graph: " + o);
+            return slot;
+        }
+    }
+
+    // Caller holds captureLock(). Copies each extent and the state of every object reached from
+    // them; this copy is the only part of a snapshot that holds up mutations.
+    static Graph discover(Collection<?> extraRoots) throws IOException {
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        List<List<Object>> sections = new ArrayList<>(codecs.size());
+        int[] extentCounts = new int[codecs.size()];
+        // Objects by slot and the section of each; slots are handed out as objects are reached,
+        // so the loop below captures them in that order
+        IdentityHashMap<Object, Integer> slots = new IdentityHashMap<>();
+        List<Object> reached = new ArrayList<>();
+        IntList sectionOf = new IntList();
+
+        for (int k = 0; k < codecs.size(); k++) {
+            List<Object> section = new ArrayList<>(codecs.get(k).extent());
+            for (Object o : section) {
+                slots.put(o, reached.size());
+                reached.add(o);
+                sectionOf.add(k);
+            }
+            sections.add(section);
+            extentCounts[k] = section.size();
+        }
+
+        // Picks up objects that are referenced but no longer part of an extent
+        EntityCodec.ReferenceSink reach = new EntityCodec.ReferenceSink() {
+            public void ref(Object target) throws IOException {
+                if (target == null || slots.containsKey(target)) return;
+                int k = codecs.indexOf(EntityCodecs.codecFor(target));
+                if (k < 0) throw new IOException("unsupported reference type: " + target.getClass().getName());
+                slots.put(target, reached.size());
+                reached.add(target);
+                sectionOf.add(k);
+                sections.get(k).add(target);
+            }
+
+            public void refs(Collection<?> targets) throws IOException {
+                for (Object target : targets) ref(target);
+            }
+        };
+        RecordingWriter attributes = new RecordingWriter();
+        List<Object> references = new ArrayList<>();
+        EntityCodec.ReferenceSink record = new EntityCodec.ReferenceSink() {
+            public void ref(Object target) throws IOException {
+                references.add(target);
+                reach.ref(target);
+            }
+
+            public void refs(Collection<?> targets) throws IOException {
+                Object[] copy = targets.toArray();
+                references.add(copy);
+                for (Object target : copy) reach.ref(target);
+            }
+        };
+        for (Object root : extraRoots) reach.ref(root);
+
+        IntList attributeStarts = new IntList();
+        IntList referenceStarts = new IntList();
+        for (int slot = 0; slot < reached.size(); slot++) {
+            Object o = reached.get(slot);
+            EntityCodec<?> codec = codecs.get(sectionOf.get(slot));
+            attributeStarts.add(attributes.size());
+            writeAttributes(codec, o, attributes);
+            referenceStarts.add(references.size());
+            writeReferences(codec, o, record);
+        }
+        attributeStarts.add(attributes.size());
+        referenceStarts.add(references.size());
+        return new Graph(sections, extentCounts, Warranty.getMinimumPeriod(), slots,
+                attributes, attributeStarts.toArray(), references, referenceStarts.toArray());
+    }
+
+    static List<Object> write(BinaryWriter out, Graph graph) throws IOException {
+        return write(out, graph, Collections.emptySet());
+    }
+
+    // Writes the graph and returns every written object in id order, leaving the excluded
+    // sections empty and dropping references to their objects (PurchasePartitions stores those
+    // sections elsewhere)
+    static List<Object> write(BinaryWriter out, Graph graph, Set<EntityCodec<?>> excluded) throws IOException {
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+        int nextId = 0;
+        for (int k = 0; k < codecs.size(); k++) {
+            if (excluded.contains(codecs.get(k))) continue;
+            for (Object o : graph.sections.get(k)) ids.put(o, nextId++);
+        }
+
+        IntList refIds = new IntList();
+        EntityCodec.ReferenceSink encode = new EntityCodec.ReferenceSink() {
+            public void ref(Object target) {
+                Integer id = target == null ? null : ids.get(target);
+                refIds.add(id == null ? -1 : id);
+            }
+
+            public void refs(Collection<?> targets) {
+                int count = 0;
+                for (Object target : targets) if (ids.containsKey(target)) count++;
+                refIds.add(count);
+                for (Object target : targets) if (ids.containsKey(target)) ref(target);
+            }
+        };
+
+        out.writeInt(graph.minimumPeriod);
+        out.writeInt(codecs.size());
+        List<Object> written = new ArrayList<>(ids.size());
+        long[][] positions = new long[codecs.size()][];
+        int[] extentCounts = new int[codecs.size()];
+        for (int k = 0; k < codecs.size(); k++) {
+            EntityCodec<?> codec = codecs.get(k);
+            List<Object> section = excluded.contains(codec) ? Collections.emptyList() : graph.sections.get(k);
+            extentCounts[k] = excluded.contains(codec) ? 0 : graph.extentCounts[k];
+            out.writeInt(section.size());
+            out.writeInt(extentCounts[k]);
+            positions[k] = new long[section.size()];
+            for (int r = 0; r < section.size(); r++) {
+                Object o = section.get(r);
+                positions[k][r] = out.position();
+                graph.writeAttributes(o, out);
+                refIds.clear();
+                graph.writeReferences(o, encode);
+                out.writeInt(refIds.size());
+                for (int i = 0; i < refIds.size(); i++) out.writeInt(refIds.get(i));
+                written.add(o);
+            }
+        }
+
+        long tablePosition = out.position();
+        for (int k = 0; k < codecs.size(); k++) {
+            out.writeInt(positions[k].length);
+            out.writeInt(extentCounts[k]);
+            for (long position : positions[k]) out.writeLong(position);
+        }
+        out.writeLong(tablePosition);
+        return written;
+    }
+
+    public static void load() throws IOException {
+        load(SNAPSHOT_FILE);
+    }
+
+    // Extents are replaced only after the whole file has been read and linked,
+    // so a corrupt snapshot leaves the current model untouched
+    public static void load(String filePath) throws IOException {
+        try (BinaryReader in = ExtentManager.openBinaryInput(filePath)) {
+            read(in);
+        }
+    }
+
+    // Reads a snapshot body, installs its extents and returns every object in id order
+    static List<Object> read(BinaryReader in) throws IOException {
+        Contents contents = readContents(in);
+        contents.install();
+        return contents.objects;
+    }
+
+    // Decoded and linked snapshot that is not installed yet
+    static final class Contents {
+        final List<Object> objects;
+        final int[] sectionStarts;
+        final int[] extentCounts;
+        final int minimumPeriod;
+
+        Contents(List<Object> objects, int[] sectionStarts, int[] extentCounts, int minimumPeriod) {
+            this.objects = objects;
+            this.sectionStarts = sectionStarts;
+            this.extentCounts = extentCounts;
+            this.minimumPeriod = minimumPeriod;
+        }
+
+        void install() {
+            SystemSnapshot.install(objects, sectionStarts, extentCounts, minimumPeriod);
+        }
+    }
+
+    static Contents readContents(BinaryReader in) throws IOException {
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        List<Object> objects = new ArrayList<>();
+        List<int[]> references = new ArrayList<>();
+        int[] sectionStarts = new int[codecs.size() + 1];
+        int[] extentCounts = new int[codecs.size()];
+
+        int minimumPeriod = in.readInt();
+        int sectionCount = in.readInt();
+        if (sectionCount != codecs.size()) throw new IOException("unexpected number of sections: " + sectionCount);
+        for (int k = 0; k < codecs.size(); k++) {
+            EntityCodec<?> codec = codecs.get(k);
+            int size = in.readInt();
+            extentCounts[k] = in.readInt();
+            if (size < 0 || extentCounts[k] < 0 || extentCounts[k] > size) throw new IOException("corrupt section header");
+            sectionStarts[k] = objects.size();
+            for (int i = 0; i < size; i++) {
+                objects.add(codec.readAttributes(in));
+                int[] refs = new int[in.readInt()];
+                for (int j = 0; j < refs.length; j++) refs[j] = in.readInt();
+                references.add(refs);
+            }
+        }
+        sectionStarts[codecs.size()] = objects.size();
+
+        // The offset table is only needed for random access; check it against the sections
+        for (int k = 0; k < codecs.size(); k++) {
+            int size = in.readInt();
+            if (size != sectionStarts[k + 1] - sectionStarts[k] || in.readInt() != extentCounts[k]) {
+                throw new IOException("offset table does not match its sections");
+            }
+            for (int i = 0; i < size; i++) in.readLong();
+        }
+        in.readLong();
+
+        for (int k = 0; k < codecs.size(); k++) {
+            for (int id = sectionStarts[k]; id < sectionStarts[k + 1]; id++) {
+                link(codecs.get(k), objects.get(id), new RefReader(objects, references.get(id)));
+            }
+        }
+
+        return new Contents(objects, sectionStarts, extentCounts, minimumPeriod);
+    }
+
+    // Loads a snapshot file with the sections decoded in parallel, see MappedSnapshot.loadAll.
+    // Startup time is then bounded by the largest part of the file rather than the sum of all
+    // extents. The result is the same as load(filePath), which is also used for compressed files.
+    public static void loadParallel(String filePath) throws IOException {
+        loadParallel(filePath, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static void loadParallel(String filePath, int parallelism) throws IOException {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        // A deflate stream can only be read front to back
+        if (ExtentManager.isCompressed(filePath)) {
+            load(filePath);
+            return;
+        }
+        MappedSnapshot snapshot = MappedSnapshot.open(filePath);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "snapshot-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            snapshot.loadAll(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Installs fully linked objects as the extents, given where each section starts in objects
+    static void install(List<Object> objects, int[] sectionStarts, int[] extentCounts, int minimumPeriod) {
+        List<EntityCodec<?>> codecs = EntityCodecs.ALL;
+        for (int k = 0; k < codecs.size(); k++) {
+            replaceExtent(codecs.get(k), objects.subList(sectionStarts[k], sectionStarts[k] + extentCounts[k]));
+        }
+        Warranty.setMinimumPeriod(minimumPeriod);
+    }
+
+    // For testing purposes only - clears every extent covered by the snapshot
+    public static void clearAll() {
+        Person.clearExtent();
+        Customer.clearExtent();
+        Staff.clearExtent();
+        Store.clearExtent();
+        HistoryOfEmployment.clearExtent();
+        Product.clearExtent();
+        Unit.clearExtent();
+        Purchase.clearExtent();
+        Warranty.clearExtent();
+        Report.clearExtent();
+    }
+
+    private static <T> void writeAttributes(EntityCodec<T> codec, Object o, BinaryWriter out) throws IOException {
+        codec.writeAttributes(codec.type().cast(o), out);
+    }
+
+    private static <T> void writeReferences(EntityCodec<T> codec, Object o, EntityCodec.ReferenceSink refs) throws IOException {
+        codec.writeReferences(codec.type().cast(o), refs);
+    }
+
+    static <T> void link(EntityCodec<T> codec, Object o, EntityCodec.ReferenceSource refs) throws IOException {
+        codec.link(codec.type().cast(o), refs);
+    }
+
+    private static <T> void replaceExtent(EntityCodec<T> codec, List<Object> restored) {
+        List<T> extent = new ArrayList<>(restored.size());
+        for (Object o : restored) extent.add(codec.type().cast(o));
+        codec.replaceExtent(extent);
+    }
+
+    // Resolves the ids of one record in the order the codec asks for them
+    static final class RefReader implements EntityCodec.ReferenceSource {
+        private final List<Object> objects;
+        private final int[] refs;
+        private int position;
+
+        RefReader(List<Object> objects, int[] refs) {
+            this.objects = objects;
+            this.refs = refs;
+        }
+
+        public <R> R ref(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int id = refs[position++];
+            if (id == -1) return null;
+            if (id < 0 || id >= objects.size()) throw new IOException("invalid reference id: " + id);
+            Object target = objects.get(id);
+            if (!type.isInstance(target)) {
+                throw new IOException("reference " + id + " is a " + target.getClass().getSimpleName() + ", expected " + type.getSimpleName());
+            }
+            return type.cast(target);
+        }
+
+        public <R> List<R> refs(Class<R> type) throws IOException {
+            if (position >= refs.length) throw new IOException("record has fewer references than expected");
+            int count = refs[position++];
+            List<R> result = new ArrayList<>(Math.max(count, 0));
+            for (int i = 0; i < count; i++) result.add(ref(type));
+            return result;
+        }
+    }
+
+    // Growable int array, avoids boxing the reference ids of every record
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int index) { return values[index]; }
+
+        int size() { return size; }
+
+        void clear() { size = 0; }
+
+        int[] toArray() { return Arrays.copyOf(values, size); }
+    }
+}
@@ -1,26 +1,59 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 public class Unit implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Unit> extent = new ArrayList<>();
+    private static final Extent<Unit> extent = new Extent<>(Unit::getId);
     private static final String EXTENT_FILE = "unit_extent.ser";
+    // Unique index on serialNumber over the extent
+    private static final Map<String, Unit> bySerial = new HashMap<>();
+
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
 
     private final LocalDate manufacturingDate;
     private final String serialNumber;
-    private final Product product;
-    private Store store; // optional, 0..1 (Unit may be in 0 or 1 store)
+    Product product;
+    Store store; // optional, 0..1 (Unit may be in 0 or 1 store)
     
-    // Association through Warranty: unit may have 0..many warranties
+    // Association through Warranty: unit may have 0..many warranties, all of one purchase, e.g.
+    // a warranty and its prolongations.
+    // Guarded by this unit.
     List<Warranty> warranties = new ArrayList<>();
 
+    // The purchase holding this unit, null while it has no warranty. Checked and claimed under
+    // this unit's lock, so carts on different threads cannot both take the unit while checkouts
+    // of different units never wait for each other; volatile for lock-free reads.
+    private volatile Purchase reservedBy;
+    // Set by PurchasePartitions when the purchase holding this unit is in a month that was not
+    // loaded: the unit is sold although getPurchase() is null, and cannot go into another cart
+    private transient volatile boolean reservedUnloaded;
+
+    private volatile boolean deleted;
+    // Store whose available-stock counter of the product includes this unit, see updateStock
+    private transient Store countedIn;
+
+    // Effective coverage: end dates of the warranties that have one, as epoch days in ascending
+    // order, so the last is where coverage ends. Built from warranties on first use and kept up
+    // to date by link, unlink and Warranty.setEndDate. Guarded by this unit.
+    private transient int[] coverageDays;
+    private transient int coverageCount;
+
     public Unit(LocalDate manufacturingDate, String serialNumber, Product product) {
         if (manufacturingDate == null) throw new IllegalArgumentException("manufacturingDate cannot be null");
         if (manufacturingDate.isAfter(LocalDate.now())) throw new IllegalArgumentException("manufacturingDate cannot be in the future");
@@ -31,112 +64,330 @@ public class Unit implements Serializable {
         if (serialNumber.length() > 100) throw new IllegalArgumentException("serialNumber cannot exceed 100 characters");
         
         if (product == null) throw new IllegalArgumentException("product cannot be null");
+        if (bySerial.containsKey(serialNumber.trim())) throw new IllegalArgumentException("serialNumber already exists: " + serialNumber.trim());
         
         this.manufacturingDate = manufacturingDate;
         this.serialNumber = serialNumber.trim();
         this.product = product;
         
         // Establish bidirectional link with Product
-        product.linkUnit(this);
-        extent.add(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            product.linkUnit(this);
+            extent.add(this);
+            bySerial.put(this.serialNumber, this);
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Unit(Restoration restoration, LocalDate manufacturingDate, String serialNumber) {
+        this.manufacturingDate = manufacturingDate;
+        this.serialNumber = serialNumber;
     }
 
     public LocalDate getManufacturingDate() { return manufacturingDate; }
 
     public String getSerialNumber() { return serialNumber; }
 
-    // Get all warranties for this unit
-    public List<Warranty> getWarranties() { return new ArrayList<>(warranties); }
+    // Get all warranties for this unit. Links are resolved before taking this unit's lock,
+    // which MappedSnapshot takes while linking (restoreReservation).
+    public List<Warranty> getWarranties() {
+        resolveLinks();
+        synchronized (this) {
+            return new ArrayList<>(warranties);
+        }
+    }
     
     // Derived: get purchase if this unit has a warranty (0..1)
-    public Purchase getPurchase() {
-        if (warranties.isEmpty()) return null;
-        return warranties.get(0).getPurchase();
-    }
+    public Purchase getPurchase() { resolveLinks(); return reservedBy; }
 
-    public Product getProduct() { return product; }
+    public Product getProduct() { resolveLinks(); return product; }
 
-    public Store getStore() { return store; }
+    public Store getStore() { resolveLinks(); return store; }
 
-    // Set store for this unit (0..1). Maintains ordered association.
+    // Set store for this unit (0..1). Maintains ordered association. The new store is linked
+    // first, so a store refusing the unit leaves it where it was.
     public void setStore(Store newStore) {
-        // If changing stores, unlink from old store
-        if (this.store != null && this.store != newStore) {
-            this.store.unlinkUnit(this); // will clear this.store
-        }
-        // Set new store and link
-        if (newStore != null) {
+        Lock step = SystemSnapshot.mutation();
+        try {
+            if (newStore != null) newStore.linkUnit(this);
+            // If changing stores, unlink from old store
+            if (this.store != null && this.store != newStore) {
+                this.store.unlinkUnit(this); // will clear this.store
+            }
             this.store = newStore;
-            newStore.linkUnit(this);
-        } else {
-            this.store = null;
+            updateStock();
+            MutationJournal.record(MutationJournal.Op.UNIT_SET_STORE, this, this.store);
+        } finally {
+            step.unlock();
         }
     }
 
     // Called by Store.unlinkUnit() to clear store reference
     void clearStore() {
         this.store = null;
+        updateStock();
+    }
+
+    // A unit is available stock of its store while it is not in a purchase and not deleted.
+    // Moves this unit's count to the counter it belongs to now; called after every change to
+    // the store, the reservation or deletion, and safe to call when nothing changed.
+    synchronized void updateStock() {
+        Store target = store != null && reservedBy == null && !reservedUnloaded && !deleted ? store : null;
+        if (target == countedIn) return;
+        if (countedIn != null) product.stockCounter(countedIn).decrement();
+        if (target != null) product.stockCounter(target).increment();
+        countedIn = target;
+    }
+
+    // Recounts all stock, after extents were replaced by a load
+    static void rebuildStock() {
+        for (Unit u : extent) {
+            if (u.product != null) u.product.clearStock();
+        }
+        for (Unit u : extent) {
+            synchronized (u) {
+                u.countedIn = null;
+                if (u.product != null) u.updateStock();
+            }
+        }
     }
 
     // Called by Warranty to link itself to this unit
     void linkWarranty(Warranty warranty) {
-        if (warranty != null && !warranties.contains(warranty)) {
+        if (warranty == null) return;
+        Purchase purchase = warranty.getPurchase();
+        synchronized (this) {
             // Constraint: unit can be associated with at most one purchase
-            if (!warranties.isEmpty()) {
-                Purchase existingPurchase = warranties.get(0).getPurchase();
-                if (!existingPurchase.equals(warranty.getPurchase())) {
-                    throw new IllegalArgumentException("Unit can only be associated with one purchase");
-                }
+            if (reservedUnloaded || reservedBy != null && reservedBy != purchase) {
+                throw new IllegalArgumentException("Unit can only be associated with one purchase");
             }
-            warranties.add(warranty);
+            reservedBy = purchase;
+            if (indexOf(warranty) < 0) {
+                warranties.add(warranty);
+                if (coverageDays != null && warranty.getEndDate() != null) addCoverage(warranty.getEndDate());
+            }
+            updateStock();
         }
     }
+
+    // Called by the Warranty codec, the warranty lists are already linked
+    synchronized void restoreReservation(Purchase purchase) {
+        reservedBy = purchase;
+        coverageDays = null;
+    }
     
-    // Called by Warranty when removed
+    // Called by PurchasePartitions before the loaded extents are installed
+    synchronized void markReservedUnloaded() {
+        reservedUnloaded = true;
+    }
+
+    // Called by Warranty when removed; the last one frees the unit for other purchases
     void unlinkWarranty(Warranty warranty) {
         if (warranty != null) {
-            warranties.remove(warranty);
+            synchronized (this) {
+                int i = indexOf(warranty);
+                if (i >= 0) {
+                    warranties.remove(i);
+                    if (coverageDays != null && warranty.getEndDate() != null) removeCoverage(warranty.getEndDate());
+                }
+                if (warranties.isEmpty()) reservedBy = null;
+                updateStock();
+            }
+        }
+    }
+
+    private int indexOf(Warranty warranty) {
+        for (int i = 0; i < warranties.size(); i++) {
+            if (warranties.get(i) == warranty) return i;
+        }
+        return -1;
+    }
+
+    // Called by Warranty when a linked dummy warranty gets its end date
+    synchronized void coverageEndSet(Warranty warranty) {
+        if (coverageDays != null && indexOf(warranty) >= 0) addCoverage(warranty.getEndDate());
+    }
+
+    // Last day covered by a warranty, exclusive: the latest end date among this unit's
+    // warranties and their prolongations, or null if none has an end date
+    public LocalDate getCoverageEnd() {
+        resolveLinks();
+        synchronized (this) {
+            coverage();
+            return coverageCount == 0 ? null : LocalDate.ofEpochDay(coverageDays[coverageCount - 1]);
+        }
+    }
+
+    // Covered from the purchase day up to, not including, the coverage end
+    public boolean isCoveredOn(LocalDate day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        resolveLinks();
+        synchronized (this) {
+            LocalDate end = getCoverageEnd();
+            if (end == null) return false;
+            return !day.isBefore(reservedBy.getPurchaseDate().toLocalDate()) && day.isBefore(end);
+        }
+    }
+
+    // End dates of the warranty and its prolongations, earliest first
+    public List<LocalDate> getCoverageHistory() {
+        resolveLinks();
+        synchronized (this) {
+            coverage();
+            List<LocalDate> history = new ArrayList<>(coverageCount);
+            for (int i = 0; i < coverageCount; i++) history.add(LocalDate.ofEpochDay(coverageDays[i]));
+            return history;
         }
     }
 
-    public boolean isPurchased() { return !warranties.isEmpty(); }
+    private void coverage() {
+        if (coverageDays != null) return;
+        coverageDays = new int[Math.max(2, warranties.size())];
+        coverageCount = 0;
+        for (Warranty w : warranties) {
+            if (w.getEndDate() != null) addCoverage(w.getEndDate());
+        }
+    }
+
+    private void addCoverage(LocalDate endDate) {
+        int day = (int) endDate.toEpochDay();
+        if (coverageCount == coverageDays.length) coverageDays = Arrays.copyOf(coverageDays, coverageCount * 2);
+        int i = coverageCount;
+        // Prolongations end later, so this is usually an append
+        while (i > 0 && coverageDays[i - 1] > day) {
+            coverageDays[i] = coverageDays[i - 1];
+            i--;
+        }
+        coverageDays[i] = day;
+        coverageCount++;
+    }
 
-    // Delete this Unit from the system
+    private void removeCoverage(LocalDate endDate) {
+        int day = (int) endDate.toEpochDay();
+        for (int i = coverageCount - 1; i >= 0; i--) {
+            if (coverageDays[i] == day) {
+                System.arraycopy(coverageDays, i + 1, coverageDays, i, coverageCount - i - 1);
+                coverageCount--;
+                return;
+            }
+        }
+    }
+
+    // True also for a unit sold in a month that PurchasePartitions did not load
+    public boolean isPurchased() { return getPurchase() != null || reservedUnloaded; }
+
+    // Delete this Unit from the system. It leaves its store and product too, which frees its
+    // serial number there as well as in the index.
     public void delete() {
-        extent.remove(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            deleted = true;
+            if (store != null) store.unlinkUnit(this);
+            product.unitDeleted(this);
+            updateStock();
+            extent.remove(this);
+            bySerial.remove(serialNumber, this);
+            MutationJournal.record(MutationJournal.Op.DELETE, this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Unit in the extent with the given serial number (surrounding whitespace ignored), or null
+    public static Unit findBySerial(String serialNumber) {
+        if (serialNumber == null) return null;
+        return bySerial.get(serialNumber.trim());
     }
 
-    public static List<Unit> getExtent() { return new ArrayList<>(extent); }
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Unit findById(long id) { return extent.byId(id); }
+
+    public static List<Unit> getExtent() { return extent.toList(); }
+
+    // Read-only live view of the extent, for callers that only read it and want to skip the copy
+    public static List<Unit> getExtentView() { return extent.view(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(extent.toList(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        extent.replaceWith(ExtentManager.<Unit>loadExtent(EXTENT_FILE));
+        rebuildIndex();
+        rebuildStock();
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        product.units.add(this);
+        extent.add(this);
+        bySerial.putIfAbsent(serialNumber, this);
+        updateStock();
+    }
+
+    // Called by CatalogImport once the imported units are linked to their products and stores
+    static void registerImported(List<Unit> units) {
+        extent.addAll(units);
+        for (Unit u : units) {
+            bySerial.put(u.serialNumber, u);
+            u.updateStock();
+        }
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Unit> restored) {
+        extent.replaceWith(restored);
+        rebuildIndex();
+        rebuildStock();
+    }
+
+    // Files written before serial numbers were unique may repeat one; the first unit keeps it
+    private static void rebuildIndex() {
+        bySerial.clear();
+        for (Unit u : extent) bySerial.putIfAbsent(u.serialNumber, u);
     }
 
     // For testing purposes only - clears extent
-    public static void clearExtent() { extent.clear(); }
+    public static void clearExtent() {
+        extent.clear();
+        bySerial.clear();
+    }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Unit && id == ((Unit) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Unit)) return false;
         Unit u = (Unit) o;
         return manufacturingDate.isEqual(u.manufacturingDate) && 
                serialNumber.equals(u.serialNumber) && 
-               product.equals(u.product);
+               getProduct().deepEquals(u.getProduct());
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(manufacturingDate, serialNumber, product);
+    public int deepHashCode() {
+        return Objects.hash(manufacturingDate, serialNumber, getProduct().deepHashCode());
     }
 
     @Override
     public String toString() {
         return String.format("Unit(SN:%s, MfgDate:%s, Product:%s, Purchased:%s)", 
-            serialNumber, manufacturingDate, product.getName(), isPurchased());
+            serialNumber, manufacturingDate, getProduct().getName(), isPurchased());
     }
 }
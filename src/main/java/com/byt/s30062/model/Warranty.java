@@ -1,21 +1,37 @@
 package com.byt.s30062.model;
 
+import com.byt.s30062.util.EntityIds;
+import com.byt.s30062.util.Extent;
 import com.byt.s30062.util.ExtentManager;
 
 import java.io.*;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 public class Warranty implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static List<Warranty> extent = new ArrayList<>();
+    private static final Extent<Warranty> extent = new Extent<>(Warranty::getId);
     private static final String EXTENT_FILE = "warranty_extent.ser";
+    // Warranties with an end date by that date, guarded like the extent. Dummy warranties are
+    // left out until setEndDate, so expiry queries never look at cart items.
+    private static final TreeMap<LocalDate, Extent<Warranty>> byEndDate = new TreeMap<>();
 
-    final Purchase purchase;
-    final Unit unit;
+    // Surrogate id, see EntityIds; the snapshot codecs restore it
+    long id = EntityIds.next();
+    // Set while a MappedSnapshot has not linked this object's references yet, see resolveLinks
+    transient volatile MappedSnapshot.PendingLinks pendingLinks;
+
+    Purchase purchase;
+    Unit unit;
     private LocalDate endDate;
     private static int minimumPeriod = 1;
 
@@ -27,11 +43,7 @@ public class Warranty implements Serializable {
         this.purchase = purchase;
         this.unit = unit;
         this.endDate = null; // dummy warranty, endDate set later via setDateTo()
-        extent.add(this);
-        
-        // Establish bidirectional links with Purchase and Unit
-        purchase.linkWarranty(this);
-        unit.linkWarranty(this);
+        registerNew();
     }
 
     // Constructor for warranties with specified endDate (after purchase finalization)
@@ -53,16 +65,64 @@ public class Warranty implements Serializable {
         this.purchase = purchase;
         this.unit = unit;
         this.endDate = endDate;
-        extent.add(this);
-        
-        // Establish bidirectional links with Purchase and Unit
-        purchase.linkWarranty(this);
+        registerNew();
+    }
+
+    // Registers and logs a new warranty as one mutation, see SystemSnapshot.mutations
+    private void registerNew() {
+        Lock step = SystemSnapshot.mutation();
+        try {
+            register();
+            MutationJournal.recordCreated(this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Establish bidirectional links with Unit and Purchase. The unit is claimed first, so a cart
+    // losing a unit to another purchase is left unchanged; carts may be filled from many threads.
+    private void register() {
         unit.linkWarranty(this);
+        synchronized (extent) {
+            extent.add(this);
+            index(this);
+        }
+        purchase.linkWarranty(this);
+    }
+
+    // Callers hold the extent lock
+    private static void index(Warranty w) {
+        if (w.endDate != null) byEndDate.computeIfAbsent(w.endDate, d -> new Extent<>()).add(w);
+    }
+
+    private static void unindex(Warranty w) {
+        if (w.endDate == null) return;
+        Extent<Warranty> sameDay = byEndDate.get(w.endDate);
+        if (sameDay != null && sameDay.remove(w) && sameDay.isEmpty()) byEndDate.remove(w.endDate);
+    }
+
+    private static void reindex() {
+        synchronized (extent) {
+            byEndDate.clear();
+            for (Warranty w : extent) index(w);
+        }
+    }
+
+    // Used by snapshot codecs, see Restoration
+    Warranty(Restoration restoration, LocalDate endDate) {
+        this.endDate = endDate;
     }
 
     // derived
     public boolean isValid() {
-        return LocalDate.now().isEqual(getStartDate()) || (LocalDate.now().isAfter(getStartDate()) && LocalDate.now().isBefore(endDate));
+        return isValidOn(LocalDate.now());
+    }
+
+    // Valid from the purchase day up to, not including, the end date
+    public boolean isValidOn(LocalDate day) {
+        if (day == null) throw new IllegalArgumentException("day cannot be null");
+        LocalDate start = getStartDate();
+        return day.isEqual(start) || (day.isAfter(start) && day.isBefore(endDate));
     }
 
     // Set endDate on a dummy warranty (endDate was null)
@@ -86,7 +146,17 @@ public class Warranty implements Serializable {
         }
         if (yearsBetween > 10) throw new IllegalArgumentException("warranty period cannot exceed 10 years");
         
-        this.endDate = endDate;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            synchronized (extent) {
+                this.endDate = endDate;
+                if (extent.contains(this)) index(this);
+            }
+            unit.coverageEndSet(this);
+            MutationJournal.record(MutationJournal.Op.SET_END_DATE, this, endDate);
+        } finally {
+            step.unlock();
+        }
     }
 
     public static int getMinimumPeriod() {
@@ -94,7 +164,13 @@ public class Warranty implements Serializable {
     }
 
     public static void setMinimumPeriod(int minimumPeriod) {
-        Warranty.minimumPeriod = minimumPeriod;
+        Lock step = SystemSnapshot.mutation();
+        try {
+            Warranty.minimumPeriod = minimumPeriod;
+            MutationJournal.record(MutationJournal.Op.SET_MINIMUM_PERIOD, null, minimumPeriod);
+        } finally {
+            step.unlock();
+        }
     }
 
     // prolong warranty
@@ -114,41 +190,165 @@ public class Warranty implements Serializable {
         new Warranty(this.purchase, this.unit, newEndDate);
     }
 
-    public Purchase getPurchase() { return purchase; }
-    public Unit getUnit() { return unit; }
-    public LocalDate getStartDate() { return purchase.getPurchaseDate().toLocalDate(); }
+    // Prolongs the coverage of many units at once. Every warranty given must be valid today; its
+    // unit's coverage is extended by the period from the unit's coverage end, so a unit listed
+    // through several warranties of its chain gets one new warranty rather than one per entry.
+    // All warranties are checked before any is created. Returns the new warranties in the order
+    // of their units' first appearance.
+    public static List<Warranty> prolongAll(Collection<Warranty> warranties, Period period) {
+        if (warranties == null) throw new IllegalArgumentException("warranties cannot be null");
+        if (period == null) throw new IllegalArgumentException("period cannot be null");
+        if (period.isNegative()) throw new IllegalArgumentException("period cannot be negative");
+        if (period.isZero()) throw new IllegalArgumentException("period cannot be zero");
+        if (period.getYears() < minimumPeriod) {
+            throw new IllegalArgumentException("prolongation period must be at least " + minimumPeriod + " year(s)");
+        }
+
+        LocalDate today = LocalDate.now();
+        Map<Unit, Warranty> byUnit = new IdentityHashMap<>();
+        List<Unit> units = new ArrayList<>();
+        List<LocalDate> newEndDates = new ArrayList<>();
+        for (Warranty w : warranties) {
+            if (w == null) throw new IllegalArgumentException("warranties cannot contain null");
+            if (w.endDate == null || !w.isValidOn(today)) {
+                throw new IllegalArgumentException("only valid warranty can be prolonged: unit " + w.unit.getSerialNumber());
+            }
+            if (byUnit.putIfAbsent(w.unit, w) != null) continue;
+            LocalDate newEndDate = w.unit.getCoverageEnd().plus(period);
+            if (Period.between(w.getStartDate(), newEndDate).getYears() > 10) {
+                throw new IllegalArgumentException("total warranty period cannot exceed 10 years: unit " + w.unit.getSerialNumber());
+            }
+            units.add(w.unit);
+            newEndDates.add(newEndDate);
+        }
+
+        List<Warranty> created = new ArrayList<>(units.size());
+        for (int i = 0; i < units.size(); i++) {
+            Warranty w = byUnit.get(units.get(i));
+            created.add(new Warranty(w.purchase, w.unit, newEndDates.get(i)));
+        }
+        return created;
+    }
+
+    public Purchase getPurchase() { resolveLinks(); return purchase; }
+    public Unit getUnit() { resolveLinks(); return unit; }
+    public LocalDate getStartDate() { return getPurchase().getPurchaseDate().toLocalDate(); }
     public LocalDate getEndDate() { return endDate; }
 
     // Delete this warranty and unlink from purchase and unit
     public void delete() {
-        purchase.unlinkWarranty(this);
-        unit.unlinkWarranty(this);
-        extent.remove(this);
+        Lock step = SystemSnapshot.mutation();
+        try {
+            purchase.unlinkWarranty(this);
+            unit.unlinkWarranty(this);
+            synchronized (extent) {
+                if (extent.remove(this)) unindex(this);
+            }
+            MutationJournal.record(MutationJournal.Op.DELETE, this);
+        } finally {
+            step.unlock();
+        }
+    }
+
+    // Warranties ending between from and to, both inclusive, ordered by end date and then by
+    // creation. Only the matching dates of the index are visited.
+    public static List<Warranty> expiringBetween(LocalDate from, LocalDate to) {
+        if (from == null || to == null) throw new IllegalArgumentException("dates cannot be null");
+        if (to.isBefore(from)) throw new IllegalArgumentException("to cannot be before from");
+        List<Warranty> result = new ArrayList<>();
+        synchronized (extent) {
+            for (Extent<Warranty> sameDay : byEndDate.subMap(from, true, to, true).values()) {
+                result.addAll(sameDay.view());
+            }
+        }
+        return result;
+    }
+
+    // Warranties ending on or after from, in end date order. The stream is lazy: each end date is
+    // looked up when the consumer reaches it, so a feed stopped early with limit() or takeWhile()
+    // costs only what it returned, and warranties added later for dates not yet reached show up.
+    public static Stream<Warranty> expiryFeed(LocalDate from) {
+        if (from == null) throw new IllegalArgumentException("from cannot be null");
+        return Stream.iterate(nextEndDate(from, true), Objects::nonNull, d -> nextEndDate(d, false))
+                .flatMap(d -> expiringBetween(d, d).stream());
+    }
+
+    private static LocalDate nextEndDate(LocalDate day, boolean inclusive) {
+        synchronized (extent) {
+            return inclusive ? byEndDate.ceilingKey(day) : byEndDate.higherKey(day);
+        }
+    }
+
+
+    // Links the references of an object read by MappedSnapshot; called before they are read
+    void resolveLinks() { MappedSnapshot.resolve(pendingLinks); }
+
+    public long getId() { return id; }
+
+    // The object with this id in the extent, or null
+    public static Warranty findById(long id) {
+        synchronized (extent) {
+            return extent.byId(id);
+        }
     }
 
+    public static List<Warranty> getExtent() {
+        synchronized (extent) {
+            return extent.toList();
+        }
+    }
 
-    public static List<Warranty> getExtent() { return new ArrayList<>(extent); }
+    // Checkouts register and delete warranties from many threads, so this is a copy taken under
+    // the extent lock as well
+    public static List<Warranty> getExtentView() { return getExtent(); }
 
     public static void saveExtent() throws IOException {
-        ExtentManager.saveExtent(extent, EXTENT_FILE);
+        ExtentManager.saveExtent(getExtent(), EXTENT_FILE);
     }
 
     public static void loadExtent() throws IOException, ClassNotFoundException {
-        extent = ExtentManager.loadExtent(EXTENT_FILE);
+        replaceExtent(ExtentManager.<Warranty>loadExtent(EXTENT_FILE));
+    }
+
+    // Used by MutationJournal replay: repeats the registration done at the end of the public
+    // constructor for an object recreated by its codec
+    void registerRestored() {
+        register();
+    }
+
+    // Called by SystemSnapshot to install an extent restored from a shared snapshot
+    static void replaceExtent(List<Warranty> restored) {
+        synchronized (extent) {
+            extent.replaceWith(restored);
+            reindex();
+        }
+        Unit.rebuildStock();
     }
     // For testing purposes only - clears extent
-    public static void clearExtent() { extent.clear(); }
+    public static void clearExtent() {
+        synchronized (extent) {
+            extent.clear();
+            byEndDate.clear();
+        }
+    }
 
     @Override
     public boolean equals(Object o) {
+        return o instanceof Warranty && id == ((Warranty) o).id;
+    }
+
+    @Override
+    public int hashCode() { return Long.hashCode(id); }
+
+    // Compares attributes instead of ids, e.g. to find the same data entered twice
+    public boolean deepEquals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Warranty)) return false;
         Warranty w = (Warranty) o;
-        return purchase == w.purchase && unit == w.unit;
+        return getPurchase() == w.getPurchase() && getUnit() == w.getUnit();
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(purchase)+Objects.hash(unit);
+    public int deepHashCode() {
+        return Objects.hash(getPurchase())+Objects.hash(getUnit());
     }
 }
@@ -0,0 +1,99 @@
+package com.byt.s30062.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Counterpart of BinaryWriter; every read method mirrors the write method of the same name.
+public class BinaryReader implements Closeable {
+    private final DataInputStream in;
+    // Strings in the order they were first read, null when the input has no dictionary
+    private final List<String> dictionary;
+
+    public BinaryReader(InputStream in) {
+        this(in, false);
+    }
+
+    BinaryReader(InputStream in, boolean dictionary) {
+        this.in = new DataInputStream(in);
+        this.dictionary = dictionary ? new ArrayList<>() : null;
+    }
+
+    // Reads from the buffer's position onwards, e.g. a record inside a mapped snapshot file
+    public BinaryReader(ByteBuffer buffer) {
+        this(new ByteBufferInputStream(buffer));
+    }
+
+    public int readByte() throws IOException { return in.readByte(); }
+
+    public boolean readBoolean() throws IOException { return in.readBoolean(); }
+
+    public int readInt() throws IOException { return in.readInt(); }
+
+    public long readLong() throws IOException { return in.readLong(); }
+
+    public double readDouble() throws IOException { return in.readDouble(); }
+
+    // Repeated strings of a dictionary input come back as the same instance
+    public String readString() throws IOException {
+        int length = in.readInt();
+        if (length == -1) return null;
+        if (length < -1) {
+            int index = -2 - length;
+            if (dictionary == null || index >= dictionary.size()) throw new IOException("invalid string reference: " + index);
+            return dictionary.get(index);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        if (dictionary != null) dictionary.add(value);
+        return value;
+    }
+
+    public LocalDate readDate() throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == BinaryWriter.nullDate() ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    public LocalDateTime readDateTime() throws IOException {
+        long epochDay = in.readLong();
+        if (epochDay == BinaryWriter.nullDate()) return null;
+        return LocalDateTime.of(LocalDate.ofEpochDay(epochDay), LocalTime.ofNanoOfDay(in.readLong()));
+    }
+
+    public <E extends Enum<E>> E readEnum(Class<E> type) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0) return null;
+        E[] constants = type.getEnumConstants();
+        if (ordinal >= constants.length) throw new IOException("invalid " + type.getSimpleName() + " ordinal: " + ordinal);
+        return constants[ordinal];
+    }
+
+    @Override
+    public void close() throws IOException { in.close(); }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) { this.buffer = buffer; }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.byt.s30062.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+// Thin wrapper over DataOutputStream with encodings for the value types used by the model.
+// Nullable values are written with a sentinel so that every field has a fixed shape.
+public class BinaryWriter implements Closeable {
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    // Index of every string written so far, null when strings are written inline
+    private final Map<String, Integer> dictionary;
+
+    public BinaryWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    // With a dictionary, a string that was written before is replaced by its index, see writeString
+    BinaryWriter(OutputStream out, boolean dictionary) {
+        this.counter = new CountingOutputStream(out);
+        this.out = new DataOutputStream(counter);
+        this.dictionary = dictionary ? new HashMap<>() : null;
+    }
+
+    // Number of bytes written so far, used to build offset tables. For compressed output this
+    // counts bytes before compression.
+    public long position() { return counter.count; }
+
+    public void writeByte(int value) throws IOException { out.writeByte(value); }
+
+    public void writeBoolean(boolean value) throws IOException { out.writeBoolean(value); }
+
+    public void writeInt(int value) throws IOException { out.writeInt(value); }
+
+    public void writeLong(long value) throws IOException { out.writeLong(value); }
+
+    public void writeDouble(double value) throws IOException { out.writeDouble(value); }
+
+    // Length-prefixed UTF-8, -1 length for null (writeUTF is limited to 64KB). With a
+    // dictionary, the n-th distinct string is written this way the first time and as -2 - n
+    // afterwards.
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (dictionary != null) {
+            Integer index = dictionary.putIfAbsent(value, dictionary.size());
+            if (index != null) {
+                out.writeInt(-2 - index);
+                return;
+            }
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public void writeDate(LocalDate value) throws IOException {
+        out.writeLong(value == null ? NULL_DATE : value.toEpochDay());
+    }
+
+    public void writeDateTime(LocalDateTime value) throws IOException {
+        if (value == null) {
+            out.writeLong(NULL_DATE);
+            return;
+        }
+        out.writeLong(value.toLocalDate().toEpochDay());
+        out.writeLong(value.toLocalTime().toNanoOfDay());
+    }
+
+    // Ordinal of an enum constant, -1 for null
+    public void writeEnum(Enum<?> value) throws IOException {
+        out.writeByte(value == null ? -1 : value.ordinal());
+    }
+
+    public void flush() throws IOException { out.flush(); }
+
+    @Override
+    public void close() throws IOException { out.close(); }
+
+    static long nullDate() { return NULL_DATE; }
+
+    // DataOutputStream.size() stops at Integer.MAX_VALUE, so positions are counted here
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) { super(out); }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.byt.s30062.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Surrogate ids of model objects. One sequence serves every class, so an id names a single
+// object whatever its type; ids only grow and are never reused within a run.
+public final class EntityIds {
+    private static final AtomicLong last = new AtomicLong();
+
+    private EntityIds() {}
+
+    public static long next() { return last.incrementAndGet(); }
+
+    // Called for objects coming back with an id, e.g. from a snapshot or journal, so that ids
+    // handed out later do not repeat theirs
+    public static void advancePast(long id) {
+        if (id > last.get()) last.accumulateAndGet(id, Math::max);
+    }
+}
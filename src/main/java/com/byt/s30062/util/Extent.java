@@ -0,0 +1,186 @@
+package com.byt.s30062.util;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+// Extent of a model class: objects in insertion order, added and removed by identity in O(1).
+// Removal leaves a hole in the backing array that is closed by the next compaction, which runs
+// when holes outnumber the objects or when the view is accessed by index, so every operation is
+// amortized constant time. Identity rather than equals() is used: the extent holds distinct
+// objects, and equals() may be overridden by the element class.
+// An extent created with an id function also indexes its objects by their surrogate id.
+public final class Extent<T> implements Iterable<T> {
+    private Object[] elements = new Object[16];
+    private int end;  // elements[0, end) holds objects and holes (null)
+    private int size;
+    private int modCount;     // adds and removes, checked by iterators
+    private int compactions;  // moves objects without changing the extent
+    private final IdentityHashMap<T, Integer> positions = new IdentityHashMap<>();
+    private final List<T> view = new View();
+    private final ToLongFunction<? super T> idOf;  // null when not indexed by id
+    private final Map<Long, T> idIndex;
+
+    public Extent() {
+        this.idOf = null;
+        this.idIndex = null;
+    }
+
+    public Extent(ToLongFunction<? super T> idOf) {
+        if (idOf == null) throw new IllegalArgumentException("idOf cannot be null");
+        this.idOf = idOf;
+        this.idIndex = new HashMap<>();
+    }
+
+    // Adds the object at the end; returns false if it is already in the extent
+    public boolean add(T object) {
+        if (object == null) throw new IllegalArgumentException("extent cannot contain null");
+        if (positions.containsKey(object)) return false;
+        if (end == elements.length) {
+            if (size < end) compact();
+            if (end == elements.length) elements = Arrays.copyOf(elements, elements.length * 2);
+        }
+        if (idOf != null) {
+            long id = idOf.applyAsLong(object);
+            idIndex.put(id, object);
+            EntityIds.advancePast(id);
+        }
+        positions.put(object, end);
+        elements[end++] = object;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public void addAll(Collection<? extends T> objects) {
+        for (T o : objects) add(o);
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object object) {
+        Integer position = positions.remove(object);
+        if (position == null) return false;
+        if (idOf != null) idIndex.remove(idOf.applyAsLong((T) elements[position]), elements[position]);
+        elements[position] = null;
+        size--;
+        modCount++;
+        if (size == 0) {
+            end = 0;
+        } else if (end - size > size) {
+            compact();
+        }
+        return true;
+    }
+
+    public boolean contains(Object object) {
+        return positions.containsKey(object);
+    }
+
+    // The object with the given id, or null; only for extents created with an id function
+    public T byId(long id) {
+        if (idOf == null) throw new IllegalStateException("extent is not indexed by id");
+        return idIndex.get(id);
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        Arrays.fill(elements, 0, end, null);
+        positions.clear();
+        if (idIndex != null) idIndex.clear();
+        end = 0;
+        size = 0;
+        modCount++;
+    }
+
+    // Replaces the contents, e.g. with an extent loaded from a file
+    public void replaceWith(Collection<? extends T> objects) {
+        clear();
+        addAll(objects);
+    }
+
+    // Copy in insertion order
+    public List<T> toList() {
+        List<T> copy = new ArrayList<>(size);
+        for (T o : this) copy.add(o);
+        return copy;
+    }
+
+    // Read-only live view in insertion order; costs nothing to obtain
+    public List<T> view() { return view; }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next = skipHoles(0);
+            private T last;
+            private final int expectedModCount = modCount;
+            private int expectedCompactions = compactions;
+
+            public boolean hasNext() {
+                relocate();
+                return next < end;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                relocate();
+                if (next >= end) throw new NoSuchElementException();
+                last = (T) elements[next];
+                next = skipHoles(next + 1);
+                return last;
+            }
+
+            // A compaction (e.g. by view().get) moved the objects; continue after the last one
+            private void relocate() {
+                if (expectedCompactions == compactions || modCount != expectedModCount) return;
+                next = last == null ? 0 : skipHoles(positions.get(last) + 1);
+                expectedCompactions = compactions;
+            }
+        };
+    }
+
+    private int skipHoles(int from) {
+        while (from < end && elements[from] == null) from++;
+        return from;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compact() {
+        int to = 0;
+        for (int from = 0; from < end; from++) {
+            Object o = elements[from];
+            if (o == null) continue;
+            if (from != to) {
+                elements[to] = o;
+                positions.put((T) o, to);
+            }
+            to++;
+        }
+        Arrays.fill(elements, to, end, null);
+        end = to;
+        compactions++;
+    }
+
+    private final class View extends AbstractList<T> implements RandomAccess {
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + " out of bounds for extent of " + size);
+            if (end != size) compact();
+            return (T) elements[index];
+        }
+
+        @Override
+        public int size() { return size; }
+
+        @Override
+        public boolean contains(Object o) { return Extent.this.contains(o); }
+
+        // Skips holes instead of compacting; read-only as the rest of the view
+        @Override
+        public Iterator<T> iterator() { return Extent.this.iterator(); }
+    }
+}
@@ -2,18 +2,135 @@ package com.byt.s30062.util;
 
 import java.io.*;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class ExtentManager {
+    // Header of binary snapshot files: "BYTS" followed by the format version
+    public static final int BINARY_MAGIC = 0x42595453;
+    public static final int BINARY_VERSION = 4;
+    // Size of that header, i.e. the position of the first byte after it
+    public static final int BINARY_HEADER_SIZE = 8;
+    // Header of compressed snapshot files: "BYTZ" and the version, followed by the same body
+    // deflated, with repeated strings written once (see BinaryWriter.writeString)
+    public static final int COMPRESSED_MAGIC = 0x4259545A;
+
+    // First two bytes of ObjectOutputStream output
+    private static final int OBJECT_STREAM_MAGIC = 0xACED;
+    private static final int BUFFER_SIZE = 1 << 16;
+
     public static <T> void saveExtent(List<T> extent, String filePath) throws IOException {
         try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filePath))) {
             out.writeObject(extent);
         }
     }
 
+    // Same as saveExtent, deflated at the given level (Deflater.DEFAULT_COMPRESSION or 0-9).
+    // Serialization already writes repeated strings once per stream, so this only adds compression.
+    public static <T> void saveExtent(List<T> extent, String filePath, int compressionLevel) throws IOException {
+        checkCompressionLevel(compressionLevel);
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new LevelDeflaterOutputStream(new FileOutputStream(filePath), compressionLevel))) {
+            out.writeObject(extent);
+        }
+    }
+
+    // Reads files written by either saveExtent
     @SuppressWarnings("unchecked")
     public static <T> List<T> loadExtent(String filePath) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (List<T>) in.readObject();
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(filePath), BUFFER_SIZE);
+        try {
+            stream.mark(2);
+            int magic = (stream.read() << 8) | stream.read();
+            stream.reset();
+            InputStream body = magic == OBJECT_STREAM_MAGIC ? stream : new InflaterInputStream(stream);
+            try (ObjectInputStream in = new ObjectInputStream(body)) {
+                return (List<T>) in.readObject();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    // Opens a binary snapshot file for writing and writes its header
+    public static BinaryWriter openBinaryOutput(String filePath) throws IOException {
+        return openBinaryOutput(new FileOutputStream(filePath));
+    }
+
+    public static BinaryWriter openBinaryOutput(OutputStream stream) throws IOException {
+        BinaryWriter out = new BinaryWriter(new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        return out;
+    }
+
+    // Opens a compressed snapshot file for writing; compressionLevel is Deflater.DEFAULT_COMPRESSION
+    // or 0 (fastest, stored) to 9 (smallest). Compressed files are read by openBinaryInput like
+    // plain ones but cannot be mapped, see MappedSnapshot.
+    public static BinaryWriter openCompressedOutput(String filePath, int compressionLevel) throws IOException {
+        checkCompressionLevel(compressionLevel);
+        return openCompressedOutput(new FileOutputStream(filePath), compressionLevel);
+    }
+
+    public static BinaryWriter openCompressedOutput(OutputStream stream, int compressionLevel) throws IOException {
+        checkCompressionLevel(compressionLevel);
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(COMPRESSED_MAGIC);
+        header.writeInt(BINARY_VERSION);
+        return new BinaryWriter(new BufferedOutputStream(new LevelDeflaterOutputStream(stream, compressionLevel), BUFFER_SIZE), true);
+    }
+
+    // Opens a plain or compressed snapshot file for reading and checks its header
+    public static BinaryReader openBinaryInput(String filePath) throws IOException {
+        return openBinaryInput(new FileInputStream(filePath));
+    }
+
+    public static BinaryReader openBinaryInput(InputStream stream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(stream, BUFFER_SIZE);
+        try {
+            DataInputStream header = new DataInputStream(buffered);
+            int magic = header.readInt();
+            if (magic != BINARY_MAGIC && magic != COMPRESSED_MAGIC) throw new IOException("not a binary snapshot");
+            int version = header.readInt();
+            if (version != BINARY_VERSION) throw new IOException("unsupported snapshot version: " + version);
+            if (magic == BINARY_MAGIC) return new BinaryReader(buffered);
+            return new BinaryReader(new BufferedInputStream(new InflaterInputStream(buffered), BUFFER_SIZE), true);
+        } catch (IOException e) {
+            buffered.close();
+            throw e;
+        }
+    }
+
+    // Whether the file was written by openCompressedOutput
+    public static boolean isCompressed(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filePath))) {
+            return in.readInt() == COMPRESSED_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    // Rejects levels Deflater does not accept, for callers that compress later
+    public static void checkCompressionLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9 or Deflater.DEFAULT_COMPRESSION");
+        }
+    }
+
+    // DeflaterOutputStream does not release a Deflater it did not create, so this one does
+    private static final class LevelDeflaterOutputStream extends DeflaterOutputStream {
+        LevelDeflaterOutputStream(OutputStream out, int level) {
+            super(out, new Deflater(level), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
         }
     }
 }
@@ -0,0 +1,98 @@
+package com.byt.s30062.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+// Keeps the values written to it instead of encoding them, so that state copied quickly (e.g.
+// while writers are held up) can be encoded later by another thread. replay() hands a range of
+// values to a real writer, which then produces the same bytes as if they had been written to it
+// directly, dictionary strings included. Only immutable values are kept, so the recording does
+// not change with the objects it was taken from.
+public final class RecordingWriter extends BinaryWriter {
+    private static final byte BYTE = 0, BOOLEAN = 1, INT = 2, LONG = 3, DOUBLE = 4,
+            STRING = 5, DATE = 6, DATE_TIME = 7, ENUM = 8;
+
+    // Value i is kinds[i] with its number or its object
+    private byte[] kinds = new byte[256];
+    private long[] numbers = new long[256];
+    private Object[] values = new Object[256];
+    private int size;
+
+    public RecordingWriter() {
+        super(OutputStream.nullOutputStream());
+    }
+
+    // Number of values written so far
+    public int size() { return size; }
+
+    // Values have no encoded size until they are replayed
+    @Override
+    public long position() { throw new UnsupportedOperationException("a recording has no byte positions"); }
+
+    @Override
+    public void writeByte(int value) { add(BYTE, value, null); }
+
+    @Override
+    public void writeBoolean(boolean value) { add(BOOLEAN, value ? 1 : 0, null); }
+
+    @Override
+    public void writeInt(int value) { add(INT, value, null); }
+
+    @Override
+    public void writeLong(long value) { add(LONG, value, null); }
+
+    @Override
+    public void writeDouble(double value) { add(DOUBLE, Double.doubleToRawLongBits(value), null); }
+
+    @Override
+    public void writeString(String value) { add(STRING, 0, value); }
+
+    @Override
+    public void writeDate(LocalDate value) { add(DATE, 0, value); }
+
+    @Override
+    public void writeDateTime(LocalDateTime value) { add(DATE_TIME, 0, value); }
+
+    @Override
+    public void writeEnum(Enum<?> value) { add(ENUM, 0, value); }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    // Writes values from (inclusive) to to (exclusive) to out
+    public void replay(int from, int to, BinaryWriter out) throws IOException {
+        if (from < 0 || to > size || from > to) throw new IndexOutOfBoundsException("range " + from + ".." + to + " of " + size);
+        for (int i = from; i < to; i++) {
+            switch (kinds[i]) {
+                case BYTE: out.writeByte((int) numbers[i]); break;
+                case BOOLEAN: out.writeBoolean(numbers[i] != 0); break;
+                case INT: out.writeInt((int) numbers[i]); break;
+                case LONG: out.writeLong(numbers[i]); break;
+                case DOUBLE: out.writeDouble(Double.longBitsToDouble(numbers[i])); break;
+                case STRING: out.writeString((String) values[i]); break;
+                case DATE: out.writeDate((LocalDate) values[i]); break;
+                case DATE_TIME: out.writeDateTime((LocalDateTime) values[i]); break;
+                case ENUM: out.writeEnum((Enum<?>) values[i]); break;
+                default: throw new IllegalStateException("unknown value kind: " + kinds[i]);
+            }
+        }
+    }
+
+    private void add(byte kind, long number, Object value) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            numbers = Arrays.copyOf(numbers, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        kinds[size] = kind;
+        numbers[size] = number;
+        values[size] = value;
+        size++;
+    }
+}
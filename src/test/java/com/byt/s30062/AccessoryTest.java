@@ -125,10 +125,12 @@ class AccessoryTest {
         Accessory ac3 = new Accessory("iPhone Case", "Blue", 29.99, AccessoryType.PhoneCase);
         
         // Different types - not equal
-        assertNotEquals(ac1, ac2);
+        assertFalse(ac1.deepEquals(ac2));
         
-        // Same name, color (implicit in Product name comparison), and type - equal
-        assertEquals(ac1, ac3);
+        // Same name, color (implicit in Product name comparison), and type - equal in value,
+        // but distinct objects with their own ids
+        assertTrue(ac1.deepEquals(ac3));
+        assertNotEquals(ac1, ac3);
     }
 
     @Test
@@ -137,7 +139,7 @@ class AccessoryTest {
         Accessory ac1 = new Accessory("iPhone Case", "Blue", 29.99, AccessoryType.PhoneCase);
         Accessory ac2 = new Accessory("iPhone Case", "Blue", 29.99, AccessoryType.PhoneCase);
         
-        assertEquals(ac1.hashCode(), ac2.hashCode());
+        assertEquals(ac1.deepHashCode(), ac2.deepHashCode());
     }
 
     @Test
@@ -0,0 +1,143 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AvailableStockTest {
+
+    private static final String FILE = "available_stock_test.bin";
+
+    private Store north;
+    private Store south;
+    private Product iphone;
+    private Product airpods;
+    private Customer customer;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        north = new Store(new Address("1 North St", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        south = new Store(new Address("2 South St", "NYC", "10002", "USA"), LocalDate.of(2020, 1, 1));
+        iphone = new Product("iPhone", "Black", 999.0);
+        airpods = new Product("AirPods", "White", 199.0);
+        customer = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+        new File(FILE).delete();
+    }
+
+    private Unit unit(String serial, Product product, Store store) {
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), serial, product);
+        u.setStore(store);
+        return u;
+    }
+
+    @Test
+    @DisplayName("Should count unsold units per store and product")
+    void testCounts() {
+        Unit u1 = unit("SN1", iphone, north);
+        Unit u2 = unit("SN2", iphone, north);
+        unit("SN3", iphone, south);
+        unit("SN4", airpods, north);
+        new Unit(LocalDate.of(2024, 1, 15), "SN5", iphone);
+
+        assertEquals(2, north.getAvailableCount(iphone));
+        assertEquals(1, south.getAvailableCount(iphone));
+        assertEquals(1, north.getAvailableCount(airpods));
+        assertEquals(0, south.getAvailableCount(airpods));
+        assertEquals(3, iphone.getAvailableCount());
+
+        Purchase purchase = new Purchase(customer);
+        iphone.addToCart(purchase, u1);
+        assertEquals(1, north.getAvailableCount(iphone));
+        iphone.removeFromCart(purchase, u1);
+        assertEquals(2, north.getAvailableCount(iphone));
+
+        u2.setStore(south);
+        assertEquals(1, north.getAvailableCount(iphone));
+        assertEquals(2, south.getAvailableCount(iphone));
+        south.unlinkUnit(u2);
+        assertEquals(1, south.getAvailableCount(iphone));
+        u1.delete();
+        assertEquals(0, north.getAvailableCount(iphone));
+        assertEquals(1, iphone.getAvailableCount());
+        assertThrows(IllegalArgumentException.class, () -> north.getAvailableCount(null));
+    }
+
+    @Test
+    @DisplayName("Should recount stock after loading a snapshot")
+    void testCountsAfterLoad() throws IOException {
+        Unit u1 = unit("SN1", iphone, north);
+        unit("SN2", iphone, north);
+        Purchase purchase = new Purchase(customer);
+        iphone.addToCart(purchase, u1);
+        SystemSnapshot.save(FILE);
+
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+
+        Store loadedStore = Store.getExtent().get(0);
+        Product loadedProduct = Product.getExtent().get(0);
+        assertEquals(1, loadedStore.getAvailableCount(loadedProduct));
+        Unit loadedUnit = Unit.findBySerial("SN1");
+        loadedUnit.getWarranties().get(0).delete();
+        assertEquals(2, loadedStore.getAvailableCount(loadedProduct));
+    }
+
+    @Test
+    @DisplayName("Should keep counts exact while shoppers check out concurrently")
+    void testConcurrentCheckout() throws Exception {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) units.add(unit("SN" + i, iphone, i % 2 == 0 ? north : south));
+        List<Purchase> carts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) carts.add(new Purchase(customer));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> shoppers = new ArrayList<>();
+        try {
+            for (Purchase cart : carts) {
+                shoppers.add(executor.submit(() -> {
+                    for (int i = 0; i < units.size(); i += 3) {
+                        try {
+                            iphone.addToCart(cart, units.get(i));
+                        } catch (IllegalArgumentException e) {
+                            // taken by another cart
+                        }
+                        // Stock is read while others are checking out
+                        assertTrue(north.getAvailableCount(iphone) >= 0);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> shopper : shoppers) shopper.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long northLeft = 0, southLeft = 0;
+        for (Unit u : units) {
+            if (u.isPurchased()) continue;
+            if (u.getStore() == north) northLeft++;
+            else southLeft++;
+        }
+        assertEquals(1000 - 334, northLeft + southLeft);
+        assertEquals(northLeft, north.getAvailableCount(iphone));
+        assertEquals(southLeft, south.getAvailableCount(iphone));
+    }
+}
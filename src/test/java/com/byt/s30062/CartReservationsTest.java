@@ -0,0 +1,152 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import org.junit.jupiter.api.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartReservationsTest {
+
+    private static final Duration TTL = Duration.ofMinutes(15);
+
+    private ManualClock clock;
+    private CartReservations reservations;
+    private Product product;
+    private Customer customer;
+
+    // Clock moved by the test
+    private static final class ManualClock extends Clock {
+        private long millis = 1_700_000_000_000L;
+
+        void advance(Duration d) { millis += d.toMillis(); }
+
+        @Override public long millis() { return millis; }
+        @Override public Instant instant() { return Instant.ofEpochMilli(millis); }
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+    }
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        clock = new ManualClock();
+        reservations = new CartReservations(TTL, clock);
+        product = new Product("iPhone", "Black", 999.0);
+        customer = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+    }
+
+    @AfterEach
+    void cleanup() {
+        reservations.close();
+        SystemSnapshot.clearAll();
+    }
+
+    private Unit unit(String serial) {
+        return new Unit(LocalDate.of(2024, 1, 15), serial, product);
+    }
+
+    @Test
+    @DisplayName("Should release abandoned cart items once their time is up")
+    void testExpiry() {
+        Unit unit = unit("SN1");
+        Purchase abandoned = new Purchase(customer);
+        Warranty w = reservations.reserve(abandoned, unit);
+        assertSame(abandoned, unit.getPurchase());
+        assertEquals(clock.millis() + TTL.toMillis(), reservations.getExpiry(w));
+
+        clock.advance(TTL.minusSeconds(1));
+        assertEquals(0, reservations.sweep());
+        assertSame(abandoned, unit.getPurchase());
+
+        clock.advance(Duration.ofSeconds(1));
+        assertEquals(1, reservations.sweep());
+        assertFalse(unit.isPurchased());
+        assertTrue(abandoned.getWarranties().isEmpty());
+        assertFalse(Warranty.getExtent().contains(w));
+        assertEquals(0, reservations.size());
+
+        // The unit can go to another shopper
+        Purchase other = new Purchase(customer);
+        reservations.reserve(other, unit);
+        assertSame(other, unit.getPurchase());
+    }
+
+    @Test
+    @DisplayName("Should keep items of purchases finalized in time")
+    void testFinalizedKept() {
+        Unit unit = unit("SN1");
+        Purchase purchase = new Purchase(customer);
+        reservations.reserve(purchase, unit);
+        purchase.finalizePurchase();
+
+        clock.advance(TTL.plusMinutes(1));
+        assertEquals(0, reservations.sweep());
+        assertSame(purchase, unit.getPurchase());
+        assertEquals(0, reservations.size());
+        assertThrows(IllegalArgumentException.class, () -> reservations.reserve(purchase, unit));
+    }
+
+    @Test
+    @DisplayName("Should restart the time limit on renewal")
+    void testRenew() {
+        Purchase purchase = new Purchase(customer);
+        Unit first = unit("SN1");
+        Unit second = unit("SN2");
+        reservations.reserve(purchase, first);
+        clock.advance(Duration.ofMinutes(10));
+        reservations.reserve(purchase, second);
+
+        clock.advance(Duration.ofMinutes(10));
+        reservations.renew(purchase);
+        assertEquals(0, reservations.sweep());
+
+        clock.advance(Duration.ofMinutes(14));
+        assertEquals(0, reservations.sweep());
+        clock.advance(Duration.ofMinutes(1));
+        assertEquals(2, reservations.sweep());
+        assertTrue(purchase.getItems().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should release only what expired among many reservations")
+    void testManyReservations() {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Unit unit = unit("SN" + i);
+            reservations.reserve(new Purchase(customer), unit);
+            units.add(unit);
+            clock.advance(Duration.ofSeconds(1));
+        }
+
+        // Reserved a second apart, the first 1101 are at least 15 minutes old
+        assertEquals(1101, reservations.sweep());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i >= 1101, units.get(i).isPurchased());
+        }
+        assertEquals(899, reservations.size());
+
+        // A pause longer than the wheel still releases everything due
+        clock.advance(Duration.ofHours(2));
+        assertEquals(899, reservations.sweep());
+        assertEquals(0, reservations.size());
+        assertTrue(Warranty.getExtent().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should reject invalid arguments")
+    void testValidation() {
+        assertThrows(IllegalArgumentException.class, () -> new CartReservations(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> new CartReservations(null));
+        assertThrows(IllegalArgumentException.class, () -> reservations.reserve(null, unit("SN1")));
+        assertThrows(IllegalArgumentException.class, () -> reservations.reserve(new Purchase(customer), null));
+    }
+}
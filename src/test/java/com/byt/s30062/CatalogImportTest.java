@@ -0,0 +1,133 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogImportTest {
+
+    private Store store;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        store = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @Test
+    @DisplayName("Should create products and units from CSV and link them")
+    void testCsvImport() throws IOException {
+        Product existing = new Product("Galaxy", "Blue", 799.0);
+        new Unit(LocalDate.of(2024, 1, 1), "SN-B", existing).setStore(store);
+
+        String csv = "product,\"iPhone, 15\",Black,999.0\n"
+                + "unit,SN-C,2024-01-15,\"iPhone, 15\",0\n"
+                + "\n"
+                + "unit,SN-A,2024-01-16,Galaxy,0\n"
+                + "unit,SN-D,2024-01-17,Galaxy,\n";
+        List<Unit> units = CatalogImport.importCsv(new StringReader(csv), 2);
+
+        assertEquals(3, units.size());
+        assertEquals(2, Product.getExtent().size());
+        Product iphone = Product.getExtent().get(1);
+        assertEquals("iPhone, 15", iphone.getName());
+        assertEquals(999.0, iphone.getCurrentPrice());
+        assertEquals(List.of(units.get(0)), iphone.getUnits());
+        assertEquals(3, existing.getUnits().size());
+        assertSame(existing, units.get(1).getProduct());
+        assertNull(units.get(2).getStore());
+        assertEquals(4, Unit.getExtent().size());
+
+        List<String> serials = new ArrayList<>();
+        for (Unit u : store.getUnits()) serials.add(u.getSerialNumber());
+        assertEquals(List.of("SN-A", "SN-B", "SN-C"), serials);
+        assertSame(store, units.get(0).getStore());
+    }
+
+    @Test
+    @DisplayName("Should import the binary format")
+    void testBinaryImport() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CatalogImport.Writer out = new CatalogImport.Writer(bytes)) {
+            out.product("iPhone", null, 999.0);
+            for (int i = 0; i < 20_000; i++) {
+                out.unit("SN" + i, LocalDate.of(2024, 1, 15), "iPhone", i % 2 == 0 ? 0 : -1);
+            }
+        }
+        List<Unit> units = CatalogImport.importBinary(new ByteArrayInputStream(bytes.toByteArray()), 4);
+
+        assertEquals(20_000, units.size());
+        assertEquals("SN19999", units.get(19_999).getSerialNumber());
+        assertEquals(20_000, Product.getExtent().get(0).getUnits().size());
+        assertEquals(10_000, store.getUnits().size());
+        assertEquals("SN0", store.getUnits().get(0).getSerialNumber());
+        assertEquals("SN10", store.getUnits().get(1).getSerialNumber());
+    }
+
+    @Test
+    @DisplayName("Should reject the whole input when a row is invalid")
+    void testInvalidRowsRejected() {
+        new Unit(LocalDate.of(2024, 1, 1), "SN1", new Product("Galaxy", "Blue", 799.0));
+        String future = LocalDate.now().plusDays(1).toString();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("unit,SN2,2024-01-15,Galaxy,\nunit,SN3," + future + ",Galaxy,\n"), 2));
+        assertTrue(e.getMessage().startsWith("row 2:"));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("unit,SN1,2024-01-15,Galaxy,\n"), 2));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("unit,SN2,2024-01-15,Galaxy,\nunit, SN2 ,2024-01-15,Galaxy,\n"), 2));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("unit,SN2,2024-01-15,iPhone,\n"), 2));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("unit,SN2,2024-01-15,Galaxy,5\n"), 2));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("product,iPhone,Black,-1\n"), 2));
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("product,iPhone,Black,1\n"), 0));
+        // Prices are kept in cents, a sub-cent price after valid rows must not leave them behind
+        e = assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("product,iPhone,Black,999.0\nunit,SN2,2024-01-15,iPhone,0\n"
+                + "product,Pixel,White,0.001\nunit,SN3,2024-01-15,Pixel,\n"), 2));
+        assertEquals("row 3: initial price must be at least 0.01", e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+            () -> CatalogImport.importCsv(new StringReader("product,Pixel,White,1e300\n"), 2));
+
+        assertEquals(1, Unit.getExtent().size());
+        assertEquals(1, Product.getExtent().size());
+        assertTrue(store.getUnits().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should ingest a million units in seconds")
+    void testMillionUnits() throws IOException {
+        StringBuilder csv = new StringBuilder("product,iPhone,Black,999.0\nproduct,Galaxy,Blue,799.0\n");
+        for (int i = 0; i < 1_000_000; i++) {
+            csv.append("unit,SN").append(i).append(",2024-01-15,").append(i % 2 == 0 ? "iPhone" : "Galaxy")
+               .append(',').append(i % 10 == 0 ? "0" : "").append('\n');
+        }
+
+        long start = System.nanoTime();
+        List<Unit> units = CatalogImport.importCsv(new StringReader(csv.toString()), 4);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(1_000_000, units.size());
+        assertEquals(100_000, store.getUnits().size());
+        assertTrue(millis < 20_000, "import took " + millis + " ms");
+    }
+}
@@ -0,0 +1,128 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckoutConcurrencyTest {
+
+    private static final int SHOPPERS = 16;
+    private static final int UNITS = 500;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @Test
+    @DisplayName("Should sell every unit exactly once when shoppers race for the same units")
+    void testNoOversells() throws Exception {
+        Product product = new Product("iPhone", "Black", 999.0);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < UNITS; i++) units.add(new Unit(LocalDate.of(2024, 1, 15), "SN" + i, product));
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < SHOPPERS; i++) {
+            customers.add(new Customer("Shopper", "No" + i, LocalDate.of(1990, 1, 1), LocalDate.now()));
+        }
+        Customer shared = new Customer("Shared", "Account", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Purchase[] carts = new Purchase[SHOPPERS];
+
+        ExecutorService executor = Executors.newFixedThreadPool(SHOPPERS);
+        CyclicBarrier start = new CyclicBarrier(SHOPPERS);
+        AtomicInteger rejected = new AtomicInteger();
+        List<Future<?>> shoppers = new ArrayList<>();
+        try {
+            for (int s = 0; s < SHOPPERS; s++) {
+                int shopper = s;
+                List<Unit> order = new ArrayList<>(units);
+                Collections.shuffle(order, new Random(s));
+                shoppers.add(executor.submit(() -> {
+                    start.await();
+                    // Carts are opened while the others shop; abandoned ones are deleted again
+                    for (int i = 0; i < 1000; i++) {
+                        Purchase abandoned = new Purchase(i % 2 == 0 ? shared : customers.get(shopper));
+                        if (i % 4 != 0) abandoned.delete();
+                    }
+                    Purchase cart = new Purchase(customers.get(shopper));
+                    carts[shopper] = cart;
+                    for (Unit u : order) {
+                        try {
+                            product.addToCart(cart, u);
+                        } catch (IllegalArgumentException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    // Give some units back so that others may claim them again
+                    for (Unit u : cart.getItems()) {
+                        if (u.getSerialNumber().hashCode() % 7 == 0) product.removeFromCart(cart, u);
+                    }
+                    for (Unit u : order) {
+                        if (u.getPurchase() == cart) continue;
+                        try {
+                            product.addToCart(cart, u);
+                        } catch (IllegalArgumentException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    if (cart.getItemCount() > 0) cart.finalizePurchase();
+                    return null;
+                }));
+            }
+            for (Future<?> shopper : shoppers) shopper.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<Unit, Purchase> soldTo = new IdentityHashMap<>();
+        int sold = 0;
+        for (Purchase cart : carts) {
+            assertSame(cart, Purchase.findById(cart.getId()));
+            for (Unit u : cart.getItems()) {
+                assertNull(soldTo.put(u, cart), "unit " + u.getSerialNumber() + " sold twice");
+                assertSame(cart, u.getPurchase());
+                assertEquals(1, u.getWarranties().size());
+                sold++;
+            }
+        }
+        assertEquals(UNITS, sold);
+        assertEquals(UNITS, Warranty.getExtent().size());
+        assertTrue(rejected.get() > 0);
+        // One cart and 250 abandoned ones per shopper, the latter all on the shared account
+        assertEquals(SHOPPERS * 251, Purchase.getExtent().size());
+        assertEquals(SHOPPERS * 250, shared.getPurchases().size());
+        for (Purchase p : Purchase.getExtent()) assertSame(p, Purchase.findById(p.getId()));
+    }
+
+    @Test
+    @DisplayName("Should leave a cart unchanged when its unit is taken by another purchase")
+    void testLosingCartUnchanged() {
+        Product product = new Product("iPhone", "Black", 999.0);
+        Unit unit = new Unit(LocalDate.of(2024, 1, 15), "SN1", product);
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Purchase first = new Purchase(c);
+        Purchase second = new Purchase(c);
+
+        product.addToCart(first, unit);
+        assertThrows(IllegalArgumentException.class, () -> product.addToCart(second, unit));
+
+        assertTrue(second.getWarranties().isEmpty());
+        assertEquals(1, Warranty.getExtent().size());
+        assertSame(first, unit.getPurchase());
+
+        product.removeFromCart(first, unit);
+        assertFalse(unit.isPurchased());
+        product.addToCart(second, unit);
+        assertSame(second, unit.getPurchase());
+    }
+}
@@ -0,0 +1,168 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.Product;
+import com.byt.s30062.model.SystemSnapshot;
+import com.byt.s30062.model.Unit;
+import com.byt.s30062.util.Extent;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtentTest {
+
+    private static final String FILE = "extent_ids_test.bin";
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @Test
+    @DisplayName("Should keep insertion order across removals and compactions")
+    void testInsertionOrder() {
+        Extent<Integer> extent = new Extent<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Integer value = i;
+            extent.add(value);
+            expected.add(value);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            assertTrue(extent.remove(expected.get(i)));
+        }
+        expected.removeIf(v -> v % 3 == 0);
+
+        assertEquals(expected, extent.toList());
+        assertEquals(expected, extent.view());
+        assertEquals(expected.get(10), extent.view().get(10));
+        assertEquals(expected.size(), extent.size());
+    }
+
+    @Test
+    @DisplayName("Should add and remove by identity")
+    void testIdentity() {
+        Extent<String> extent = new Extent<>();
+        String a = new String("Black");
+        String b = new String("Black");
+
+        assertTrue(extent.add(a));
+        assertFalse(extent.add(a));
+        assertTrue(extent.add(b));
+        assertFalse(extent.remove(new String("Black")));
+        assertTrue(extent.remove(b));
+
+        assertEquals(1, extent.size());
+        assertSame(a, extent.view().get(0));
+        assertTrue(extent.contains(a));
+        assertFalse(extent.contains(b));
+        assertThrows(IllegalArgumentException.class, () -> extent.add(null));
+    }
+
+    @Test
+    @DisplayName("Should give a live read-only view")
+    void testView() {
+        Extent<Integer> extent = new Extent<>();
+        List<Integer> view = extent.view();
+        extent.add(1);
+        extent.add(2);
+
+        assertEquals(List.of(1, 2), view);
+        assertThrows(UnsupportedOperationException.class, () -> view.add(3));
+        assertThrows(UnsupportedOperationException.class, () -> view.iterator().remove());
+        assertThrows(IndexOutOfBoundsException.class, () -> view.get(2));
+
+        extent.clear();
+        assertTrue(view.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should detect changes during iteration but not compaction by reads")
+    void testIteration() {
+        Extent<Integer> extent = new Extent<>();
+        for (int i = 0; i < 10; i++) extent.add(i);
+        extent.remove(3);
+
+        Iterator<Integer> it = extent.iterator();
+        assertEquals(0, it.next());
+        // Indexed access compacts the array, the iterator carries on after the last element
+        assertEquals(4, extent.view().get(3));
+        List<Integer> rest = new ArrayList<>();
+        it.forEachRemaining(rest::add);
+        assertEquals(List.of(1, 2, 4, 5, 6, 7, 8, 9), rest);
+
+        Iterator<Integer> modified = extent.iterator();
+        modified.next();
+        extent.add(10);
+        assertThrows(ConcurrentModificationException.class, modified::next);
+    }
+
+    @Test
+    @DisplayName("Should delete the object itself rather than an equal one")
+    void testModelRemovesByIdentity() {
+        Product first = new Product("iPhone", "Black", 999.0);
+        Product second = new Product("iPhone", "White", 899.0);
+        assertTrue(first.deepEquals(second));
+        List<Product> view = Product.getExtentView();
+
+        second.delete();
+
+        assertEquals(1, view.size());
+        assertSame(first, view.get(0));
+        assertSame(first, Product.getExtent().get(0));
+    }
+
+    @Test
+    @DisplayName("Should give each object its own id and find it by id")
+    void testSurrogateIds() {
+        Product first = new Product("iPhone", "Black", 999.0);
+        Product second = new Product("iPhone", "Black", 999.0);
+        Unit unit = new Unit(LocalDate.of(2024, 1, 15), "SN1", first);
+
+        assertTrue(second.getId() > first.getId());
+        assertTrue(unit.getId() > second.getId());
+        assertNotEquals(first, second);
+        assertSame(first, Product.findById(first.getId()));
+        assertSame(unit, Unit.findById(unit.getId()));
+        assertNull(Unit.findById(first.getId()));
+
+        second.delete();
+        assertNull(Product.findById(second.getId()));
+    }
+
+    @Test
+    @DisplayName("Should keep ids through a snapshot and not hand them out again")
+    void testIdsAfterLoad() throws IOException {
+        Product product = new Product("iPhone", "Black", 999.0);
+        Unit unit = new Unit(LocalDate.of(2024, 1, 15), "SN1", product);
+        long productId = product.getId();
+        long unitId = unit.getId();
+        SystemSnapshot.save(FILE);
+        try {
+            SystemSnapshot.clearAll();
+            SystemSnapshot.load(FILE);
+        } finally {
+            new File(FILE).delete();
+        }
+
+        Product loaded = Product.findById(productId);
+        assertNotSame(product, loaded);
+        assertEquals(product, loaded);
+        assertSame(loaded, Unit.findById(unitId).getProduct());
+        assertTrue(new Product("iPad", "Silver", 599.0).getId() > unitId);
+        Extent<Integer> plain = new Extent<>();
+        assertThrows(IllegalStateException.class, () -> plain.byId(1));
+    }
+}
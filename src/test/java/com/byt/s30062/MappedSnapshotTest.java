@@ -0,0 +1,154 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSnapshotTest {
+
+    private static final String FILE = "mapped_snapshot_test.bin";
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+        new File(FILE).delete();
+    }
+
+    @Test
+    @DisplayName("Should report extent sizes without decoding records")
+    void testSizesWithoutDecoding() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Product p = new Product("Product" + i, "Black", 100.0 + i);
+            new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+        }
+        new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        SystemSnapshot.save(FILE);
+
+        MappedSnapshot snapshot = MappedSnapshot.open(FILE);
+        assertEquals(5, snapshot.size(Product.class));
+        assertEquals(5, snapshot.size(Unit.class));
+        assertEquals(1, snapshot.size(Store.class));
+        assertEquals(0, snapshot.size(Purchase.class));
+        assertEquals(Warranty.getMinimumPeriod(), snapshot.getMinimumWarrantyPeriod());
+        assertEquals(0, snapshot.getDecodedCount());
+    }
+
+    @Test
+    @DisplayName("Should decode only the requested record and the references that are read")
+    void testDecodesOnFirstAccess() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            Product p = new Product("Product" + i, "Black", 100.0 + i);
+            new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+        }
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+
+        MappedSnapshot snapshot = MappedSnapshot.open(FILE);
+        Unit u = snapshot.get(Unit.class, 42);
+        assertEquals("SN42", u.getSerialNumber());
+        assertEquals(1, snapshot.getDecodedCount());
+        assertEquals("Product42", u.getProduct().getName());
+        assertSame(u, u.getProduct().getUnits().get(0));
+        assertEquals(2, snapshot.getDecodedCount());
+
+        assertSame(u, snapshot.get(Unit.class, 42));
+        assertSame(u.getProduct(), snapshot.get(Product.class, 42));
+        assertEquals(2, snapshot.getDecodedCount());
+
+        // The mapped view does not touch the model
+        assertEquals(0, Unit.getExtent().size());
+    }
+
+    @Test
+    @DisplayName("Should decode one record of a connected graph on its own")
+    void testSingleRecordOfConnectedGraph() throws IOException {
+        Store store = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Purchase purchase = new Purchase(c);
+        for (int i = 0; i < 50; i++) {
+            Unit unit = new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+            unit.setStore(store);
+            if (i % 2 == 0) p.addToCart(purchase, unit);
+        }
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+
+        MappedSnapshot snapshot = MappedSnapshot.open(FILE);
+        Unit u = snapshot.get(Unit.class, 10);
+        assertEquals(1, snapshot.getDecodedCount());
+        assertEquals(LocalDate.of(2024, 1, 15), u.getManufacturingDate());
+        assertEquals(1, snapshot.getDecodedCount());
+
+        // Linking the unit decodes its product, store, and the warranty and purchase it is sold in
+        assertEquals("iPhone", u.getProduct().getName());
+        assertEquals(5, snapshot.getDecodedCount());
+        assertSame(snapshot.get(Store.class, 0), u.getStore());
+        assertTrue(u.isPurchased());
+        assertEquals(5, snapshot.getDecodedCount());
+
+        assertEquals("John", u.getPurchase().getCustomer().getFirstName());
+        assertEquals(7, snapshot.getDecodedCount());
+        assertSame(u, u.getPurchase().getWarranties().get(5).getUnit());
+        assertEquals(31, snapshot.getDecodedCount());
+    }
+
+    @Test
+    @DisplayName("Should link decoded objects across extents")
+    void testAssociationsAcrossExtents() throws IOException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        Purchase purchase = new Purchase(c);
+        p.addToCart(purchase, u);
+        SystemSnapshot.save(FILE);
+
+        MappedSnapshot snapshot = MappedSnapshot.open(FILE);
+        Purchase loaded = snapshot.get(Purchase.class, 0);
+        assertSame(snapshot.get(Customer.class, 0), loaded.getCustomer());
+        assertSame(snapshot.get(Unit.class, 0), loaded.getWarranties().get(0).getUnit());
+        assertSame(snapshot.get(Warranty.class, 0), loaded.getWarranties().get(0));
+        assertEquals("John", loaded.getCustomer().getFirstName());
+    }
+
+    @Test
+    @DisplayName("Should expose extents as read-only lazy lists")
+    void testExtentView() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            new Person("Name" + i, "Last", LocalDate.of(1990, 1, 1));
+        }
+        SystemSnapshot.save(FILE);
+
+        MappedSnapshot snapshot = MappedSnapshot.open(FILE);
+        List<Person> people = snapshot.getExtent(Person.class);
+        assertEquals(10, people.size());
+        assertEquals(0, snapshot.getDecodedCount());
+        assertEquals("Name7", people.get(7).getFirstName());
+        assertEquals(1, snapshot.getDecodedCount());
+        assertThrows(UnsupportedOperationException.class, () -> people.remove(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> people.get(10));
+        assertThrows(IllegalArgumentException.class, () -> snapshot.getExtent(Device.class));
+    }
+
+    @Test
+    @DisplayName("Should reject files that are not snapshots")
+    void testInvalidFileRejected() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(FILE)) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        }
+        assertThrows(IOException.class, () -> MappedSnapshot.open(FILE));
+    }
+}
@@ -0,0 +1,223 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.*;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MutationJournalTest {
+
+    private static final String DIR = "mutation_journal_test";
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        Warranty.setMinimumPeriod(1);
+        deleteDirectory();
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        MutationJournal journal = MutationJournal.current();
+        if (journal != null) journal.close();
+        SystemSnapshot.clearAll();
+        Warranty.setMinimumPeriod(1);
+        deleteDirectory();
+    }
+
+    private static void deleteDirectory() {
+        File[] files = new File(DIR).listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        new File(DIR).delete();
+    }
+
+    private static File segment(int generation) {
+        return new File(DIR, "journal-" + generation + ".log");
+    }
+
+    @Test
+    @DisplayName("Should restore committed mutations after reopening the journal")
+    void testReplayCommittedMutations() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR);
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u1 = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        Unit u2 = new Unit(LocalDate.of(2024, 1, 15), "SN002", p);
+        u1.setStore(s);
+        Purchase purchase = new Purchase(c);
+        p.addToCart(purchase, u1);
+        purchase.setDeliveryAddress("5th Avenue");
+        purchase.finalizePurchase();
+        c.setFirstName("Johnny");
+        p.updatePrice(899.0);
+        u2.delete();
+        journal.commit();
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        MutationJournal.open(DIR);
+
+        assertEquals(1, Customer.getExtent().size());
+        Customer loaded = Customer.getExtent().get(0);
+        assertEquals("Johnny", loaded.getFirstName());
+        assertEquals(1, Unit.getExtent().size());
+        Unit loadedUnit = Unit.getExtent().get(0);
+        assertEquals("SN001", loadedUnit.getSerialNumber());
+        assertSame(Store.getExtent().get(0), loadedUnit.getStore());
+        assertSame(Product.getExtent().get(0), loadedUnit.getProduct());
+        assertEquals(899.0, loadedUnit.getProduct().getCurrentPrice());
+
+        Purchase loadedPurchase = Purchase.getExtent().get(0);
+        assertSame(loaded, loadedPurchase.getCustomer());
+        assertEquals(PurchaseStatus.Preparing, loadedPurchase.getStatus());
+        assertEquals("5th Avenue", loadedPurchase.getDeliveryAddress());
+        assertEquals(1, loadedPurchase.getWarranties().size());
+        assertNotNull(loadedPurchase.getWarranties().get(0).getEndDate());
+        assertSame(loadedUnit, loadedPurchase.getWarranties().get(0).getUnit());
+        // Finalized before the price change
+        assertEquals(999.0, loadedPurchase.getTotalPrice());
+    }
+
+    @Test
+    @DisplayName("Should keep recording mutations to objects restored from the journal")
+    void testMutationsAfterRecovery() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR);
+        Manager m = new Manager("Anna", "Smith", LocalDate.of(1980, 1, 1), 5000, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        journal.commit();
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        journal = MutationJournal.open(DIR);
+        Manager loaded = (Manager) Staff.getExtent().get(0);
+        loaded.setBaseSalary(6500);
+        Report r = new Report(loaded, "Quarterly sales report");
+        Warranty.setMinimumPeriod(2);
+        journal.commit();
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        Warranty.setMinimumPeriod(1);
+        MutationJournal.open(DIR);
+        Manager reloaded = (Manager) Staff.getExtent().get(0);
+        assertEquals(6500, reloaded.getBaseSalary());
+        assertEquals(1, reloaded.getReports().size());
+        assertSame(Report.getExtent().get(0), reloaded.getReports().get(0));
+        assertEquals(2, Warranty.getMinimumPeriod());
+    }
+
+    @Test
+    @DisplayName("Should start a new generation when the segment exceeds the checkpoint threshold")
+    void testCheckpointRotatesSegment() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR, 1024);
+        assertEquals(0, journal.getGeneration());
+
+        Product p = new Product("iPhone", "Black", 999.0);
+        for (int i = 0; i < 100; i++) {
+            new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+        }
+        journal.commit();
+        assertEquals(1, journal.getGeneration());
+        assertEquals(0, journal.segmentBytes());
+
+        new Unit(LocalDate.of(2024, 1, 15), "SN-after", p);
+        journal.checkpoint();
+        assertEquals(2, journal.getGeneration());
+        assertTrue(new File(DIR, "snapshot-2.bin").exists());
+        assertFalse(new File(DIR, "snapshot-0.bin").exists());
+        assertFalse(segment(0).exists());
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        MutationJournal.open(DIR);
+        assertEquals(101, Unit.getExtent().size());
+        assertEquals(101, Product.getExtent().get(0).getUnits().size());
+    }
+
+    @Test
+    @DisplayName("Should ignore a torn record at the end of the journal")
+    void testTornTailIgnored() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR);
+        new Product("iPhone", "Black", 999.0);
+        journal.commit();
+        journal.close();
+
+        long validLength = segment(0).length();
+        try (FileOutputStream out = new FileOutputStream(segment(0), true)) {
+            out.write(new byte[] {0, 0, 0, 40, 1, 2, 3});
+        }
+
+        SystemSnapshot.clearAll();
+        journal = MutationJournal.open(DIR);
+        assertEquals(1, Product.getExtent().size());
+        assertEquals(validLength, segment(0).length());
+
+        Product.getExtent().get(0).updatePrice(899.0);
+        journal.commit();
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        MutationJournal.open(DIR);
+        assertEquals(899.0, Product.getExtent().get(0).getCurrentPrice());
+    }
+
+    @Test
+    @DisplayName("Should allow only one open journal")
+    void testSingleActiveJournal() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR);
+        assertSame(journal, MutationJournal.current());
+        assertThrows(IllegalStateException.class, () -> MutationJournal.open(DIR));
+        journal.close();
+        assertNull(MutationJournal.current());
+        assertThrows(IllegalStateException.class, journal::commit);
+    }
+
+    @Test
+    @DisplayName("Should record each object created during a checkpoint exactly once")
+    void testCreationsDuringCheckpoint() throws Exception {
+        MutationJournal journal = MutationJournal.open(DIR);
+        Product p = new Product("iPhone", "Black", 999.0);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> stocking = pool.submit(() -> {
+                for (int i = 0; i < 20_000; i++) new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+            });
+            while (!stocking.isDone()) journal.checkpoint();
+            stocking.get();
+        } finally {
+            pool.shutdown();
+        }
+        journal.commit();
+        journal.close();
+
+        SystemSnapshot.clearAll();
+        MutationJournal.open(DIR);
+        assertEquals(20_000, Unit.getExtent().size());
+        assertEquals(20_000, Product.getExtent().get(0).getUnits().size());
+    }
+
+    @Test
+    @DisplayName("Should reject a change to an object the journal no longer tracks")
+    void testUntrackedTargetRejected() throws IOException {
+        MutationJournal journal = MutationJournal.open(DIR);
+        Product p = new Product("iPhone", "Black", 999.0);
+        p.delete();
+        journal.checkpoint(); // p is unreachable and dropped
+
+        assertThrows(IllegalStateException.class, () -> p.updatePrice(899.0));
+    }
+}
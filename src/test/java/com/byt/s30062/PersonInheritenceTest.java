@@ -415,7 +415,8 @@ class PersonInheritenceTest {
         Customer customer1 = new Customer("Alice", "Johnson", birthDate, registrationDate);
         Customer customer2 = new Customer("Alice", "Johnson", birthDate, registrationDate);
         
-        assertEquals(customer1, customer2);
+        assertTrue(customer1.deepEquals(customer2));
+        assertNotEquals(customer1, customer2);
     }
 
     @Test
@@ -436,6 +437,6 @@ class PersonInheritenceTest {
         assertNotSame(person1, person2);
         
         // But they should be equal in value
-        assertEquals(person1, person2);
+        assertTrue(person1.deepEquals(person2));
     }
 }
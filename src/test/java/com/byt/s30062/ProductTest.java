@@ -1,10 +1,12 @@
 package com.byt.s30062;
 
+import com.byt.s30062.model.PriceHistory;
 import com.byt.s30062.model.Product;
 import org.junit.jupiter.api.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -391,4 +393,94 @@ class ProductTest {
         assertEquals(101, p.getPriceHistory().size());
         assertEquals(900.0, p.getCurrentPrice());
     }
+
+    // ========== AS-OF PRICING ==========
+
+    @Test
+    @DisplayName("Should return the price active on a given day")
+    void testGetPriceAt() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        LocalDate today = LocalDate.now();
+
+        assertEquals(999.0, p.getPriceAt(today));
+        assertEquals(999.0, p.getPriceAt(today.plusYears(1)));
+        assertEquals(0.0, p.getPriceAt(today.minusDays(1)));
+        assertThrows(IllegalArgumentException.class, () -> p.getPriceAt(null));
+
+        // Several changes on one day: the newest entry wins
+        p.updatePrice(899.0);
+        p.updatePrice(799.0);
+        assertEquals(799.0, p.getPriceAt(today));
+        assertEquals(799.0, p.getCurrentPrice());
+    }
+
+    @Test
+    @DisplayName("Should refresh the cached current price when the history changes")
+    void testCurrentPriceCacheInvalidated() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        assertEquals(999.0, p.getCurrentPrice());
+        assertEquals(999.0, p.getCurrentPrice());
+
+        // Ending the open entry through the PriceHistory object is seen as well
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        assertEquals(999.0, p.getPriceAt(tomorrow.plusDays(1)));
+        p.getPriceHistoryObjects().get(0).setDateTo(tomorrow);
+        assertEquals(999.0, p.getPriceAt(tomorrow));
+        assertEquals(0.0, p.getPriceAt(tomorrow.plusDays(1)));
+
+        p.updatePrice(899.0);
+        assertEquals(899.0, p.getCurrentPrice());
+    }
+
+    @Test
+    @DisplayName("Should look up prices in long histories")
+    void testLongHistory() {
+        Product p = new Product("iPhone", "Black", 1.0);
+        for (int i = 2; i <= 10_000; i++) p.updatePrice(i);
+
+        assertEquals(10_000.0, p.getCurrentPrice());
+        assertEquals(10_000.0, p.getPriceAt(LocalDate.now()));
+        assertEquals(10_000, p.getPriceHistory().size());
+    }
+
+    @Test
+    @DisplayName("Should iterate prices in cents without creating history objects")
+    void testPriceIteration() {
+        Product p = new Product("iPhone", "Black", 999.99);
+        p.updatePrice(899.5);
+        p.updatePrice(0.01);
+
+        assertEquals(3, p.getPriceHistorySize());
+        assertEquals(99999, p.getPriceCents(0));
+        assertEquals(89950, p.getPriceCents(1));
+        assertEquals(1, p.getPriceCents(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> p.getPriceCents(3));
+
+        double[] sum = new double[1];
+        p.forEachPrice(price -> sum[0] += price);
+        assertEquals(999.99 + 899.5 + 0.01, sum[0], 1e-9);
+        assertEquals(List.of(999.99, 899.5, 0.01), p.getPriceHistory());
+        assertThrows(IllegalArgumentException.class, () -> p.updatePrice(0.004));
+        assertEquals(3, p.getPriceHistorySize());
+    }
+
+    @Test
+    @DisplayName("Should give history views that write through to the product")
+    void testPriceHistoryViews() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        PriceHistory first = p.getPriceHistoryObjects().get(0);
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        first.setDateTo(tomorrow);
+        assertEquals(tomorrow, p.getPriceHistoryObjects().get(0).getDateTo());
+        assertEquals(first, p.getPriceHistoryObjects().get(0));
+        assertNotSame(first, p.getPriceHistoryObjects().get(0));
+        assertEquals(0.0, p.getPriceAt(tomorrow.plusDays(1)));
+
+        // Views handed out before a delete keep their values
+        p.delete();
+        assertEquals(0, p.getPriceHistorySize());
+        assertEquals(999.0, first.getPrice());
+        assertSame(p, first.getProduct());
+    }
 }
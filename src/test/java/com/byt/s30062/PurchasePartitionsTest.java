@@ -0,0 +1,198 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.PurchaseStatus;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PurchasePartitionsTest {
+
+    private static final String DIR = "purchase_partitions_test";
+
+    private Customer customer;
+    private Product product;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        deleteDirectory();
+        customer = new Customer("John", "Doe", LocalDate.of(1990, 5, 15), LocalDate.of(2020, 1, 1));
+        product = new Product("iPhone", "Black", 999.0);
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = new File(DIR).listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        new File(DIR).delete();
+    }
+
+    private Purchase purchase(LocalDateTime date, String serial) {
+        Purchase p = new Purchase(customer, date);
+        new Warranty(p, new Unit(LocalDate.of(2020, 1, 1), serial, product));
+        return p;
+    }
+
+    @Test
+    @DisplayName("Should write one partition per month and load them back")
+    void testRoundTrip() throws IOException {
+        purchase(LocalDateTime.of(2024, 1, 10, 12, 0), "SN1");
+        purchase(LocalDateTime.of(2024, 1, 20, 12, 0), "SN2");
+        purchase(LocalDateTime.of(2024, 3, 5, 12, 0), "SN3");
+
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        assertEquals(Set.of(YearMonth.of(2024, 1), YearMonth.of(2024, 3)), partitions.save());
+        assertEquals(Set.of(YearMonth.of(2024, 1), YearMonth.of(2024, 3)), partitions.getPartitions());
+
+        SystemSnapshot.clearAll();
+        new PurchasePartitions(DIR).loadAll();
+
+        assertEquals(3, Purchase.getExtent().size());
+        assertEquals(3, Warranty.getExtent().size());
+        Customer c = Customer.getExtent().get(0);
+        assertEquals(3, c.getPurchases().size());
+        for (Purchase p : Purchase.getExtent()) {
+            assertSame(c, p.getCustomer());
+            Warranty w = p.getWarranties().get(0);
+            assertSame(p, w.getPurchase());
+            assertTrue(w.getUnit().getWarranties().contains(w));
+            assertSame(Product.getExtent().get(0), w.getUnit().getProduct());
+        }
+        assertEquals(LocalDateTime.of(2024, 3, 5, 12, 0), Purchase.getExtent().get(2).getPurchaseDate());
+    }
+
+    @Test
+    @DisplayName("Should rewrite only the months that changed")
+    void testOnlyChangedMonthsWritten() throws IOException {
+        purchase(LocalDateTime.of(2024, 1, 10, 12, 0), "SN1");
+        Purchase march = purchase(LocalDateTime.of(2024, 3, 5, 12, 0), "SN2");
+
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        partitions.save();
+        assertTrue(partitions.save().isEmpty());
+
+        march.setStatus(PurchaseStatus.Completed);
+        assertEquals(Set.of(YearMonth.of(2024, 3)), partitions.save());
+
+        purchase(LocalDateTime.of(2024, 4, 1, 9, 0), "SN3");
+        assertEquals(Set.of(YearMonth.of(2024, 4)), partitions.save());
+
+        march.getWarranties().get(0).delete();
+        march.delete();
+        assertEquals(Set.of(YearMonth.of(2024, 3)), partitions.save());
+        assertEquals(Set.of(YearMonth.of(2024, 1), YearMonth.of(2024, 4)), partitions.getPartitions());
+    }
+
+    @Test
+    @DisplayName("Should load only the months in the window and keep the rest on disk")
+    void testWindowedLoad() throws IOException {
+        purchase(LocalDateTime.of(2023, 6, 10, 12, 0), "SN1");
+        purchase(LocalDateTime.of(2024, 2, 10, 12, 0), "SN2");
+        purchase(LocalDateTime.of(2024, 3, 10, 12, 0), "SN3");
+        new PurchasePartitions(DIR).save();
+
+        SystemSnapshot.clearAll();
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        partitions.load(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 3, 31));
+
+        assertEquals(2, Purchase.getExtent().size());
+        assertEquals(2, Warranty.getExtent().size());
+        assertEquals(3, Unit.getExtent().size());
+        assertEquals(2, Customer.getExtent().get(0).getPurchases().size());
+        assertEquals(Set.of(YearMonth.of(2024, 2), YearMonth.of(2024, 3)), partitions.getLoadedPartitions());
+
+        // The old month is neither rewritten nor lost
+        Purchase march = Purchase.getExtent().get(1);
+        march.setStatus(PurchaseStatus.Completed);
+        assertEquals(Set.of(YearMonth.of(2024, 3)), partitions.save());
+
+        SystemSnapshot.clearAll();
+        new PurchasePartitions(DIR).loadAll();
+        assertEquals(3, Purchase.getExtent().size());
+        assertEquals(PurchaseStatus.Completed, Purchase.getExtent().get(2).getStatus());
+        Unit old = Purchase.getExtent().get(0).getItems().get(0);
+        assertEquals("SN1", old.getSerialNumber());
+        assertSame(Customer.getExtent().get(0), Purchase.getExtent().get(0).getCustomer());
+    }
+
+    @Test
+    @DisplayName("Should keep units sold in unloaded months out of stock")
+    void testUnitsSoldInUnloadedMonths() throws IOException {
+        Store store = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        purchase(LocalDateTime.of(2023, 6, 10, 12, 0), "SN1");
+        purchase(LocalDateTime.of(2024, 3, 10, 12, 0), "SN2");
+        new Unit(LocalDate.of(2020, 1, 1), "SN3", product);
+        for (Unit u : Unit.getExtent()) u.setStore(store);
+        new PurchasePartitions(DIR).save();
+
+        SystemSnapshot.clearAll();
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        partitions.load(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31));
+
+        Unit old = Unit.findBySerial("SN1");
+        Product loadedProduct = Product.getExtent().get(0);
+        assertNull(old.getPurchase());
+        assertTrue(old.isPurchased());
+        assertTrue(Unit.findBySerial("SN2").isPurchased());
+        assertFalse(Unit.findBySerial("SN3").isPurchased());
+        assertEquals(1, Store.getExtent().get(0).getAvailableCount(loadedProduct));
+        Purchase cart = new Purchase(Customer.getExtent().get(0));
+        assertThrows(IllegalArgumentException.class, () -> loadedProduct.addToCart(cart, old));
+        assertTrue(old.getWarranties().isEmpty());
+        cart.delete();
+
+        // Still sold after another windowed round trip, and sold by its own purchase once loaded
+        partitions.save();
+        SystemSnapshot.clearAll();
+        new PurchasePartitions(DIR).load(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31));
+        assertTrue(Unit.findBySerial("SN1").isPurchased());
+        SystemSnapshot.clearAll();
+        new PurchasePartitions(DIR).loadAll();
+        Unit loaded = Unit.findBySerial("SN1");
+        assertSame(Purchase.getExtent().get(0), loaded.getPurchase());
+        assertEquals(1, Store.getExtent().get(0).getAvailableCount(Product.getExtent().get(0)));
+    }
+
+    @Test
+    @DisplayName("Should refuse to overwrite months that were not loaded")
+    void testUnloadedMonthNotOverwritten() throws IOException {
+        purchase(LocalDateTime.of(2023, 6, 10, 12, 0), "SN1");
+        new PurchasePartitions(DIR).save();
+
+        SystemSnapshot.clearAll();
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        assertThrows(IllegalStateException.class, partitions::save);
+
+        partitions.load(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+        purchase(LocalDateTime.of(2023, 6, 20, 12, 0), "SN2");
+        assertThrows(IllegalStateException.class, partitions::save);
+    }
+
+    @Test
+    @DisplayName("Should validate the load window")
+    void testWindowValidation() throws IOException {
+        PurchasePartitions partitions = new PurchasePartitions(DIR);
+        assertThrows(IllegalArgumentException.class, () -> partitions.load(null, LocalDate.now()));
+        assertThrows(IllegalArgumentException.class,
+            () -> partitions.load(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> partitions.loadRecent(-1));
+        assertThrows(IllegalArgumentException.class,
+            () -> new Purchase(customer, LocalDateTime.now().plusDays(1)));
+    }
+}
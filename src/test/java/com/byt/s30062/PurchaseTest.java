@@ -4,13 +4,16 @@ import com.byt.s30062.model.Customer;
 import com.byt.s30062.model.Product;
 import com.byt.s30062.model.Purchase;
 import com.byt.s30062.model.Unit;
+import com.byt.s30062.model.Warranty;
 import com.byt.s30062.model.enums.PurchaseStatus;
 import org.junit.jupiter.api.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -73,6 +76,68 @@ class PurchaseTest {
         assertEquals(1098.0, purchase.getTotalPrice());
     }
 
+    @Test
+    @DisplayName("Should keep the prices captured when the purchase was finalized")
+    void testLockedLinePrices() {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Product p1 = new Product("iPhone", "Black", 999.0);
+        Product p2 = new Product("AirPods", "White", 199.0);
+        Unit u1 = new Unit(LocalDate.of(2024, 1, 15), "SN001", p1);
+        Unit u2 = new Unit(LocalDate.of(2024, 1, 16), "SN002", p2);
+        Unit u3 = new Unit(LocalDate.of(2024, 1, 17), "SN003", p2);
+
+        Purchase purchase = new Purchase(c);
+        p1.addToCart(purchase, u1);
+        p2.addToCart(purchase, u2);
+        purchase.finalizePurchase();
+
+        p1.updatePrice(899.0);
+        p2.updatePrice(149.0);
+        assertEquals(1198.0, purchase.getTotalPrice());
+        assertEquals(999.0, purchase.getLinePrice(u1));
+        assertThrows(IllegalArgumentException.class, () -> purchase.getLinePrice(u3));
+
+        // Items added later are priced at today's price, returned ones leave the total
+        p2.addToCart(purchase, u3);
+        assertEquals(149.0, purchase.getLinePrice(u3));
+        assertEquals(1347.0, purchase.getTotalPrice());
+        p1.removeFromCart(purchase, u1);
+        assertEquals(348.0, purchase.getTotalPrice());
+        p2.removeFromCart(purchase, u3);
+        assertEquals(199.0, purchase.getTotalPrice());
+    }
+
+    @Test
+    @DisplayName("Should keep items in order, once each, with a live read-only view")
+    void testItemsView() {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Purchase purchase = new Purchase(c);
+        List<Unit> items = purchase.getItemsView();
+        List<Unit> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Product p = new Product("Product " + i, "Black", 10.0 + i);
+            for (int j = 0; j < 500; j++) {
+                Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN" + i + "-" + j, p);
+                p.addToCart(purchase, u);
+                expected.add(u);
+            }
+        }
+
+        // A second warranty for the same unit adds no item
+        new Warranty(purchase, expected.get(0));
+        assertEquals(5000, purchase.getItemCount());
+        assertEquals(5000, purchase.getWarranties().size());
+        assertEquals(expected, items);
+        assertEquals(expected, purchase.getItems());
+        assertThrows(UnsupportedOperationException.class, () -> items.remove(0));
+
+        Unit removed = expected.remove(1);
+        removed.getProduct().removeFromCart(purchase, removed);
+        assertEquals(expected, items);
+        assertFalse(items.contains(removed));
+        assertEquals(4999, purchase.getWarranties().size());
+    }
+
     @Test
     @DisplayName("Should reject invalid inputs")
     void testValidations() {
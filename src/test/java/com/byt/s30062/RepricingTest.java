@@ -0,0 +1,125 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.enums.AccessoryType;
+import com.byt.s30062.model.enums.Line;
+import com.byt.s30062.model.enums.PortType;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepricingTest {
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+    }
+
+    private Device device(Line line, String name, String color, double price) {
+        return new Device(line, Arrays.asList(PortType.UsbC), LocalDate.of(2023, 9, 15), name, color, price);
+    }
+
+    @Test
+    @DisplayName("Should reprice every device of a line")
+    void testRepriceLine() {
+        Device air = device(Line.MacBook, "MacBook Air", "Silver", 999.0);
+        Device pro = device(Line.MacBook, "MacBook Pro", "Black", 1999.0);
+        Device phone = device(Line.iPhone, "iPhone 15", "Black", 799.0);
+        Accessory sleeve = new Accessory("Sleeve", "Black", 49.0, AccessoryType.LaptopSleeve);
+
+        Set<Product> affected = Repricing.reprice(Repricing.line(Line.MacBook), Repricing.percentOff(10));
+
+        assertEquals(2, affected.size());
+        assertTrue(affected.contains(air));
+        assertTrue(affected.contains(pro));
+        assertEquals(899.1, air.getCurrentPrice());
+        assertEquals(1799.1, pro.getCurrentPrice());
+        assertEquals(2, air.getPriceHistorySize());
+        assertEquals(799.0, phone.getCurrentPrice());
+        assertEquals(49.0, sleeve.getCurrentPrice());
+        assertThrows(UnsupportedOperationException.class, () -> affected.add(phone));
+    }
+
+    @Test
+    @DisplayName("Should combine accessory type, colour and price band selectors")
+    void testCombinedSelectors() {
+        Accessory blackCase = new Accessory("Case A", "Black", 29.0, AccessoryType.PhoneCase);
+        Accessory blueCase = new Accessory("Case B", "Blue", 29.0, AccessoryType.PhoneCase);
+        Accessory dearCase = new Accessory("Case C", "black", 129.0, AccessoryType.PhoneCase);
+        Device phone = device(Line.iPhone, "iPhone 15", "Black", 29.0);
+
+        Set<Product> affected = Repricing.reprice(
+                Repricing.accessoryType(AccessoryType.PhoneCase)
+                        .and(Repricing.color(" Black "))
+                        .and(Repricing.priceBetween(10, 50)),
+                price -> 19.99);
+
+        assertEquals(Set.of(blackCase), affected);
+        assertEquals(19.99, blackCase.getCurrentPrice());
+        assertEquals(29.0, blueCase.getCurrentPrice());
+        assertEquals(129.0, dearCase.getCurrentPrice());
+        assertEquals(29.0, phone.getCurrentPrice());
+
+        // Unchanged prices do not count as affected
+        assertTrue(Repricing.reprice(Repricing.color("Blue"), price -> price).isEmpty());
+        assertEquals(1, blueCase.getPriceHistorySize());
+    }
+
+    @Test
+    @DisplayName("Should change nothing when one new price is invalid")
+    void testAtomicBatch() {
+        Product cheap = new Product("Cable", "White", 0.5);
+        Product dear = new Product("Display", "Silver", 1599.0);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Repricing.reprice(p -> true, price -> price - 1));
+        assertTrue(e.getMessage().contains("Cable"));
+        assertEquals(0.5, cheap.getCurrentPrice());
+        assertEquals(1599.0, dear.getCurrentPrice());
+        assertEquals(1, dear.getPriceHistorySize());
+    }
+
+    @Test
+    @DisplayName("Should select in parallel over a large catalog")
+    void testParallelSelection() {
+        for (int i = 0; i < 10_000; i++) {
+            new Accessory("Case " + i, i % 2 == 0 ? "Black" : "White", 10.0 + i % 100,
+                    i % 5 == 0 ? AccessoryType.PhoneCase : AccessoryType.LaptopBag);
+        }
+
+        Set<Product> affected = Repricing.reprice(
+                Repricing.accessoryType(AccessoryType.PhoneCase).or(Repricing.priceBetween(500, 600)),
+                Repricing.percentOff(50), 4);
+
+        assertEquals(2_000, affected.size());
+        for (Product p : Product.getExtentView()) {
+            double original = 10.0 + Integer.parseInt(p.getName().substring(5)) % 100;
+            boolean selected = ((Accessory) p).getType() == AccessoryType.PhoneCase;
+            assertEquals(selected, affected.contains(p));
+            assertEquals(selected ? original / 2 : original, p.getCurrentPrice(), 1e-9);
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject invalid arguments")
+    void testValidation() {
+        assertThrows(IllegalArgumentException.class, () -> Repricing.line(null));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.accessoryType(null));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.color(" "));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.priceBetween(10, 5));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.percentOff(100));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.percentOff(0));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.reprice(null, p -> p));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.reprice(p -> true, null));
+        assertThrows(IllegalArgumentException.class, () -> Repricing.reprice(p -> true, p -> p, 0));
+    }
+}
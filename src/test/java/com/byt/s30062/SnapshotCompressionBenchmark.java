@@ -0,0 +1,125 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.StaffType;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+// Compares snapshot size and throughput of the per-class ObjectOutputStream files, the plain
+// binary snapshot and the compressed snapshot at a few levels. Not part of the test run:
+//   mvn test-compile
+//   java -cp target/classes:target/test-classes com.byt.s30062.SnapshotCompressionBenchmark [units]
+// Files are written to the temp directory so that disk speed counts, as it does in production.
+public class SnapshotCompressionBenchmark {
+    private static final int ROUNDS = 5;
+    private static final String[] WORDS = {
+        "sales", "store", "units", "returned", "warranty", "delivery", "customer", "weekly",
+        "iPhone", "Galaxy", "charger", "case", "stock", "shortage", "promotion", "target"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int units = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        createModel(units);
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("%-22s %12s %14s %14s%n", "format", "bytes", "write MB/s", "read MB/s");
+        report("ObjectOutputStream", dir, new Format() {
+            void write(File f) throws IOException { saveSerialized(f); }
+            void read(File f) throws Exception { loadSerialized(f); }
+        });
+        report("binary", dir, new Format() {
+            void write(File f) throws IOException { SystemSnapshot.save(f.getPath()); }
+            void read(File f) throws IOException { SystemSnapshot.load(f.getPath()); }
+        });
+        for (int level : new int[] {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            report("compressed level " + (level == Deflater.DEFAULT_COMPRESSION ? "6" : String.valueOf(level)), dir, new Format() {
+                void write(File f) throws IOException { SystemSnapshot.save(f.getPath(), level); }
+                void read(File f) throws IOException { SystemSnapshot.load(f.getPath()); }
+            });
+        }
+    }
+
+    private abstract static class Format {
+        abstract void write(File f) throws Exception;
+
+        abstract void read(File f) throws Exception;
+    }
+
+    // Best of ROUNDS after one warm-up; throughput is relative to the size of the raw binary
+    // snapshot so that the formats are compared on the same amount of model data
+    private static long rawSize;
+
+    private static void report(String name, File dir, Format format) throws Exception {
+        File file = File.createTempFile("benchmark", ".snapshot", dir);
+        try {
+            long bestWrite = Long.MAX_VALUE, bestRead = Long.MAX_VALUE;
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                format.write(file);
+                long written = System.nanoTime();
+                format.read(file);
+                long read = System.nanoTime();
+                if (round > 0) {
+                    bestWrite = Math.min(bestWrite, written - start);
+                    bestRead = Math.min(bestRead, read - written);
+                }
+            }
+            if (rawSize == 0 && name.equals("binary")) rawSize = file.length();
+            long base = rawSize == 0 ? file.length() : rawSize;
+            System.out.printf("%-22s %12d %14.1f %14.1f%n", name, file.length(),
+                    base / 1e6 / (bestWrite / 1e9), base / 1e6 / (bestRead / 1e9));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // What the per-class saveExtent files amount to, in a single stream
+    private static void saveSerialized(File f) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16))) {
+            out.writeObject(Product.getExtent());
+            out.writeObject(Unit.getExtent());
+            out.writeObject(Store.getExtent());
+            out.writeObject(Report.getExtent());
+        }
+    }
+
+    private static void loadSerialized(File f) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+            for (int i = 0; i < 4; i++) in.readObject();
+        }
+    }
+
+    // Products share a handful of names and colours, stores a handful of cities, and reports
+    // are long texts over a small vocabulary, as in the real data
+    private static void createModel(int units) {
+        Random random = new Random(42);
+        Manager m = new Manager("Anna", "Smith", LocalDate.of(1980, 1, 1), 5000, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        List<String> cities = Arrays.asList("Warsaw", "Krakow", "Gdansk", "Poznan");
+        Store[] stores = new Store[20];
+        for (int i = 0; i < stores.length; i++) {
+            stores[i] = new Store(new Address("Main Street " + (i % 5), cities.get(i % cities.size()), "00-00" + (i % 10), "Poland"),
+                    LocalDate.of(2020, 1, 1));
+        }
+        Product[] products = new Product[units / 50 + 1];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new Product("Phone model " + (i % 40), i % 3 == 0 ? "Black" : i % 3 == 1 ? "White" : "Blue", 100 + i % 900);
+        }
+        for (int i = 0; i < units; i++) {
+            Unit u = new Unit(LocalDate.of(2024, 1, 1 + i % 28), "SN" + i, products[i % products.length]);
+            if (i < stores.length * 50) u.setStore(stores[i % stores.length]);
+        }
+        for (int i = 0; i < units / 1000 + 1; i++) {
+            StringBuilder content = new StringBuilder();
+            while (content.length() < 9_900) content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            new Report(m, content.toString());
+        }
+    }
+}
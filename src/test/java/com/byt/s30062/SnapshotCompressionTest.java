@@ -0,0 +1,110 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.StaffType;
+import com.byt.s30062.util.ExtentManager;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotCompressionTest {
+
+    private static final String FILE = "snapshot_compression_test.bin";
+    private static final String RAW_FILE = "snapshot_compression_test_raw.bin";
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+        new File(FILE).delete();
+        new File(RAW_FILE).delete();
+    }
+
+    private void createModel() {
+        Manager m = new Manager("Anna", "Smith", LocalDate.of(1980, 1, 1), 5000, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        for (int i = 0; i < 200; i++) {
+            Product p = new Product("iPhone " + (i % 4), i % 2 == 0 ? "Black" : "White", 999.0);
+            Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+            u.setStore(s);
+        }
+        new Report(m, "Weekly sales report.".repeat(400));
+        new Report(m, "Weekly sales report.".repeat(400));
+    }
+
+    @Test
+    @DisplayName("Should load a compressed snapshot like a plain one")
+    void testRoundTrip() throws IOException {
+        createModel();
+        SystemSnapshot.save(FILE, Deflater.BEST_COMPRESSION);
+        assertTrue(ExtentManager.isCompressed(FILE));
+
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+
+        assertEquals(200, Product.getExtent().size());
+        assertEquals(200, Unit.getExtent().size());
+        assertEquals(2, Report.getExtent().size());
+        assertEquals("Weekly sales report.".repeat(400), Report.getExtent().get(1).getContent());
+        assertEquals("123 Main", Store.getExtent().get(0).getAddress().getStreet());
+        assertSame(Store.getExtent().get(0), Unit.getExtent().get(199).getStore());
+        // Repeated values are stored once and shared after loading
+        assertSame(Product.getExtent().get(0).getColor(), Product.getExtent().get(2).getColor());
+    }
+
+    @Test
+    @DisplayName("Should write repeated strings once and compress the rest")
+    void testSmallerThanPlainSnapshot() throws IOException {
+        createModel();
+        SystemSnapshot.save(RAW_FILE);
+        SystemSnapshot.save(FILE, Deflater.BEST_SPEED);
+
+        assertFalse(ExtentManager.isCompressed(RAW_FILE));
+        assertTrue(new File(FILE).length() * 4 < new File(RAW_FILE).length());
+    }
+
+    @Test
+    @DisplayName("Should fall back to a sequential load for compressed files")
+    void testParallelLoadOfCompressedFile() throws IOException {
+        createModel();
+        SystemSnapshot.save(FILE, Deflater.DEFAULT_COMPRESSION);
+        SystemSnapshot.clearAll();
+
+        assertThrows(IOException.class, () -> MappedSnapshot.open(FILE));
+        SystemSnapshot.loadParallel(FILE, 2);
+        assertEquals(200, Unit.getExtent().size());
+    }
+
+    @Test
+    @DisplayName("Should read compressed serialized extents")
+    void testCompressedExtentFile() throws Exception {
+        List<String> extent = Arrays.asList("Black", "White", "Black");
+        ExtentManager.saveExtent(extent, FILE, 6);
+        assertEquals(extent, ExtentManager.loadExtent(FILE));
+
+        ExtentManager.saveExtent(extent, RAW_FILE);
+        assertEquals(extent, ExtentManager.loadExtent(RAW_FILE));
+    }
+
+    @Test
+    @DisplayName("Should reject invalid compression levels")
+    void testCompressionLevelValidation() {
+        assertThrows(IllegalArgumentException.class, () -> SystemSnapshot.save(FILE, 10));
+        assertThrows(IllegalArgumentException.class, () -> SystemSnapshot.save(FILE, -2));
+        assertFalse(new File(FILE).exists());
+    }
+}
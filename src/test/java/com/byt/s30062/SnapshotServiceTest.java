@@ -0,0 +1,232 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.enums.PurchaseStatus;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotServiceTest {
+
+    private static final String FILE = "snapshot_service_test.bin";
+
+    private SnapshotService service;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        service = new SnapshotService();
+    }
+
+    @AfterEach
+    void cleanup() {
+        service.close();
+        SystemSnapshot.clearAll();
+        new File(FILE).delete();
+        new File(FILE + ".tmp").delete();
+    }
+
+    @Test
+    @DisplayName("Should write the snapshot in the background and complete the future with its path")
+    void testSnapshotWritten() throws Exception {
+        Product p = new Product("iPhone", "Black", 999.0);
+        new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+
+        SnapshotJob job = service.start(FILE);
+        Path written = job.get(10, TimeUnit.SECONDS);
+
+        assertEquals(new File(FILE).toPath(), written);
+        assertTrue(job.isDone());
+        assertTrue(job.getTotalBytes() > 0);
+        assertEquals(job.getTotalBytes(), job.getBytesWritten());
+        assertEquals(1.0, job.getProgress());
+        assertEquals(job.getTotalBytes(), new File(FILE).length());
+        assertFalse(new File(FILE + ".tmp").exists());
+
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+        assertEquals(1, Unit.getExtent().size());
+        assertSame(Product.getExtent().get(0), Unit.getExtent().get(0).getProduct());
+    }
+
+    @Test
+    @DisplayName("Should capture the model as it was when the snapshot started")
+    void testPointInTimeView() throws Exception {
+        Product p = new Product("iPhone", "Black", 999.0);
+        for (int i = 0; i < 5000; i++) {
+            new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+        }
+
+        SnapshotJob job = service.start(FILE);
+        // Writers carry on while the snapshot is written
+        for (int i = 0; i < 1000; i++) {
+            new Unit(LocalDate.of(2024, 1, 15), "NEW" + i, p);
+        }
+        p.updatePrice(899.0);
+        job.get(10, TimeUnit.SECONDS);
+
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+        assertEquals(5000, Unit.getExtent().size());
+        assertEquals(999.0, Product.getExtent().get(0).getCurrentPrice());
+    }
+
+    @Test
+    @DisplayName("Should never capture a checkout half done")
+    void testCheckoutsDuringCapture() throws Exception {
+        Product p = new Product("iPhone", "Black", 999.0);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) units.add(new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p));
+        int shoppers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(shoppers);
+        CountDownLatch started = new CountDownLatch(shoppers);
+        List<Future<?>> running = new ArrayList<>();
+        List<SnapshotJob> jobs = new ArrayList<>();
+        try {
+            for (int s = 0; s < shoppers; s++) {
+                int shopper = s;
+                // Carts are created up front, like the carts of CheckoutConcurrencyTest
+                Customer c = new Customer("Shopper", "No" + shopper, LocalDate.of(1990, 1, 1), LocalDate.now());
+                List<Purchase> carts = new ArrayList<>();
+                for (int i = 0; i < 50; i++) carts.add(new Purchase(c));
+                running.add(executor.submit(() -> {
+                    started.countDown();
+                    // Carts are mostly filled and emptied again; every fifth one is bought
+                    int bought = 0;
+                    for (int round = 0; bought < carts.size(); round++) {
+                        Purchase cart = carts.get(bought);
+                        for (int i = shopper; i < units.size() && cart.getItemCount() < 5; i += shoppers) {
+                            if (!units.get(i).isPurchased()) p.addToCart(cart, units.get(i));
+                        }
+                        if (cart.getItemCount() == 0) break;
+                        if (round % 5 == 0) {
+                            cart.finalizePurchase();
+                            bought++;
+                        } else {
+                            for (Unit u : cart.getItems()) p.removeFromCart(cart, u);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            started.await();
+            while (jobs.size() < 100 && running.stream().anyMatch(shopper -> !shopper.isDone())) {
+                jobs.add(service.start(FILE + jobs.size()));
+            }
+            for (Future<?> shopper : running) shopper.get(60, TimeUnit.SECONDS);
+            for (SnapshotJob job : jobs) job.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(jobs.isEmpty());
+
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                SystemSnapshot.clearAll();
+                SystemSnapshot.load(FILE + i);
+                for (Warranty w : Warranty.getExtent()) {
+                    assertTrue(w.getPurchase().getWarranties().contains(w));
+                    assertTrue(w.getUnit().getWarranties().contains(w));
+                }
+                // A purchase is either a cart or finalized with every warranty dated
+                for (Purchase purchase : Purchase.getExtent()) {
+                    boolean finalized = purchase.getStatus() == PurchaseStatus.Preparing;
+                    for (Warranty w : purchase.getWarranties()) {
+                        assertTrue(Warranty.getExtent().contains(w));
+                        assertEquals(finalized, w.getEndDate() != null);
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < jobs.size(); i++) new File(FILE + i).delete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should capture consistently while units move, prices change and carts open")
+    void testMutationsDuringCapture() throws Exception {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Store[] stores = {
+                new Store(new Address("1 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1)),
+                new Store(new Address("2 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1))
+        };
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) units.add(new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p));
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<SnapshotJob> jobs = new ArrayList<>();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int round = 0; !stop.get(); round++) {
+                    for (int i = 0; i < units.size(); i += 7) units.get(i).setStore(stores[(round + i) % 2]);
+                    p.updatePrice(900.0 + round % 100);
+                    new Purchase(c);
+                    new Unit(LocalDate.of(2024, 1, 15), "NEW" + round, p);
+                }
+                return null;
+            });
+            for (int i = 0; i < 20; i++) jobs.add(service.start(FILE + i));
+            stop.set(true);
+            writer.get(60, TimeUnit.SECONDS);
+            for (SnapshotJob job : jobs) job.get(10, TimeUnit.SECONDS);
+        } finally {
+            stop.set(true);
+            executor.shutdownNow();
+        }
+
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                SystemSnapshot.clearAll();
+                SystemSnapshot.load(FILE + i);
+                for (Unit u : Unit.getExtent()) {
+                    if (u.getStore() != null) assertTrue(u.getStore().getUnits().contains(u));
+                }
+                for (Store s : Store.getExtent()) {
+                    for (Unit u : s.getUnits()) assertSame(s, u.getStore());
+                }
+                assertEquals(Unit.getExtent().size(), Product.getExtent().get(0).getUnits().size());
+                assertEquals(Purchase.getExtent().size(), Customer.getExtent().get(0).getPurchases().size());
+            }
+        } finally {
+            for (int i = 0; i < jobs.size(); i++) new File(FILE + i).delete();
+        }
+    }
+
+    @Test
+    @DisplayName("Should report write failures through the future")
+    void testFailureReported() throws IOException {
+        new Product("iPhone", "Black", 999.0);
+        SnapshotJob job = service.start("missing_directory/" + FILE);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> job.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertFalse(new File("missing_directory").exists());
+    }
+
+    @Test
+    @DisplayName("Should chain work on completion")
+    void testCompletableFuture() throws Exception {
+        new Product("iPhone", "Black", 999.0);
+        SnapshotJob job = service.start(FILE);
+        long size = job.toCompletableFuture().thenApply(path -> path.toFile().length()).get(10, TimeUnit.SECONDS);
+        assertEquals(job.getTotalBytes(), size);
+    }
+
+    @Test
+    @DisplayName("Should reject snapshots after the service is closed")
+    void testClosedService() {
+        service.close();
+        assertThrows(IllegalStateException.class, () -> service.start(FILE));
+    }
+}
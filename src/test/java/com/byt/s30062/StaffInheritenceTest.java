@@ -193,4 +193,36 @@ class StaffInheritenceTest {
         assertEquals(StaffType.PART_TIME, sales.getStaffType());
         assertEquals(3, sales.getWorkingDays().size());
     }
+
+    @Test
+    @DisplayName("Work days are kept as a set in week order")
+    void testWorkDayMask() {
+        LocalDate birthDate = LocalDate.of(1985, 3, 20);
+        Manager manager = new Manager("Alice", "Johnson", birthDate, 80000.0, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Sunday, DayOfWeek.Saturday));
+        SalesStaff sales = new SalesStaff("Bob", "Smith", birthDate, 40000.0, false,
+                3000.0, StaffType.PART_TIME, Arrays.asList(DayOfWeek.Friday, DayOfWeek.Monday),
+                new WorkingHours(14.0, 18.0));
+
+        assertEquals(Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday), manager.getWeekends());
+        assertEquals(0b0011111, manager.getWorkDayMask());
+        assertTrue(manager.worksOn(DayOfWeek.Monday));
+        assertFalse(manager.worksOn(DayOfWeek.Sunday));
+        assertEquals(Arrays.asList(DayOfWeek.Monday, DayOfWeek.Friday), sales.getWorkingDays());
+        assertEquals(0b0010001, sales.getWorkDayMask());
+        assertThrows(UnsupportedOperationException.class, () -> sales.getWorkingDays().add(DayOfWeek.Tuesday));
+
+        Manager twin = new Manager("Alice", "Johnson", birthDate, 80000.0, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        assertTrue(manager.deepEquals(twin));
+        assertEquals(manager.deepHashCode(), twin.deepHashCode());
+        twin.setWeekends(Arrays.asList(DayOfWeek.Friday, DayOfWeek.Saturday));
+        assertFalse(manager.deepEquals(twin));
+
+        assertThrows(IllegalArgumentException.class, () -> sales.setWorkingDays(
+                Arrays.asList(DayOfWeek.Monday, DayOfWeek.Tuesday, DayOfWeek.Monday)));
+        assertThrows(IllegalArgumentException.class, () -> sales.setWorkingDays(
+                Arrays.asList(DayOfWeek.Monday, null, DayOfWeek.Monday)));
+        assertEquals(Arrays.asList(DayOfWeek.Monday, DayOfWeek.Friday), sales.getWorkingDays());
+    }
 }
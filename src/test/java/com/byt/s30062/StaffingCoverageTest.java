@@ -0,0 +1,114 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.StaffType;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaffingCoverageTest {
+
+    private static final WorkingHours OPEN = new WorkingHours(9, 21);
+
+    private Store store;
+    private Manager manager;
+    private SalesStaff evenings;
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+        store = new Store(new Address("123 Main St", "New York", "10001", "USA"), LocalDate.of(2020, 5, 15));
+        manager = new Manager("Alice", "Johnson", LocalDate.of(1985, 3, 20), 80000.0, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        evenings = new SalesStaff("Bob", "Smith", LocalDate.of(1990, 5, 15), 40000.0, false,
+                3000.0, StaffType.PART_TIME,
+                Arrays.asList(DayOfWeek.Monday, DayOfWeek.Tuesday, DayOfWeek.Wednesday, DayOfWeek.Thursday, DayOfWeek.Friday),
+                new WorkingHours(16.5, 21));
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), manager, store);
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), evenings, store);
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @Test
+    @DisplayName("Should count staff per half hour and find the uncovered stretches")
+    void testCoverage() {
+        StaffingCoverage coverage = new StaffingCoverage(store);
+
+        assertEquals(2, coverage.getStaffCount());
+        assertEquals(1, coverage.getHeadcount(DayOfWeek.Monday, 18));   // 9:00
+        assertEquals(2, coverage.getHeadcount(DayOfWeek.Monday, 33));   // 16:30
+        assertEquals(1, coverage.getHeadcount(DayOfWeek.Monday, 34));   // 17:00
+        assertEquals(0, coverage.getHeadcount(DayOfWeek.Monday, 42));   // 21:00
+        assertFalse(coverage.isCovered(DayOfWeek.Saturday, 20));
+        assertEquals(((1L << 42) - 1) & -(1L << 18), coverage.getCoveredMask(DayOfWeek.Friday));
+
+        List<StaffingCoverage.Gap> gaps = coverage.getGaps(OPEN);
+        assertEquals(2, gaps.size());
+        assertEquals(DayOfWeek.Saturday, gaps.get(0).getDay());
+        assertEquals(9.0, gaps.get(0).getStartHour());
+        assertEquals(21.0, gaps.get(0).getFinishHour());
+        assertEquals(DayOfWeek.Sunday, gaps.get(1).getDay());
+        assertFalse(coverage.isFullyCovered(OPEN));
+        // Over the whole day there are gaps before and after the shifts
+        assertEquals(2 * 5 + 2, coverage.getGaps().size());
+    }
+
+    @Test
+    @DisplayName("Should recompute one staff member's slots when their schedule changes")
+    void testIncrementalUpdate() {
+        SalesStaff weekender = new SalesStaff("Carol", "White", LocalDate.of(1992, 1, 10), 40000.0, false,
+                3000.0, StaffType.PART_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Friday),
+                new WorkingHours(9, 15));
+        HistoryOfEmployment employment = new HistoryOfEmployment(LocalDate.of(2021, 1, 1), weekender, store);
+        StaffingCoverage coverage = new StaffingCoverage(store);
+        assertEquals(3, coverage.getStaffCount());
+        assertEquals(2, coverage.getGaps(OPEN).size());  // Saturday 15-21, Sunday
+
+        weekender.setWorkingDays(Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        weekender.setWorkingHours(new WorkingHours(9, 21));
+        coverage.update(weekender);
+        assertTrue(coverage.isFullyCovered(OPEN));
+        assertEquals(1, coverage.getHeadcount(DayOfWeek.Friday, 18));
+        assertEquals(1, coverage.getHeadcount(DayOfWeek.Sunday, 41));
+
+        // Matches a full recompute
+        StaffingCoverage fresh = new StaffingCoverage(store);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            assertEquals(fresh.getCoveredMask(day), coverage.getCoveredMask(day));
+            for (int slot = 0; slot < StaffingCoverage.SLOTS_PER_DAY; slot++) {
+                assertEquals(fresh.getHeadcount(day, slot), coverage.getHeadcount(day, slot));
+            }
+        }
+
+        employment.setDateOfFinish(LocalDate.of(2022, 1, 1));
+        coverage.update(weekender);
+        assertEquals(2, coverage.getStaffCount());
+        assertEquals(0, coverage.getHeadcount(DayOfWeek.Sunday, 41));
+        assertEquals(2, coverage.getGaps(OPEN).size());
+        coverage.update(weekender);
+        assertEquals(2, coverage.getStaffCount());
+    }
+
+    @Test
+    @DisplayName("Should reject invalid arguments")
+    void testValidation() {
+        StaffingCoverage coverage = new StaffingCoverage(store, new WorkingHours(8, 16));
+        assertThrows(IllegalArgumentException.class, () -> new StaffingCoverage(null));
+        assertThrows(IllegalArgumentException.class, () -> new StaffingCoverage(store, null));
+        assertThrows(IllegalArgumentException.class, () -> coverage.getHeadcount(DayOfWeek.Monday, 48));
+        assertThrows(IllegalArgumentException.class, () -> coverage.isCovered(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> coverage.update(null));
+        assertThrows(IllegalArgumentException.class, () -> coverage.getGaps(null));
+    }
+}
@@ -1,7 +1,10 @@
 package com.byt.s30062;
 
+import com.byt.s30062.model.*;
 import com.byt.s30062.model.complex.Address;
-import com.byt.s30062.model.Store;
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.DayOfWeek;
+import com.byt.s30062.model.enums.StaffType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -9,6 +12,8 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -89,8 +94,10 @@ class StoreTest {
         Store store2 = new Store(address, dateOfOpening);
         Store store3 = new Store(new Address("456 Market St", "San Francisco", "94105", "USA"), dateOfOpening);
         
-        assertEquals(store1, store2);
-        assertNotEquals(store1, store3);
+        assertTrue(store1.deepEquals(store2));
+        assertFalse(store1.deepEquals(store3));
+        assertNotEquals(store1, store2);
+        assertEquals(store1, Store.findById(store1.getId()));
     }
 
     @Test
@@ -102,7 +109,7 @@ class StoreTest {
         Store store1 = new Store(address, dateOfOpening);
         Store store2 = new Store(address, dateOfOpening);
         
-        assertEquals(store1.hashCode(), store2.hashCode());
+        assertEquals(store1.deepHashCode(), store2.deepHashCode());
     }
 
     @Test
@@ -151,4 +158,43 @@ class StoreTest {
         
         new File("store_extent.ser").delete();
     }
+
+    @Test
+    @DisplayName("Should list the staff employed here who work on a given day")
+    void testStaffWorkingOn() {
+        Store store = new Store(new Address("123 Main St", "New York", "10001", "USA"), LocalDate.of(2020, 5, 15));
+        Store other = new Store(new Address("456 Market St", "San Francisco", "94105", "USA"), LocalDate.of(2020, 5, 15));
+        Manager weekdays = new Manager("Alice", "Johnson", LocalDate.of(1985, 3, 20), 80000.0, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        SalesStaff weekender = new SalesStaff("Bob", "Smith", LocalDate.of(1990, 5, 15), 40000.0, false,
+                3000.0, StaffType.PART_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday),
+                new WorkingHours(10.0, 18.0));
+        SalesStaff left = new SalesStaff("Carol", "White", LocalDate.of(1992, 1, 10), 40000.0, false,
+                3000.0, StaffType.PART_TIME, Arrays.asList(DayOfWeek.Friday, DayOfWeek.Saturday),
+                new WorkingHours(10.0, 18.0));
+        SalesStaff elsewhere = new SalesStaff("Dan", "Black", LocalDate.of(1992, 1, 10), 40000.0, false,
+                3000.0, StaffType.PART_TIME, Arrays.asList(DayOfWeek.Friday, DayOfWeek.Saturday),
+                new WorkingHours(10.0, 18.0));
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), weekdays, store);
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), weekender, store);
+        // An earlier stint does not list the same person twice
+        new HistoryOfEmployment(LocalDate.of(2020, 6, 1), LocalDate.of(2020, 12, 31), weekender, store);
+        HistoryOfEmployment leaving = new HistoryOfEmployment(LocalDate.of(2021, 1, 1), left, store);
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), elsewhere, other);
+
+        assertEquals(List.of(weekender, left), store.getStaffWorkingOn(DayOfWeek.Saturday));
+        assertEquals(List.of(weekdays), store.getStaffWorkingOn(DayOfWeek.Monday));
+        assertEquals(2, store.countStaffWorkingOn(DayOfWeek.Friday));
+
+        leaving.setDateOfFinish(LocalDate.of(2022, 1, 1));
+        assertEquals(List.of(weekender), store.getStaffWorkingOn(DayOfWeek.Saturday));
+        weekdays.setWeekends(Arrays.asList(DayOfWeek.Monday, DayOfWeek.Tuesday));
+        assertEquals(List.of(weekdays, weekender), store.getStaffWorkingOn(DayOfWeek.Saturday));
+        assertEquals(0, store.countStaffWorkingOn(DayOfWeek.Monday));
+        assertThrows(IllegalArgumentException.class, () -> store.getStaffWorkingOn(null));
+
+        HistoryOfEmployment.clearExtent();
+        Staff.clearExtent();
+        Person.clearExtent();
+    }
 }
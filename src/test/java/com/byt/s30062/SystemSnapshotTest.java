@@ -0,0 +1,227 @@
+package com.byt.s30062;
+
+import com.byt.s30062.model.*;
+import com.byt.s30062.model.complex.Address;
+import com.byt.s30062.model.complex.WorkingHours;
+import com.byt.s30062.model.enums.*;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SystemSnapshotTest {
+
+    private static final String FILE = "system_snapshot_test.bin";
+
+    @BeforeEach
+    void setup() {
+        SystemSnapshot.clearAll();
+    }
+
+    @AfterEach
+    void cleanup() {
+        SystemSnapshot.clearAll();
+        new File(FILE).delete();
+    }
+
+    @Test
+    @DisplayName("Should restore all extents from a single snapshot file")
+    void testSaveAndLoadAllExtents() throws IOException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Manager m = new Manager("Anna", "Smith", LocalDate.of(1980, 1, 1), 5000, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        new HistoryOfEmployment(LocalDate.of(2021, 1, 1), m, s);
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        u.setStore(s);
+        Purchase purchase = new Purchase(c);
+        p.addToCart(purchase, u);
+        Report r = new Report(m, "Monthly sales report");
+        r.addPurchase(purchase);
+
+        SystemSnapshot.save(FILE);
+        assertTrue(new File(FILE).exists());
+
+        SystemSnapshot.clearAll();
+        assertEquals(0, Unit.getExtent().size());
+
+        SystemSnapshot.load(FILE);
+        assertEquals(3, Person.getExtent().size() + Staff.getExtent().size());
+        assertEquals(1, Customer.getExtent().size());
+        assertEquals(1, Store.getExtent().size());
+        assertEquals(1, HistoryOfEmployment.getExtent().size());
+        assertEquals(1, Product.getExtent().size());
+        assertEquals(1, Unit.getExtent().size());
+        assertEquals(1, Purchase.getExtent().size());
+        assertEquals(1, Warranty.getExtent().size());
+        assertEquals(1, Report.getExtent().size());
+    }
+
+    @Test
+    @DisplayName("Should keep object identity between extents after loading")
+    void testIdentityPreservedAcrossExtents() throws IOException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        Purchase purchase = new Purchase(c);
+        p.addToCart(purchase, u);
+
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+
+        Product loadedProduct = Product.getExtent().get(0);
+        Unit loadedUnit = Unit.getExtent().get(0);
+        Purchase loadedPurchase = Purchase.getExtent().get(0);
+        Warranty loadedWarranty = Warranty.getExtent().get(0);
+
+        assertSame(loadedProduct, loadedUnit.getProduct());
+        assertSame(loadedUnit, loadedProduct.getUnits().get(0));
+        assertSame(loadedPurchase, loadedWarranty.getPurchase());
+        assertSame(loadedUnit, loadedWarranty.getUnit());
+        assertSame(Customer.getExtent().get(0), loadedPurchase.getCustomer());
+        assertSame(Customer.getExtent().get(0).getPerson(), Person.getExtent().get(0));
+    }
+
+    @Test
+    @DisplayName("Should restore subtype attributes, price history and supervision")
+    void testSubtypesRoundTrip() throws IOException {
+        Device d = new Device(Line.iPhone, Arrays.asList(PortType.UsbC), LocalDate.of(2023, 9, 1), "iPhone 15", "Blue", 999.0);
+        Accessory a = new Accessory("Case", "Clear", 49.0, AccessoryType.PhoneCase);
+        a.addDesignedFor(d);
+        d.updatePrice(899.0);
+        Administrator admin = new Administrator("Ann", "Lee", LocalDate.of(1985, 1, 1), 4000, false,
+                LevelOfPermission.Senior, StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        SalesStaff intern = new SalesStaff("Bob", "Ray", LocalDate.of(2000, 1, 1), 2000, true, 150,
+                StaffType.PART_TIME, Arrays.asList(DayOfWeek.Monday, DayOfWeek.Tuesday), new WorkingHours(9, 17));
+        admin.supervise(intern);
+        Warranty.setMinimumPeriod(2);
+
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+        Warranty.setMinimumPeriod(1);
+        SystemSnapshot.load(FILE);
+
+        assertEquals(2, Warranty.getMinimumPeriod());
+        Warranty.setMinimumPeriod(1);
+
+        Device loadedDevice = (Device) Product.getExtent().get(0);
+        Accessory loadedAccessory = (Accessory) Product.getExtent().get(1);
+        assertEquals(Line.iPhone, loadedDevice.getLine());
+        assertEquals(Arrays.asList(PortType.UsbC), loadedDevice.getPorts());
+        assertEquals(Arrays.asList(999.0, 899.0), loadedDevice.getPriceHistory());
+        assertEquals(899.0, loadedDevice.getCurrentPrice());
+        assertSame(loadedDevice, loadedAccessory.getDesignedForByName("iPhone 15"));
+        assertTrue(loadedDevice.getAccessories().contains(loadedAccessory));
+
+        Administrator loadedAdmin = (Administrator) Staff.getExtent().get(0);
+        SalesStaff loadedIntern = (SalesStaff) Staff.getExtent().get(1);
+        assertEquals(LevelOfPermission.Senior, loadedAdmin.getLevelOfPermission());
+        assertEquals(Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday), loadedAdmin.getWeekends());
+        assertEquals(new WorkingHours(9, 17), loadedIntern.getWorkingHours());
+        assertEquals(150, loadedIntern.getSalesBonus());
+        assertSame(loadedAdmin, loadedIntern.getSupervisor());
+        assertSame(loadedIntern, loadedAdmin.getSupervises().get(0));
+        assertSame(loadedAdmin, loadedAdmin.getPerson().getStaff());
+    }
+
+    @Test
+    @DisplayName("Should keep objects that are only reachable through associations")
+    void testDetachedObjectsKept() throws IOException {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        p.addToCart(new Purchase(c), u);
+        u.delete(); // removed from extent and product, still referenced by the warranty
+
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+
+        assertEquals(0, Unit.getExtent().size());
+        Purchase loaded = Purchase.getExtent().get(0);
+        Unit detached = loaded.getItems().get(0);
+        assertEquals("SN001", detached.getSerialNumber());
+        assertSame(Product.getExtent().get(0), detached.getProduct());
+        assertSame(loaded.getWarranties().get(0), detached.getWarranties().get(0));
+    }
+
+    @Test
+    @DisplayName("Should handle large association graphs without recursion")
+    void testLargeGraph() throws IOException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Purchase purchase = new Purchase(c);
+        for (int i = 0; i < 20_000; i++) {
+            Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+            new Warranty(purchase, u);
+        }
+
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+        SystemSnapshot.load(FILE);
+
+        assertEquals(20_000, Unit.getExtent().size());
+        assertEquals(20_000, Purchase.getExtent().get(0).getWarranties().size());
+        assertSame(Product.getExtent().get(0), Unit.getExtent().get(19_999).getProduct());
+    }
+
+    @Test
+    @DisplayName("Should reject files that are not binary snapshots and keep the current extents")
+    void testRejectsInvalidFile() throws IOException {
+        new Product("iPhone", "Black", 999.0);
+        try (FileOutputStream out = new FileOutputStream(FILE)) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        assertThrows(IOException.class, () -> SystemSnapshot.load(FILE));
+        assertEquals(1, Product.getExtent().size());
+    }
+
+    @Test
+    @DisplayName("Should load the same graph when sections are decoded in parallel")
+    void testParallelLoad() throws IOException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.of(2020, 1, 1));
+        Manager m = new Manager("Anna", "Smith", LocalDate.of(1980, 1, 1), 5000, false,
+                StaffType.FULL_TIME, Arrays.asList(DayOfWeek.Saturday, DayOfWeek.Sunday));
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        Product p = new Product("iPhone", "Black", 999.0);
+        Purchase purchase = new Purchase(c);
+        for (int i = 0; i < 40_000; i++) {
+            Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN" + i, p);
+            if (i < 1000) u.setStore(s);
+            if (i % 2 == 0) new Warranty(purchase, u);
+        }
+        new Report(m, "Monthly sales report").addPurchase(purchase);
+
+        SystemSnapshot.save(FILE);
+        SystemSnapshot.clearAll();
+        SystemSnapshot.loadParallel(FILE, 4);
+
+        assertEquals(40_000, Unit.getExtent().size());
+        assertEquals(20_000, Warranty.getExtent().size());
+        Product loadedProduct = Product.getExtent().get(0);
+        Store loadedStore = Store.getExtent().get(0);
+        assertSame(loadedProduct, Unit.getExtent().get(39_999).getProduct());
+        assertSame(loadedStore, Unit.getExtent().get(999).getStore());
+        assertEquals(1000, loadedStore.getUnits().size());
+        Purchase loadedPurchase = Purchase.getExtent().get(0);
+        assertSame(Customer.getExtent().get(0), loadedPurchase.getCustomer());
+        assertSame(Unit.getExtent().get(0), loadedPurchase.getWarranties().get(0).getUnit());
+        assertSame(Report.getExtent().get(0), loadedPurchase.getReports().get(0));
+        assertSame(Staff.getExtent().get(0), Report.getExtent().get(0).getManager());
+    }
+
+    @Test
+    @DisplayName("Should reject invalid parallelism")
+    void testParallelLoadValidation() throws IOException {
+        SystemSnapshot.save(FILE);
+        assertThrows(IllegalArgumentException.class, () -> SystemSnapshot.loadParallel(FILE, 0));
+    }
+}
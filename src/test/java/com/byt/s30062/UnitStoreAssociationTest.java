@@ -7,6 +7,10 @@ import com.byt.s30062.model.complex.Address;
 import org.junit.jupiter.api.*;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -258,4 +262,79 @@ class UnitStoreAssociationTest {
         units1.clear();
         assertEquals(1, s.getUnits().size());
     }
+
+    @Test
+    @DisplayName("Should return units in a serial number range")
+    void testUnitRange() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        for (int i = 9; i >= 0; i--) {
+            new Unit(LocalDate.of(2024, 1, 15), "SN00" + i, p).setStore(s);
+        }
+
+        List<Unit> range = s.getUnits("SN003", "SN005");
+        assertEquals(3, range.size());
+        assertEquals("SN003", range.get(0).getSerialNumber());
+        assertEquals("SN005", range.get(2).getSerialNumber());
+        assertEquals(2, s.getUnits(null, "SN001").size());
+        assertEquals(1, s.getUnits("SN009", null).size());
+        assertTrue(s.getUnits("SN0035", "SN0039").isEmpty());
+        assertEquals(10, s.getUnitCount());
+        assertThrows(IllegalArgumentException.class, () -> s.getUnits("SN005", "SN003"));
+    }
+
+    @Test
+    @DisplayName("Should iterate units in order without copying")
+    void testUnitIterator() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        new Unit(LocalDate.of(2024, 1, 15), "SN002", p).setStore(s);
+        new Unit(LocalDate.of(2024, 1, 15), "SN001", p).setStore(s);
+        Unit last = new Unit(LocalDate.of(2024, 1, 15), "SN003", p);
+        last.setStore(s);
+
+        List<String> serials = new ArrayList<>();
+        s.unitIterator().forEachRemaining(u -> serials.add(u.getSerialNumber()));
+        assertEquals(List.of("SN001", "SN002", "SN003"), serials);
+        assertEquals("SN002", s.unitIterator("SN002", "SN002").next().getSerialNumber());
+
+        Iterator<Unit> it = s.unitIterator();
+        it.next();
+        assertThrows(UnsupportedOperationException.class, it::remove);
+        last.setStore(null);
+        assertThrows(ConcurrentModificationException.class, it::next);
+    }
+
+    @Test
+    @DisplayName("Should stock a store with many units quickly")
+    void testManyUnits() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        // Product.linkUnit still scans its list, so the count stays moderate
+        for (int i = 0; i < 20_000; i++) {
+            new Unit(LocalDate.of(2024, 1, 15), "SN" + (i * 7919 % 20_000), p).setStore(s);
+        }
+        assertEquals(20_000, s.getUnitCount());
+        assertEquals("SN0", s.unitIterator().next().getSerialNumber());
+    }
+
+    @Test
+    @DisplayName("Should restock a store with a unit re-created under a deleted unit's serial number")
+    void testDeleteRecreateRestock() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Store s = new Store(new Address("123 Main", "NYC", "10001", "USA"), LocalDate.of(2020, 1, 1));
+        Unit u1 = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        u1.setStore(s);
+
+        u1.delete();
+        assertNull(u1.getStore());
+        assertTrue(s.getUnits().isEmpty());
+        assertFalse(p.getUnits().contains(u1));
+
+        Unit u2 = new Unit(LocalDate.of(2024, 2, 1), "SN001", p);
+        u2.setStore(s);
+        assertSame(s, u2.getStore());
+        assertEquals(List.of(u2), s.getUnits());
+        assertEquals(1, s.getAvailableCount(p));
+    }
 }
@@ -36,12 +36,16 @@ class UnitTest {
         Product p = new Product("iPhone", "Black", 999.0);
         LocalDate mfgDate = LocalDate.of(2024, 1, 15);
         
+        // Serial numbers are unique among live units, so each one is deleted before its twin
         Unit u1 = new Unit(mfgDate, "SN123456789", p);
+        u1.delete();
         Unit u2 = new Unit(mfgDate, "SN123456789", p);
+        u2.delete();
         Unit u3 = new Unit(LocalDate.of(2024, 1, 16), "SN123456789", p);
         
-        assertEquals(u1, u2);
-        assertNotEquals(u1, u3); // Different manufacturing date
+        assertTrue(u1.deepEquals(u2));
+        assertFalse(u1.deepEquals(u3)); // Different manufacturing date
+        assertNotEquals(u1, u2);
     }
 
     @Test
@@ -51,9 +55,10 @@ class UnitTest {
         LocalDate mfgDate = LocalDate.of(2024, 1, 15);
         
         Unit u1 = new Unit(mfgDate, "SN123456789", p);
+        u1.delete();
         Unit u2 = new Unit(mfgDate, "SN123456789", p);
         
-        assertEquals(u1.hashCode(), u2.hashCode());
+        assertEquals(u1.deepHashCode(), u2.deepHashCode());
     }
 
     @Test
@@ -142,4 +147,48 @@ class UnitTest {
         Unit u2 = new Unit(LocalDate.now(), "SN002", p);
         assertEquals(LocalDate.now(), u2.getManufacturingDate());
     }
+
+    @Test
+    @DisplayName("Should find units by serial number")
+    void testFindBySerial() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), " SN001 ", p);
+
+        assertSame(u, Unit.findBySerial("SN001"));
+        assertSame(u, Unit.findBySerial(" SN001"));
+        assertNull(Unit.findBySerial("SN002"));
+        assertNull(Unit.findBySerial(null));
+
+        u.delete();
+        assertNull(Unit.findBySerial("SN001"));
+        assertSame(p, new Unit(LocalDate.of(2024, 1, 15), "SN001", p).getProduct());
+    }
+
+    @Test
+    @DisplayName("Should reject duplicate serial numbers")
+    void testDuplicateSerialRejected() {
+        Product p = new Product("iPhone", "Black", 999.0);
+        Unit u = new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+
+        assertThrows(IllegalArgumentException.class, () -> new Unit(LocalDate.of(2024, 2, 1), "SN001", p));
+        assertThrows(IllegalArgumentException.class, () -> new Unit(LocalDate.of(2024, 2, 1), "SN001 ", p));
+        assertEquals(1, Unit.getExtent().size());
+        assertEquals(1, p.getUnits().size());
+        assertSame(u, Unit.findBySerial("SN001"));
+    }
+
+    @Test
+    @DisplayName("Should rebuild the serial index when the extent is loaded")
+    void testIndexRebuiltOnLoad() throws IOException, ClassNotFoundException {
+        Product p = new Product("iPhone", "Black", 999.0);
+        new Unit(LocalDate.of(2024, 1, 15), "SN001", p);
+        Unit.saveExtent();
+        Unit.clearExtent();
+        assertNull(Unit.findBySerial("SN001"));
+
+        Unit.loadExtent();
+        Unit loaded = Unit.findBySerial("SN001");
+        assertNotNull(loaded);
+        assertSame(Unit.getExtent().get(0), loaded);
+    }
 }
@@ -6,7 +6,10 @@ import org.junit.jupiter.api.*;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.Period;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -146,4 +149,106 @@ class WarrantyTest {
         // isValid is derived
         assertTrue(w.isValid());
     }
+
+    @Test
+    @DisplayName("Should find warranties by end date range and feed them in end date order")
+    void testExpiryIndex() {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Product p = new Product("iPhone", "Black", 999.0);
+        Purchase purchase = new Purchase(c, LocalDateTime.of(2020, 3, 1, 12, 0));
+        Unit u1 = new Unit(LocalDate.of(2020, 1, 15), "SN001", p);
+        Unit u2 = new Unit(LocalDate.of(2020, 1, 15), "SN002", p);
+        Unit u3 = new Unit(LocalDate.of(2020, 1, 15), "SN003", p);
+        Warranty late = new Warranty(purchase, u1, LocalDate.of(2024, 3, 1));
+        Warranty early = new Warranty(purchase, u2, LocalDate.of(2022, 3, 1));
+        Warranty sameDay = new Warranty(purchase, u3, LocalDate.of(2022, 3, 1));
+
+        // Cart items have no end date and are not indexed
+        Purchase cart = new Purchase(c);
+        Unit inCart = new Unit(LocalDate.of(2024, 1, 15), "SN004", p);
+        p.addToCart(cart, inCart);
+
+        assertEquals(List.of(early, sameDay),
+                Warranty.expiringBetween(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 12, 31)));
+        assertEquals(List.of(early, sameDay, late),
+                Warranty.expiringBetween(LocalDate.of(2022, 3, 1), LocalDate.of(2024, 3, 1)));
+        assertTrue(Warranty.expiringBetween(LocalDate.of(2022, 3, 2), LocalDate.of(2024, 2, 29)).isEmpty());
+        assertEquals(List.of(late), Warranty.expiryFeed(LocalDate.of(2022, 3, 2)).collect(Collectors.toList()));
+        assertEquals(List.of(early), Warranty.expiryFeed(LocalDate.MIN).limit(1).collect(Collectors.toList()));
+
+        early.delete();
+        cart.finalizePurchase();
+        Warranty finalized = inCart.getWarranties().get(0);
+        assertEquals(List.of(sameDay, late, finalized),
+                Warranty.expiryFeed(LocalDate.MIN).collect(Collectors.toList()));
+
+        assertTrue(late.isValidOn(LocalDate.of(2020, 3, 1)));
+        assertTrue(late.isValidOn(LocalDate.of(2024, 2, 29)));
+        assertFalse(late.isValidOn(LocalDate.of(2024, 3, 1)));
+        assertFalse(late.isValidOn(LocalDate.of(2020, 2, 29)));
+        assertThrows(IllegalArgumentException.class, () -> Warranty.expiringBetween(LocalDate.of(2022, 1, 2), LocalDate.of(2022, 1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> Warranty.expiryFeed(null));
+    }
+
+    @Test
+    @DisplayName("Should rebuild the expiry index when the extent is loaded")
+    void testExpiryIndexAfterLoad() throws IOException, ClassNotFoundException {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Product p = new Product("iPhone", "Black", 999.0);
+        Purchase purchase = new Purchase(c, LocalDateTime.of(2020, 3, 1, 12, 0));
+        Unit u = new Unit(LocalDate.of(2020, 1, 15), "SN001", p);
+        new Warranty(purchase, u, LocalDate.of(2022, 3, 1));
+        Warranty.saveExtent();
+
+        Warranty.clearExtent();
+        assertTrue(Warranty.expiringBetween(LocalDate.MIN, LocalDate.MAX).isEmpty());
+        Warranty.loadExtent();
+        List<Warranty> expiring = Warranty.expiringBetween(LocalDate.of(2022, 3, 1), LocalDate.of(2022, 3, 1));
+        assertEquals(1, expiring.size());
+        assertSame(Warranty.getExtent().get(0), expiring.get(0));
+    }
+
+    @Test
+    @DisplayName("Should keep each unit's effective coverage across prolongations")
+    void testEffectiveCoverage() {
+        Customer c = new Customer("John", "Doe", LocalDate.of(1990, 1, 1), LocalDate.now());
+        Product p = new Product("iPhone", "Black", 999.0);
+        LocalDate start = LocalDate.now().minusMonths(6);
+        Purchase purchase = new Purchase(c, start.atTime(12, 0));
+        Unit u1 = new Unit(LocalDate.of(2020, 1, 15), "SN001", p);
+        Unit u2 = new Unit(LocalDate.of(2020, 1, 15), "SN002", p);
+        Warranty w1 = new Warranty(purchase, u1, start.plusYears(2));
+        Warranty w2 = new Warranty(purchase, u2, start.plusYears(3));
+
+        assertEquals(start.plusYears(2), u1.getCoverageEnd());
+        w1.prolong(Period.ofYears(1));
+        assertEquals(start.plusYears(3), u1.getCoverageEnd());
+        assertEquals(List.of(start.plusYears(2), start.plusYears(3)), u1.getCoverageHistory());
+        assertEquals(2, u1.getWarranties().size());
+
+        // Both warranties of u1's chain are listed, u1 still gets a single new one
+        List<Warranty> created = Warranty.prolongAll(List.of(w1, w2, u1.getWarranties().get(1)), Period.ofYears(2));
+        assertEquals(2, created.size());
+        assertSame(u1, created.get(0).getUnit());
+        assertEquals(start.plusYears(5), u1.getCoverageEnd());
+        assertEquals(start.plusYears(5), u2.getCoverageEnd());
+        assertEquals(3, u1.getCoverageHistory().size());
+
+        // One unit over the limit leaves every unit unchanged
+        int before = Warranty.getExtent().size();
+        assertThrows(IllegalArgumentException.class, () -> Warranty.prolongAll(List.of(w2, w1), Period.ofYears(6)));
+        assertEquals(before, Warranty.getExtent().size());
+        assertEquals(start.plusYears(5), u2.getCoverageEnd());
+
+        created.get(0).delete();
+        assertEquals(start.plusYears(3), u1.getCoverageEnd());
+        assertTrue(u1.isCoveredOn(start));
+        assertFalse(u1.isCoveredOn(start.minusDays(1)));
+        assertFalse(u1.isCoveredOn(start.plusYears(3)));
+
+        Unit unsold = new Unit(LocalDate.of(2020, 1, 15), "SN003", p);
+        assertNull(unsold.getCoverageEnd());
+        assertFalse(unsold.isCoveredOn(start));
+        assertThrows(IllegalArgumentException.class, () -> Warranty.prolongAll(List.of(w1), Period.ofMonths(6)));
+    }
 }